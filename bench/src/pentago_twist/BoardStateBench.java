@@ -0,0 +1,103 @@
+package pentago_twist;
+
+import boardgame.Board;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PentagoBoardState operations that searches spend their time in, over
+ * the positions of the logged games (see PositionCorpus). Each call takes the
+ * next position of the corpus, so a score is an average over all of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardStateBench {
+    /** Log directory to take the positions from. */
+    @Param("logs")
+    public String logDir;
+
+    private PentagoBoardState[] positions;
+    private PentagoMove[] moves; // A legal move in each position
+    private PentagoBoardState[] scratch; // Copies that updateWinner() may touch
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        List<PentagoBoardState> corpus = PositionCorpus.load(new File(logDir));
+        if (corpus.isEmpty())
+            throw new IOException("No Pentago-Twist games logged in " + logDir);
+        positions = corpus.toArray(new PentagoBoardState[0]);
+        moves = new PentagoMove[positions.length];
+        scratch = new PentagoBoardState[positions.length];
+        Random random = new Random(424);
+        for (int i = 0; i < positions.length; i++) {
+            ArrayList<PentagoMove> legal = positions[i].getAllLegalMoves();
+            moves[i] = legal.get(random.nextInt(legal.size()));
+            scratch[i] = (PentagoBoardState) positions[i].clone();
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == positions.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Object cloneState() {
+        return positions[nextIndex()].clone();
+    }
+
+    /** Includes a clone, since a move can't be undone. */
+    @Benchmark
+    public Object processMove() {
+        int i = nextIndex();
+        PentagoBoardState pbs = (PentagoBoardState) positions[i].clone();
+        pbs.processMove(moves[i]);
+        return pbs;
+    }
+
+    @Benchmark
+    public Object getAllLegalMoves() {
+        return positions[nextIndex()].getAllLegalMoves();
+    }
+
+    /** The positions are unfinished, so this leaves them as they are. */
+    @Benchmark
+    public int updateWinner() {
+        PentagoBoardState pbs = scratch[nextIndex()];
+        pbs.updateWinner();
+        return pbs.getWinner();
+    }
+
+    /** A game played out to the end with getRandomMove(), as in Monte Carlo search. */
+    @Benchmark
+    public int randomPlayout() {
+        PentagoBoardState pbs = (PentagoBoardState) positions[nextIndex()].clone();
+        while (pbs.getWinner() == Board.NOBODY)
+            pbs.processMove((PentagoMove) pbs.getRandomMove());
+        return pbs.getWinner();
+    }
+}
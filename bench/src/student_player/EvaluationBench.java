@@ -0,0 +1,56 @@
+package student_player;
+
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PositionCorpus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MyTools.getEvaluation, the leaf evaluation of the alpha-beta search, over
+ * the positions of the logged games (see PositionCorpus).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluationBench {
+    /** Log directory to take the positions from. */
+    @Param("logs")
+    public String logDir;
+
+    private PentagoBoardState[] positions;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        List<PentagoBoardState> corpus = PositionCorpus.load(new File(logDir));
+        if (corpus.isEmpty())
+            throw new IOException("No Pentago-Twist games logged in " + logDir);
+        positions = corpus.toArray(new PentagoBoardState[0]);
+    }
+
+    @Benchmark
+    public int getEvaluation() {
+        int i = next;
+        next = i + 1 == positions.length ? 0 : i + 1;
+        return MyTools.getEvaluation(positions[i]);
+    }
+}
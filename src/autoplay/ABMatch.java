@@ -0,0 +1,264 @@
+package autoplay;
+
+import boardgame.Board;
+import boardgame.Player;
+import boardgame.Server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// A/B test of two players: plays colour-balanced pairs of games in parallel
+// and stops as soon as a sequential probability ratio test (see Sprt) decides
+// between "A is elo0 stronger than B" and "A is elo1 stronger than B".
+//
+// From the root directory of the project, run
+//
+//     java -cp bin autoplay.ABMatch [-elo0 0] [-elo1 20] [-alpha 0.05] [-beta 0.05] [-max pairs] [-w workers] [-t ms] [-ft ms] [-wall] [-l dir] [-archive] [-o file] playerA[@classPath] playerB[@classPath]
+//
+// To test a change to the student player, save a copy of bin/ before making
+// it and compare the two builds:
+//
+//     cp -r bin bin-base
+//     ... change and recompile ...
+//     java -cp bin autoplay.ABMatch student_player.StudentPlayer student_player.StudentPlayer@bin-base
+//
+// A player with a class path is loaded from it by a PlayerLoader, with its own
+// copy of its classes. The games are played as by Tournament, on as many
+// workers as cores and timed in CPU time unless -wall is given; each worker
+// plays both games of a pair, A moving first in the first one. The test is
+// updated after every pair, and pairs still being played when it stops are
+// abandoned. Pair results can be appended to a CSV file with -o.
+//
+public class ABMatch {
+    public static final String CSV_HEADER = "pair,game0,game1,points,llr,elo";
+
+    private final MatchRunner runner;
+    private final String[] specs;
+    private final ClassLoader[] loaders;
+    private final Sprt sprt;
+
+    /**
+     * @param specs the two players, as className[@classPath]
+     */
+    public ABMatch(MatchRunner runner, String[] specs, Sprt sprt) throws Exception {
+        this.runner = runner;
+        this.specs = specs;
+        this.sprt = sprt;
+        this.loaders = new ClassLoader[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            int at = specs[i].indexOf('@');
+            loaders[i] = at < 0 ? ABMatch.class.getClassLoader() : new PlayerLoader(specs[i].substring(at + 1));
+            newPlayer(i); // Fail now if the class can't be loaded
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java autoplay.ABMatch [-elo0 e] [-elo1 e] [-alpha a] [-beta b] [-max pairs] [-w workers]"
+                + " [-t ms] [-ft ms] [-wall] [-l dir] [-archive] [-o file] playerA[@classPath] playerB[@classPath]\n"
+                + "  Where '-elo0 e' sets the Elo difference of A over B under H0. (default=0)\n"
+                + "        '-elo1 e' sets the Elo difference of A over B under H1. (default=20)\n"
+                + "        '-alpha a' sets the probability of accepting H1 when H0 holds. (default=0.05)\n"
+                + "        '-beta b' sets the probability of accepting H0 when H1 holds. (default=0.05)\n"
+                + "        '-max pairs' stops undecided after this many game pairs. (default=1000)\n"
+                + "        '-w workers' sets the number of pairs played at once. (default=number of cores)\n"
+                + "        '-t ms' sets the timeout. (default=" + Server.DEFAULT_TIMEOUT + ")\n"
+                + "        '-ft ms' sets the timeout for the first move. (default=" + Server.FIRST_MOVE_TIMEOUT + ")\n"
+                + "        '-wall' times the players in wall time rather than CPU time.\n"
+                + "        '-l dir' sets the log directory. (default=" + Server.log_dir + ")\n"
+                + "        '-archive' appends the logs to the archive of the log directory.\n"
+                + "        '-o file' appends the pair results to a CSV file.\n"
+                + "  A player with a class path is loaded from it, so that two builds of one class can be compared.");
+    }
+
+    public static void main(String[] args) {
+        double elo0 = 0, elo1 = 20, alpha = 0.05, beta = 0.05;
+        int max = 1000;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int to = Server.DEFAULT_TIMEOUT;
+        int fto = Server.FIRST_MOVE_TIMEOUT;
+        boolean cpu = true;
+        boolean archive = false;
+        String dir = Server.log_dir;
+        String out = null;
+        String[] specs = new String[2];
+        int nSpecs = 0;
+        Sprt sprt;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-elo0"))
+                    elo0 = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-elo1"))
+                    elo1 = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-alpha"))
+                    alpha = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-beta"))
+                    beta = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-max"))
+                    max = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-w"))
+                    workers = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-t"))
+                    to = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-ft"))
+                    fto = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-wall"))
+                    cpu = false;
+                else if (args[i].equals("-l"))
+                    dir = args[++i];
+                else if (args[i].equals("-archive"))
+                    archive = true;
+                else if (args[i].equals("-o"))
+                    out = args[++i];
+                else if (!args[i].startsWith("-") && nSpecs < 2)
+                    specs[nSpecs++] = args[i];
+                else
+                    throw new IllegalArgumentException(args[i]);
+            }
+            if (nSpecs < 2 || max < 1 || workers < 1)
+                throw new IllegalArgumentException();
+            sprt = new Sprt(elo0, elo1, alpha, beta);
+        } catch (Exception e) {
+            printUsage();
+            return;
+        }
+
+        File logDir = new File(dir);
+        if (!logDir.isDirectory() && !logDir.mkdirs()) {
+            System.err.println("Failed to create log directory.");
+            return;
+        }
+
+        MatchRunner.configurePlayers(to, fto, cpu);
+        ABMatch match;
+        try {
+            MatchRunner runner = new MatchRunner(to, fto, logDir, true, cpu);
+            runner.setArchive(archive);
+            match = new ABMatch(runner, specs, sprt);
+        } catch (Exception e) {
+            System.err.println("Failed to load players: " + e);
+            return;
+        }
+
+        PrintWriter csv = null;
+        try {
+            if (out != null) {
+                File f = new File(out);
+                boolean header = !f.exists() || f.length() == 0;
+                csv = new PrintWriter(new FileWriter(f, true));
+                if (header)
+                    csv.println(CSV_HEADER);
+            }
+            int status = match.run(max, workers, csv);
+            System.out.println("A = " + specs[0] + ", B = " + specs[1]);
+            System.out.println(sprt);
+            if (status == Sprt.ACCEPT_H1)
+                System.out.println("H1 accepted: A is stronger than B by " + elo1 + " Elo or more.");
+            else if (status == Sprt.ACCEPT_H0)
+                System.out.println("H0 accepted: A is not stronger than B by more than " + elo0 + " Elo.");
+            else
+                System.out.println("Undecided after " + sprt.getPairs() + " pairs.");
+        } catch (IOException e) {
+            System.err.println("Failed to write results: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted.");
+        } finally {
+            if (csv != null)
+                csv.close();
+        }
+    }
+
+    /**
+     * Play pairs until the test decides or max pairs have been played.
+     *
+     * @param workers number of pairs played at once
+     * @param csv where to append the pair results, or null
+     * @return the status of the test when it stopped
+     */
+    public int run(int max, int workers, PrintWriter csv) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, workerThreads());
+        CompletionService<MatchRunner.Result[]> done = new ExecutorCompletionService<MatchRunner.Result[]>(pool);
+        Callable<MatchRunner.Result[]> pair = new Callable<MatchRunner.Result[]>() {
+            public MatchRunner.Result[] call() throws Exception {
+                MatchRunner.Result first = runner.play(newPlayer(0), newPlayer(1));
+                return new MatchRunner.Result[] { first, runner.play(newPlayer(1), newPlayer(0)) };
+            }
+        };
+
+        int submitted = 0, finished = 0;
+        int status = Sprt.CONTINUE;
+        try {
+            // Keep every worker busy, and no more, so that little is wasted
+            // once the test stops
+            for (; submitted < Math.min(workers, max); submitted++)
+                done.submit(pair);
+
+            while (finished < submitted) {
+                MatchRunner.Result[] r;
+                try {
+                    r = done.take().get();
+                } catch (ExecutionException e) {
+                    System.err.println("Failed to play a pair:");
+                    e.getCause().printStackTrace();
+                    return status;
+                }
+                finished++;
+
+                // A has colour 0 in the first game and colour 1 in the second
+                double points = points(r[0], 0) + points(r[1], 1);
+                sprt.addPair(points);
+                status = sprt.status();
+                System.out.println("Pair " + finished + " (games " + r[0].gameID + ", " + r[1].gameID + "): A scores "
+                        + points + "/2. " + sprt);
+                if (csv != null) {
+                    csv.println(finished + "," + r[0].gameID + "," + r[1].gameID + "," + points + ","
+                            + String.format("%.3f,%.1f", sprt.llr(), sprt.elo()));
+                    csv.flush();
+                }
+
+                if (status != Sprt.CONTINUE)
+                    break;
+                if (submitted < max) {
+                    done.submit(pair);
+                    submitted++;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return status;
+    }
+
+    private Player newPlayer(int i) throws Exception {
+        int at = specs[i].indexOf('@');
+        String className = at < 0 ? specs[i] : specs[i].substring(0, at);
+        return MatchRunner.newPlayer(className, loaders[i]);
+    }
+
+    /** Points scored by colour c. */
+    private static double points(MatchRunner.Result r, int c) {
+        if (r.winner == Board.DRAW)
+            return 0.5;
+        return r.winner == c ? 1 : 0;
+    }
+
+    private static ThreadFactory workerThreads() {
+        return new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ab-match-" + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,720 @@
+package autoplay;
+
+import boardgame.Board;
+import boardgame.GameLog;
+import boardgame.LogArchive;
+import boardgame.LogIndex;
+import boardgame.MetricsServer;
+import pentago_twist.GameRecord;
+import pentago_twist.GameRecordReader;
+import pentago_twist.GameRecordWriter;
+import pentago_twist.PentagoBoardState;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Statistics over a corpus of Pentago-Twist games, for the post-mortem of a
+// tournament without grepping thousands of logs.
+//
+// From the root directory of the project, run
+//
+//     java -cp bin autoplay.CorpusStats [-p threads] [-opening plies] [-min games] [-top n] source...
+//
+// where each source is a log directory (its text logs, sharded or not, its
+// archive and its outcomes.txt) or a record file written by
+// GameRecordConverter. It prints
+//   - the results by colour, and the first player's advantage with a 95%
+//     confidence interval,
+//   - each player's games and win rate, overall and by colour, with the
+//     games it lost on time, by an illegal move or by disconnecting,
+//   - the distribution of game lengths, in turns,
+//   - how the games ended, from the reasons of their GAMEOVER messages,
+//   - the results of the most played openings, the first plies of a game.
+//
+// The corpus is read on a fork/join pool: log files in batches, archives in
+// ranges of game IDs with a reader each, outcome files in chunks of whole
+// lines, and record files whole; outcome and record files are memory-mapped.
+// The games read are then summed up on the same pool. A game is counted
+// once, from its moves if a source has them, else from its outcome line, in
+// which case its opening is unknown. Games are told apart by ID and players,
+// so a log directory and a record file packed from it can be given together.
+//
+public class CorpusStats {
+    public static final int DEFAULT_OPENING_PLIES = 2;
+    public static final int DEFAULT_MIN_GAMES = 10;
+    public static final int DEFAULT_TOP = 20;
+
+    // Work split: log files per task, archived games per task, bytes of outcomes per task, games summed per task
+    private static final int LOG_BATCH = 256;
+    private static final int ARCHIVE_BATCH = 4096;
+    private static final int OUTCOME_CHUNK = 4 << 20;
+    private static final int SUM_BATCH = 8192;
+
+    private static final int FIRST_PLAYER = GameRecord.playerOf(0);
+    private static final String[] COLOURS = { "white", "black" };
+    // Result columns: a win of either player, then these
+    private static final int DRAW = 2, UNDECIDED = 3, CANCELLED = 4;
+    private static final String[] RESULTS = { "white wins", "black wins", "draws", "undecided", "cancelled" };
+
+    private final int openingPlies;
+    private final AtomicInteger unreadable = new AtomicInteger();
+
+    /** One game, as much of it as its source tells. */
+    static final class Game {
+        final int id;
+        final String[] players;
+        final int result; // 0, 1 or one of DRAW, UNDECIDED, CANCELLED
+        final String end; // As MetricsServer labels reasons
+        final int turns;
+        final String opening; // Null if the moves are unknown
+
+        Game(int id, String[] players, int result, String end, int turns, String opening) {
+            this.id = id;
+            this.players = players;
+            this.result = result;
+            this.end = end;
+            this.turns = turns;
+            this.opening = opening;
+        }
+    }
+
+    public CorpusStats(int openingPlies) {
+        this.openingPlies = openingPlies;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java autoplay.CorpusStats [-p threads] [-opening plies] [-min games] [-top n] source...\n"
+                + "  Where each source is a log directory, or a record file (*" + GameRecordWriter.SUFFIX + ").\n"
+                + "        '-p threads' sets the size of the fork/join pool. (default=number of cores)\n"
+                + "        '-opening plies' sets the number of moves of an opening. (default=" + DEFAULT_OPENING_PLIES + ")\n"
+                + "        '-min games' sets the games an opening needs to be listed. (default=" + DEFAULT_MIN_GAMES + ")\n"
+                + "        '-top n' sets the number of openings listed. (default=" + DEFAULT_TOP + ")");
+    }
+
+    public static void main(String[] args) {
+        int threads = 0, plies = DEFAULT_OPENING_PLIES, minGames = DEFAULT_MIN_GAMES, top = DEFAULT_TOP;
+        List<File> sources = new ArrayList<File>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-p"))
+                    threads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-opening"))
+                    plies = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-min"))
+                    minGames = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-top"))
+                    top = Integer.parseInt(args[++i]);
+                else if (args[i].startsWith("-"))
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                else
+                    sources.add(new File(args[i]));
+            }
+        } catch (RuntimeException e) {
+            printUsage();
+            System.exit(1);
+        }
+        if (sources.isEmpty() || plies < 1 || plies > GameRecord.MAX_MOVES) {
+            printUsage();
+            System.exit(1);
+        }
+
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : new ForkJoinPool();
+        CorpusStats corpus = new CorpusStats(plies);
+        try {
+            long start = System.nanoTime();
+            List<Game> games = pool.invoke(corpus.read(sources));
+            long read = System.nanoTime();
+            int total = games.size();
+            Game[] unique = dedupe(games);
+            Stats stats = pool.invoke(new Sum(unique, 0, unique.length));
+            long end = System.nanoTime();
+            System.out.println(String.format("%d games from %d sources (%d read, %d duplicates, %d unreadable logs), "
+                    + "read in %d ms and summed in %d ms on %d threads.", unique.length, sources.size(), total,
+                    total - unique.length, corpus.unreadable.get(), (read - start) / 1000000, (end - read) / 1000000,
+                    pool.getParallelism()));
+            stats.print(plies, minGames, top);
+        } catch (RuntimeException e) {
+            // Fork/join may wrap the exception of a task again when rethrowing it
+            Throwable cause = e;
+            while (!(cause instanceof IOException) && cause.getCause() != null)
+                cause = cause.getCause();
+            System.err.println("Analysis failed: " + cause.getMessage());
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** A task reading every game of the sources. */
+    private RecursiveTask<List<Game>> read(final List<File> sources) {
+        return new RecursiveTask<List<Game>>() {
+            protected List<Game> compute() {
+                List<ForkJoinTask<List<Game>>> tasks = new ArrayList<ForkJoinTask<List<Game>>>();
+                try {
+                    for (File f : sources) {
+                        if (f.isDirectory())
+                            addLogDirectory(f, tasks);
+                        else if (f.getName().endsWith(GameRecordWriter.SUFFIX))
+                            tasks.add(new Records(f));
+                        else
+                            throw new IOException("Not a log directory or record file: " + f);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return joinAll(tasks);
+            }
+        };
+    }
+
+    private static List<Game> joinAll(List<ForkJoinTask<List<Game>>> tasks) {
+        List<Game> games = new ArrayList<Game>();
+        for (ForkJoinTask<List<Game>> t : ForkJoinTask.invokeAll(tasks))
+            games.addAll(t.join());
+        return games;
+    }
+
+    private void addLogDirectory(File dir, List<ForkJoinTask<List<Game>>> tasks) throws IOException {
+        List<File> logs = new ArrayList<File>();
+        listLogs(dir, logs);
+        tasks.add(new Logs(logs.toArray(new File[logs.size()]), 0, logs.size()));
+
+        if (LogArchive.Reader.exists(dir)) {
+            File archiveDir = new File(dir, LogArchive.ARCHIVE_DIR);
+            int[] ids;
+            try (LogArchive.Reader archive = new LogArchive.Reader(archiveDir)) {
+                ids = archive.getGameIDs();
+            }
+            for (int from = 0; from < ids.length; from += ARCHIVE_BATCH)
+                tasks.add(new Archived(archiveDir, Arrays.copyOfRange(ids, from, Math.min(from + ARCHIVE_BATCH,
+                        ids.length))));
+        }
+
+        File outcomes = new File(dir, GameLog.OUTCOME_FILE);
+        if (outcomes.isFile()) {
+            long[] bounds = lineChunks(outcomes);
+            for (int i = 0; i + 1 < bounds.length; i++)
+                tasks.add(new Outcomes(outcomes, bounds[i], bounds[i + 1]));
+        }
+    }
+
+    /** The log files of dir, sharded or not, as GameLog.forEachLog finds them. */
+    private static void listLogs(File dir, List<File> logs) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IOException("Log directory doesn't seem to exist: " + dir);
+        for (File f : files) {
+            if (f.isDirectory() && !f.getName().equals(LogArchive.ARCHIVE_DIR))
+                listLogs(f, logs);
+            else if (GameLog.parseID(f.getName()) > 0)
+                logs.add(f);
+        }
+    }
+
+    /** The game of a record; its opening is null if it has fewer than openingPlies moves. */
+    Game fromRecord(GameRecord r) {
+        int winner = r.getWinner();
+        int result = winner == 0 || winner == 1 ? winner
+                : winner == Board.DRAW ? DRAW : winner == Board.NOBODY ? UNDECIDED : CANCELLED;
+        String opening = null;
+        if (r.getNumberOfMoves() >= openingPlies) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < openingPlies; i++)
+                sb.append(i > 0 ? LogIndex.OPENING_SEPARATOR : "").append(r.getMove(i).toTransportable());
+            opening = sb.toString();
+        }
+        return new Game(r.getGameID(), new String[] { r.getPlayer(0), r.getPlayer(1) }, result,
+                MetricsServer.reasonLabel(r.getReason()), r.getNumberOfMoves() / 2, opening);
+    }
+
+    /** Text logs files[from, to), split in batches of LOG_BATCH. */
+    private final class Logs extends RecursiveTask<List<Game>> {
+        private static final long serialVersionUID = 1L;
+        private final File[] files;
+        private final int from, to;
+
+        Logs(File[] files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected List<Game> compute() {
+            if (to - from > LOG_BATCH) {
+                int mid = (from + to) >>> 1;
+                Logs right = new Logs(files, mid, to);
+                right.fork();
+                List<Game> games = new Logs(files, from, mid).compute();
+                games.addAll(right.join());
+                return games;
+            }
+            List<Game> games = new ArrayList<Game>(to - from);
+            for (int i = from; i < to; i++) {
+                try (BufferedReader in = new BufferedReader(new FileReader(files[i]))) {
+                    games.add(fromRecord(GameRecord.readLog(in)));
+                } catch (IllegalArgumentException e) {
+                    // Another game, or a log cut short: its outcome line may still count
+                    unreadable.incrementAndGet();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return games;
+        }
+    }
+
+    /** Archived games, with a reader of their own as LogArchive.Reader isn't thread safe. */
+    private final class Archived extends RecursiveTask<List<Game>> {
+        private static final long serialVersionUID = 1L;
+        private final File archiveDir;
+        private final int[] ids;
+
+        Archived(File archiveDir, int[] ids) {
+            this.archiveDir = archiveDir;
+            this.ids = ids;
+        }
+
+        protected List<Game> compute() {
+            List<Game> games = new ArrayList<Game>(ids.length);
+            try (LogArchive.Reader archive = new LogArchive.Reader(archiveDir)) {
+                for (int id : ids) {
+                    try (BufferedReader in = archive.open(id)) {
+                        games.add(fromRecord(GameRecord.readLog(in)));
+                    } catch (IllegalArgumentException e) {
+                        unreadable.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return games;
+        }
+    }
+
+    /** A record file, mapped and read in order since its strings refer back. */
+    private final class Records extends RecursiveTask<List<Game>> {
+        private static final long serialVersionUID = 1L;
+        private final File file;
+
+        Records(File file) {
+            this.file = file;
+        }
+
+        protected List<Game> compute() {
+            List<Game> games = new ArrayList<Game>();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    GameRecordReader in = new GameRecordReader(new BufferInput(map(raf, 0, raf.length())))) {
+                GameRecord r;
+                while ((r = in.next()) != null)
+                    games.add(fromRecord(r));
+            } catch (IOException e) {
+                throw new RuntimeException(new IOException(file + ": " + e.getMessage(), e));
+            }
+            return games;
+        }
+    }
+
+    /** The lines of an outcome file in [start, end), which are whole. */
+    private final class Outcomes extends RecursiveTask<List<Game>> {
+        private static final long serialVersionUID = 1L;
+        private final File file;
+        private final long start, end;
+
+        Outcomes(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected List<Game> compute() {
+            List<Game> games = new ArrayList<Game>();
+            Charset charset = Charset.defaultCharset(); // As PrintStream wrote them
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                ByteBuffer buf = map(raf, start, end - start);
+                byte[] line = new byte[256];
+                int n = 0;
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    if (b != '\n') {
+                        if (n == line.length)
+                            line = Arrays.copyOf(line, n * 2);
+                        line[n++] = b;
+                        continue;
+                    }
+                    LogIndex.Outcome o = LogIndex.parseOutcome(new String(line, 0, n, charset).trim());
+                    n = 0;
+                    if (o != null)
+                        games.add(fromOutcome(o));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return games;
+        }
+    }
+
+    private static Game fromOutcome(LogIndex.Outcome o) {
+        int result = o.result == 0 || o.result == 1 ? o.result
+                : o.result == LogIndex.RESULT_DRAW ? DRAW : o.result == LogIndex.RESULT_UNDECIDED ? UNDECIDED
+                        : CANCELLED;
+        return new Game(o.id, o.players.clone(), result, MetricsServer.reasonLabel(o.reason), o.length, null);
+    }
+
+    /**
+     * Offsets splitting file into chunks of about OUTCOME_CHUNK bytes of
+     * whole lines: the first is 0, the others after a newline. A last line
+     * without its newline is still being written and left out.
+     */
+    private static long[] lineChunks(File file) throws IOException {
+        List<Long> bounds = new ArrayList<Long>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long end = raf.length();
+            byte[] block = new byte[4096];
+            outer: while (end > 0) {
+                int n = (int) Math.min(block.length, end);
+                raf.seek(end - n);
+                raf.readFully(block, 0, n);
+                for (int i = n - 1; i >= 0; i--, end--)
+                    if (block[i] == '\n')
+                        break outer;
+            }
+
+            long pos = 0;
+            bounds.add(pos);
+            while (pos < end) {
+                pos = Math.min(pos + OUTCOME_CHUNK, end);
+                if (pos < end) {
+                    raf.seek(pos - 1);
+                    while (raf.read() != '\n')
+                        ;
+                    pos = raf.getFilePointer();
+                }
+                bounds.add(pos);
+            }
+        }
+        long[] a = new long[bounds.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = bounds.get(i);
+        return a;
+    }
+
+    /** Map length bytes of raf from offset, at most what a buffer holds. */
+    private static ByteBuffer map(RandomAccessFile raf, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Files over 2 GB are not supported.");
+        return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /** An InputStream over a buffer, e.g. a mapped file. */
+    private static final class BufferInput extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+    /**
+     * The games counted, one per ID and players: the first with moves if any,
+     * else the first seen.
+     */
+    static Game[] dedupe(List<Game> games) {
+        Game[] a = games.toArray(new Game[games.size()]);
+        Arrays.sort(a, new Comparator<Game>() {
+            public int compare(Game x, Game y) {
+                if (x.id != y.id)
+                    return x.id < y.id ? -1 : 1;
+                int c = x.players[0].compareTo(y.players[0]);
+                if (c == 0)
+                    c = x.players[1].compareTo(y.players[1]);
+                if (c == 0 && (x.opening == null) != (y.opening == null))
+                    c = x.opening == null ? 1 : -1;
+                return c;
+            }
+        });
+        int n = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (n > 0 && a[n - 1].id == a[i].id && a[n - 1].players[0].equals(a[i].players[0])
+                    && a[n - 1].players[1].equals(a[i].players[1]))
+                continue;
+            a[n++] = a[i];
+        }
+        return Arrays.copyOf(a, n);
+    }
+
+    /** The stats of games[from, to). */
+    private static final class Sum extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+        private final Game[] games;
+        private final int from, to;
+
+        Sum(Game[] games, int from, int to) {
+            this.games = games;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Stats compute() {
+            if (to - from > SUM_BATCH) {
+                int mid = (from + to) >>> 1;
+                Sum right = new Sum(games, mid, to);
+                right.fork();
+                Stats s = new Sum(games, from, mid).compute();
+                s.add(right.join());
+                return s;
+            }
+            Stats s = new Stats();
+            for (int i = from; i < to; i++)
+                s.add(games[i]);
+            return s;
+        }
+    }
+
+    /** One player's games. */
+    static final class PlayerStats {
+        final int[] games = new int[2]; // By colour
+        final int[] wins = new int[2];
+        int draws = 0;
+        int timeouts = 0, illegalMoves = 0, disconnections = 0; // Games lost so
+
+        void add(PlayerStats p) {
+            for (int c = 0; c < 2; c++) {
+                games[c] += p.games[c];
+                wins[c] += p.wins[c];
+            }
+            draws += p.draws;
+            timeouts += p.timeouts;
+            illegalMoves += p.illegalMoves;
+            disconnections += p.disconnections;
+        }
+
+        int getGames() {
+            return games[0] + games[1];
+        }
+    }
+
+    /** What the report is made of, summed over some games. */
+    static final class Stats {
+        int games = 0;
+        int withMoves = 0;
+        final int[] results = new int[RESULTS.length];
+        final int[] lengths = new int[PentagoBoardState.MAX_TURNS + 2]; // Games by turns, the last for longer
+        final Map<String, PlayerStats> players = new HashMap<String, PlayerStats>();
+        final Map<String, Integer> ends = new TreeMap<String, Integer>();
+        final Map<String, int[]> openings = new HashMap<String, int[]>(); // Results, as results[]
+
+        void add(Game g) {
+            games++;
+            results[g.result]++;
+            lengths[Math.min(g.turns, lengths.length - 1)]++;
+            Integer e = ends.get(g.end);
+            ends.put(g.end, e == null ? 1 : e + 1);
+            if (g.opening != null) {
+                withMoves++;
+                int[] o = openings.get(g.opening);
+                if (o == null)
+                    openings.put(g.opening, o = new int[RESULTS.length]);
+                o[g.result]++;
+            }
+            for (int c = 0; c < 2; c++) {
+                PlayerStats p = player(g.players[c]);
+                p.games[c]++;
+                if (g.result == c)
+                    p.wins[c]++;
+                else if (g.result == DRAW)
+                    p.draws++;
+                else if (g.result == 1 - c) {
+                    if (g.end.equals("timeout"))
+                        p.timeouts++;
+                    else if (g.end.equals("illegal_move"))
+                        p.illegalMoves++;
+                    else if (g.end.equals("disconnection"))
+                        p.disconnections++;
+                }
+            }
+        }
+
+        void add(Stats s) {
+            games += s.games;
+            withMoves += s.withMoves;
+            for (int i = 0; i < results.length; i++)
+                results[i] += s.results[i];
+            for (int i = 0; i < lengths.length; i++)
+                lengths[i] += s.lengths[i];
+            for (Map.Entry<String, PlayerStats> e : s.players.entrySet())
+                player(e.getKey()).add(e.getValue());
+            for (Map.Entry<String, Integer> e : s.ends.entrySet()) {
+                Integer n = ends.get(e.getKey());
+                ends.put(e.getKey(), n == null ? e.getValue() : n + e.getValue());
+            }
+            for (Map.Entry<String, int[]> e : s.openings.entrySet()) {
+                int[] o = openings.get(e.getKey());
+                if (o == null)
+                    openings.put(e.getKey(), e.getValue().clone());
+                else
+                    for (int i = 0; i < o.length; i++)
+                        o[i] += e.getValue()[i];
+            }
+        }
+
+        private PlayerStats player(String name) {
+            PlayerStats p = players.get(name);
+            if (p == null)
+                players.put(name, p = new PlayerStats());
+            return p;
+        }
+
+        void print(int plies, int minGames, int top) {
+            System.out.println();
+            System.out.println("Results");
+            for (int i = 0; i < RESULTS.length; i++)
+                System.out.println(String.format("  %-12s %8d  %s", RESULTS[i], results[i], pct(results[i], games)));
+
+            // First-move advantage, over decisive games, with the normal approximation of the binomial
+            int decisive = results[0] + results[1];
+            int first = results[FIRST_PLAYER];
+            System.out.println();
+            System.out.println("First-move advantage (" + COLOURS[FIRST_PLAYER] + " moves first)");
+            if (decisive > 0) {
+                double p = (double) first / decisive;
+                double ci = 1.96 * Math.sqrt(p * (1 - p) / decisive);
+                System.out.println(String.format("  wins %.1f%% +- %.1f%% of %d decisive games, scores %.1f%% "
+                        + "counting draws as half", 100 * p, 100 * ci, decisive,
+                        100 * (first + results[DRAW] / 2.0) / Math.max(1, decisive + results[DRAW])));
+            } else {
+                System.out.println("  no decisive games");
+            }
+
+            System.out.println();
+            System.out.println("Players");
+            System.out.println(String.format("  %-24s %7s %7s %13s %13s %6s %8s %7s %12s", "player", "games",
+                    "win%", "white win%", "black win%", "draws", "timeout", "illegal", "disconnected"));
+            List<Map.Entry<String, PlayerStats>> ps = new ArrayList<Map.Entry<String, PlayerStats>>(
+                    players.entrySet());
+            Collections.sort(ps, new Comparator<Map.Entry<String, PlayerStats>>() {
+                public int compare(Map.Entry<String, PlayerStats> a, Map.Entry<String, PlayerStats> b) {
+                    int c = b.getValue().getGames() - a.getValue().getGames();
+                    return c != 0 ? c : a.getKey().compareTo(b.getKey());
+                }
+            });
+            for (Map.Entry<String, PlayerStats> e : ps) {
+                PlayerStats p = e.getValue();
+                System.out.println(String.format("  %-24s %7d %7s %13s %13s %6d %8d %7d %12d", e.getKey(),
+                        p.getGames(), pct(p.wins[0] + p.wins[1], p.getGames()),
+                        pct(p.wins[0], p.games[0]) + " /" + p.games[0], pct(p.wins[1], p.games[1]) + " /"
+                                + p.games[1],
+                        p.draws, p.timeouts, p.illegalMoves, p.disconnections));
+            }
+
+            System.out.println();
+            System.out.println("Game length, in turns");
+            int max = 0;
+            long sum = 0;
+            for (int i = 0; i < lengths.length; i++) {
+                max = Math.max(max, lengths[i]);
+                sum += (long) i * lengths[i];
+            }
+            System.out.println(String.format("  mean %.2f, p10 %d, median %d, p90 %d", (double) sum
+                    / Math.max(1, games), lengthPercentile(10), lengthPercentile(50), lengthPercentile(90)));
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] == 0)
+                    continue;
+                String bar = new String(new char[(int) Math.ceil(40.0 * lengths[i] / max)]).replace('\0', '#');
+                System.out.println(String.format("  %3s %8d %6s %s", i == lengths.length - 1 ? ">" + (i - 1) : i,
+                        lengths[i], pct(lengths[i], games), bar));
+            }
+
+            System.out.println();
+            System.out.println("Ends");
+            for (Map.Entry<String, Integer> e : ends.entrySet())
+                System.out.println(String.format("  %-16s %8d  %s", e.getKey(), e.getValue(),
+                        pct(e.getValue(), games)));
+
+            System.out.println();
+            System.out.println("Openings: first " + plies + " plies, of the " + withMoves + " games whose moves are known, at least "
+                    + minGames + " games each");
+            List<Map.Entry<String, int[]>> os = new ArrayList<Map.Entry<String, int[]>>();
+            for (Map.Entry<String, int[]> e : openings.entrySet())
+                if (sum(e.getValue()) >= minGames)
+                    os.add(e);
+            Collections.sort(os, new Comparator<Map.Entry<String, int[]>>() {
+                public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+                    int c = sum(b.getValue()) - sum(a.getValue());
+                    return c != 0 ? c : a.getKey().compareTo(b.getKey());
+                }
+            });
+            if (os.isEmpty())
+                System.out.println("  none");
+            else
+                System.out.println(String.format("  %7s %7s %7s %7s  %s", "games", "white%", "black%", "draw%",
+                        "opening"));
+            for (Map.Entry<String, int[]> e : os.subList(0, Math.min(top, os.size()))) {
+                int[] o = e.getValue();
+                int n = sum(o);
+                System.out.println(String.format("  %7d %7s %7s %7s  %s", n, pct(o[0], n), pct(o[1], n),
+                        pct(o[DRAW], n), e.getKey()));
+            }
+            if (os.size() > top)
+                System.out.println("  ... " + (os.size() - top) + " more");
+        }
+
+        private int lengthPercentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * games));
+            long seen = 0;
+            for (int i = 0; i < lengths.length; i++) {
+                seen += lengths[i];
+                if (seen >= rank)
+                    return i;
+            }
+            return lengths.length - 1;
+        }
+
+        private static int sum(int[] a) {
+            int n = 0;
+            for (int v : a)
+                n += v;
+            return n;
+        }
+
+        private static String pct(int n, int of) {
+            return of == 0 ? "-" : String.format("%.1f%%", 100.0 * n / of);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package autoplay;
+
+import boardgame.GameLog;
+import pentago_twist.GameRecord;
+import pentago_twist.GameRecordReader;
+import pentago_twist.GameRecordWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+// Converts game logs between the text format and the binary record format of
+// pentago_twist.GameRecordWriter.
+//
+// From the root directory of the project, run
+//
+//     java -cp bin autoplay.GameRecordConverter logDir games.pgr
+//
+// to pack every complete Pentago-Twist game of a log directory, archive
+// included, into one record file, and
+//
+//     java -cp bin autoplay.GameRecordConverter games.pgr outDir
+//
+// to unpack a record file into text logs under outDir, sharded like the
+// server's. Records keep the game ID, players, result and moves: the comments
+// at the top of a text log (date, host, timeouts) are dropped.
+//
+public class GameRecordConverter {
+
+    private static void printUsage() {
+        System.err.println("Usage: java autoplay.GameRecordConverter logDir file" + GameRecordWriter.SUFFIX + "\n"
+                + "       java autoplay.GameRecordConverter file" + GameRecordWriter.SUFFIX + " outDir\n"
+                + "  Packs the logs of logDir into a record file, or unpacks a record file into text logs.");
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            printUsage();
+            System.exit(1);
+        }
+        try {
+            if (args[0].endsWith(GameRecordWriter.SUFFIX))
+                unpack(new File(args[0]), new File(args[1]));
+            else
+                pack(new File(args[0]), new File(args[1]));
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Write every complete Pentago-Twist game logged in logDir to file. */
+    public static void pack(File logDir, File file) throws IOException {
+        final int[] counts = new int[2]; // Packed, skipped
+        try (final GameRecordWriter out = new GameRecordWriter(new FileOutputStream(file))) {
+            GameLog.forEachLog(logDir, new GameLog.Visitor() {
+                public void visit(int gameID, BufferedReader log) throws IOException {
+                    GameRecord r;
+                    try {
+                        r = GameRecord.readLog(log);
+                    } catch (IllegalArgumentException e) {
+                        counts[1]++;
+                        return;
+                    }
+                    out.write(r);
+                    counts[0]++;
+                }
+            });
+        }
+        System.out.println("Packed " + counts[0] + " games into " + file + " (" + file.length() + " bytes), skipped "
+                + counts[1] + " other logs.");
+    }
+
+    /** Write the games of file as text logs under dir. */
+    public static void unpack(File file, File dir) throws IOException {
+        int n = 0;
+        try (GameRecordReader in = new GameRecordReader(new FileInputStream(file))) {
+            GameRecord r;
+            while ((r = in.next()) != null) {
+                File f = new File(dir, GameLog.fileName(r.getGameID()));
+                f.getParentFile().mkdirs();
+                try (PrintStream out = new PrintStream(new FileOutputStream(f))) {
+                    r.writeLog(out);
+                }
+                n++;
+            }
+        }
+        System.out.println("Unpacked " + n + " games into " + dir + ".");
+    }
+}
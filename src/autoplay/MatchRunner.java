@@ -0,0 +1,472 @@
+package autoplay;
+
+import boardgame.Board;
+import boardgame.GameLog;
+import boardgame.LogWriter;
+import boardgame.Move;
+import boardgame.Player;
+import boardgame.Server;
+import boardgame.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Plays games between two Player classes inside one JVM, without a server,
+// clients or sockets, so that many games can be played back to back.
+//
+// From the root directory of the project, run
+//
+//     java -cp bin autoplay.MatchRunner [-n games] [-t ms] [-ft ms] [-cpu] [-l dir] [-archive] [-q] player0Class player1Class
+//
+// The rules are the Server's: each player gets the same timeout per move,
+// a move that comes in after the timeout is replaced by a random move, and a
+// player that hasn't answered by the end of the cushion loses. Like the
+// Client, a player that throws or returns null plays a random move instead.
+// Each player keeps its own copy of the board, updated with the moves played,
+// and chooseMove() runs on a thread of its own so that it can be timed out.
+// Games are written to the log directory in the usual log and outcomes.txt
+// formats. Colours alternate between games, as in Autoplay.
+//
+// With -cpu, a player's time is the CPU time of its thread rather than wall
+// time, so that games sharing the machine don't eat into each other's
+// thinking time (see Tournament); the wall time of a move is still capped at
+// CPU_WALL_FACTOR times the timeout, for players that block or sleep.
+//
+public class MatchRunner {
+    public static final String DEFAULT_PLAYER0 = "student_player.StudentPlayer";
+    public static final String DEFAULT_PLAYER1 = "pentago_twist.RandomPentagoPlayer";
+    public static final int CPU_WALL_FACTOR = 4;
+    private static final int CPU_POLL_MS = 10;
+
+    // What became of a move request
+    private static final int ON_TIME = 0;
+    private static final int LATE = 1;
+    private static final int FORFEIT = 2;
+
+    private final int timeout;
+    private final int firstMoveTimeout;
+    private final File logDir;
+    private final boolean quiet;
+    private final ThreadMXBean cpuClock; // Null when timing in wall time
+    private final String hostname;
+    private boolean archive = false;
+
+    public MatchRunner(int timeout, int firstMoveTimeout, File logDir, boolean quiet) {
+        this(timeout, firstMoveTimeout, logDir, quiet, false);
+    }
+
+    /**
+     * @param cpuTime time players by the CPU time of their thread rather
+     *        than wall time, if the JVM supports it
+     */
+    public MatchRunner(int timeout, int firstMoveTimeout, File logDir, boolean quiet, boolean cpuTime) {
+        this.timeout = timeout;
+        this.firstMoveTimeout = firstMoveTimeout;
+        this.logDir = logDir;
+        this.quiet = quiet;
+        ThreadMXBean threads = null;
+        if (cpuTime) {
+            threads = ManagementFactory.getThreadMXBean();
+            if (threads.isThreadCpuTimeSupported())
+                threads.setThreadCpuTimeEnabled(true);
+            else {
+                System.err.println("Thread CPU time is not supported, timing moves in wall time.");
+                threads = null;
+            }
+        }
+        this.cpuClock = threads;
+        String host = "localhost";
+        try {
+            host = InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (IOException e) {
+        }
+        this.hostname = host;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java autoplay.MatchRunner [-n games] [-t ms] [-ft ms] [-cpu] [-l dir] [-archive] [-q] [player0Class [player1Class]]\n"
+                + "  Where '-n games' sets the number of games. (default=1)\n"
+                + "        '-t ms' sets the timeout. (default=" + Server.DEFAULT_TIMEOUT + ")\n"
+                + "        '-ft ms' sets the timeout for the first move. (default=" + Server.FIRST_MOVE_TIMEOUT + ")\n"
+                + "        '-cpu' times the players in CPU time of their thread.\n"
+                + "        '-l dir' sets the log directory. (default=" + Server.log_dir + ")\n"
+                + "        '-archive' appends the logs to the archive of the log directory.\n"
+                + "        '-q' indicates not to dump the games to the console.\n"
+                + "  The players default to " + DEFAULT_PLAYER0 + " and " + DEFAULT_PLAYER1 + ".");
+    }
+
+    public static void main(String[] args) {
+        int games = 1;
+        int to = Server.DEFAULT_TIMEOUT;
+        int fto = Server.FIRST_MOVE_TIMEOUT;
+        String dir = Server.log_dir;
+        boolean q = false;
+        boolean cpu = false;
+        boolean archive = false;
+        String[] classes = { DEFAULT_PLAYER0, DEFAULT_PLAYER1 };
+        int nClasses = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-n"))
+                    games = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-t"))
+                    to = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-ft"))
+                    fto = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-l"))
+                    dir = args[++i];
+                else if (args[i].equals("-q"))
+                    q = true;
+                else if (args[i].equals("-cpu"))
+                    cpu = true;
+                else if (args[i].equals("-archive"))
+                    archive = true;
+                else if (!args[i].startsWith("-") && nClasses < 2)
+                    classes[nClasses++] = args[i];
+                else
+                    throw new IllegalArgumentException(args[i]);
+            }
+            if (games < 1)
+                throw new IllegalArgumentException("games");
+        } catch (Exception e) {
+            printUsage();
+            return;
+        }
+
+        File logDir = new File(dir);
+        if (!logDir.isDirectory() && !logDir.mkdirs()) {
+            System.err.println("Failed to create log directory.");
+            return;
+        }
+
+        configurePlayers(to, fto, cpu);
+        MatchRunner runner = new MatchRunner(to, fto, logDir, q, cpu);
+        runner.setArchive(archive);
+        int[] wins = new int[2];
+        int draws = 0, other = 0;
+        long start = System.currentTimeMillis();
+        for (int g = 0; g < games; g++) {
+            // Alternate colours: classes[0] plays first in even games
+            int first = g % 2;
+            try {
+                Player p0 = newPlayer(classes[first]);
+                Player p1 = newPlayer(classes[1 - first]);
+                Result r = runner.play(p0, p1);
+
+                if (r.winner == Board.DRAW)
+                    draws++;
+                else if (r.winner == 0 || r.winner == 1)
+                    wins[r.winner == 0 ? first : 1 - first]++;
+                else
+                    other++;
+                System.out.println("Game " + r.gameID + ": " + r.message + " after " + r.turns + " turns");
+            } catch (Exception e) {
+                System.err.println("Failed to play game " + g + ":");
+                e.printStackTrace();
+                return;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println(classes[0] + ": " + wins[0] + " wins, " + classes[1] + ": " + wins[1] + " wins, " + draws
+                + " draws" + (other > 0 ? ", " + other + " undecided" : ""));
+        System.out.println(games + " games in " + elapsed + " ms (" + (elapsed / games) + " ms per game)");
+    }
+
+    /** Log games to the LogArchive of the log directory rather than to files. */
+    public void setArchive(boolean archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * The players share our JVM, so tell the student player's time manager
+     * about the timeouts and clock as -Dpentago.timeout would. Must be called
+     * before the first player is created.
+     */
+    public static void configurePlayers(int timeout, int firstMoveTimeout, boolean cpuTime) {
+        if (System.getProperty("pentago.timeout") == null)
+            System.setProperty("pentago.timeout", Integer.toString(timeout));
+        if (System.getProperty("pentago.firstMoveTimeout") == null)
+            System.setProperty("pentago.firstMoveTimeout", Integer.toString(firstMoveTimeout));
+        if (cpuTime && System.getProperty("pentago.cpuClock") == null)
+            System.setProperty("pentago.cpuClock", "true");
+    }
+
+    /** Instantiate a player class through its default constructor. */
+    public static Player newPlayer(String className) throws Exception {
+        return newPlayer(className, MatchRunner.class.getClassLoader());
+    }
+
+    /** Instantiate a player class of the given loader through its default constructor. */
+    public static Player newPlayer(String className, ClassLoader loader) throws Exception {
+        Class<?> cl = Class.forName(className, true, loader);
+        return (Player) cl.getConstructor().newInstance();
+    }
+
+    /**
+     * Play one game; p0 gets the first player ID. Both players must use the
+     * same board class.
+     */
+    public Result play(Player p0, Player p1) throws IOException {
+        Player[] players = { p0, p1 };
+        Board board = p0.createBoard();
+        Board[] boards = new Board[players.length];
+        ExecutorService[] threads = new ExecutorService[players.length];
+        for (int i = 0; i < players.length; i++) {
+            players[i].setColor(i);
+            boards[i] = players[i].createBoard();
+            threads[i] = Executors.newSingleThreadExecutor(playerThreads(i));
+        }
+
+        GameLog log = GameLog.create(logDir, archive);
+        String[] names = new String[players.length];
+        int[] ids = new int[players.length];
+        String[] header = new String[players.length];
+        for (int i = 0; i < players.length; i++) {
+            names[i] = players[i].getName();
+            ids[i] = i;
+            header[i] = board.getNameForID(i) + ", '" + names[i] + "', running on " + hostname;
+        }
+        log.writeHeader(Server.VERSION, hostname, 0, board, timeout, firstMoveTimeout, null, header);
+        for (int i = 0; i < players.length; i++)
+            log(log, "START " + board.getNameForID(i) + " " + names[i]);
+
+        String reason = "";
+        try {
+            while (board.getWinner() == Board.NOBODY) {
+                int turn = board.getTurnPlayer();
+                String transportable;
+                if (turn == Board.BOARD) {
+                    transportable = board.getBoardMove().toTransportable();
+                } else {
+                    transportable = requestMove(board, players[turn], boards[turn], threads[turn], turn);
+                    if (transportable == null) {
+                        forceLoser(board, turn);
+                        reason = "TIMEOUT";
+                        break;
+                    }
+                }
+
+                // Same path as a move received by the server
+                Move m = board.parseMove(transportable);
+                try {
+                    Object o = board.filterMove(m);
+                    Move[] ms = o instanceof Move ? new Move[] { (Move) o } : (Move[]) o;
+                    for (int i = 0; i < ms.length; i++) {
+                        m = ms[i];
+                        board.move(m);
+                        if (m.doLog())
+                            log(log, m.toTransportable());
+                        deliver(m, players, boards);
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error executing move: " + m.toPrettyString());
+                    forceLoser(board, turn);
+                    reason = "ILLEGAL MOVE: " + m.toPrettyString();
+                    break;
+                }
+            }
+        } finally {
+            for (int i = 0; i < threads.length; i++)
+                threads[i].shutdownNow();
+        }
+
+        String msg = GameLog.gameOverMessage(reason, board);
+        log(log, msg);
+        for (int i = 0; i < players.length; i++) {
+            int winner = board.getWinner();
+            if (winner != Board.NOBODY)
+                boards[i].forceWinner(winner);
+            players[i].gameOver(msg, boards[i].getBoardState());
+        }
+        log.close();
+        log.appendOutcome(names, ids, board, msg, reason);
+        log.flush(); // So that the result's log file is complete
+
+        return new Result(log.getGameID(), board.getWinner(), board.getTurnNumber(), msg, reason, log.getFileName());
+    }
+
+    /**
+     * Ask a player for a move under the server's timeout rules.
+     *
+     * @return the move to play, or null if the player has to forfeit
+     */
+    private String requestMove(Board board, final Player player, Board own, ExecutorService thread, int id) {
+        boolean first = board.getTurnNumber() == 0;
+        int to = first ? firstMoveTimeout : timeout;
+        int cushion = first ? Server.FIRST_MOVE_TIMEOUT_CUSHION : Server.DEFAULT_TIMEOUT_CUSHION;
+        final Board copy = own;
+        final CpuTimer cpu = cpuClock != null ? new CpuTimer(cpuClock) : null;
+
+        Future<Move> f = thread.submit(() -> {
+            if (cpu != null)
+                cpu.begin();
+            return player.chooseMove(copy.getBoardState());
+        });
+        Move move;
+        try {
+            int status = cpu != null ? awaitCpu(f, cpu, to, cushion) : awaitWall(f, to, cushion);
+            if (status == FORFEIT) {
+                f.cancel(true);
+                return null;
+            } else if (status == LATE) {
+                move = board.getRandomMove();
+                System.out.println("Player " + id + " timeout - Playing random move: " + move.toTransportable());
+            } else {
+                move = f.get();
+            }
+        } catch (ExecutionException e) {
+            System.err.println("ATTENTION: Exception in " + player.getClass().getName()
+                    + ".chooseMove(). Playing random move.");
+            e.getCause().printStackTrace();
+            move = board.getRandomMove();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            f.cancel(true);
+            return null;
+        }
+
+        if (move == null) {
+            System.err.println("ATTENTION: Player didn't return a move.");
+            move = board.getRandomMove();
+        }
+        move.setPlayerID(id);
+        move.setFromBoard(false);
+        return move.toTransportable();
+    }
+
+    /**
+     * Wait for a move in wall time. An exception thrown after the timeout
+     * counts as a late move, as on the server.
+     */
+    private static int awaitWall(Future<Move> f, int to, int cushion) throws ExecutionException, InterruptedException {
+        try {
+            f.get(to, TimeUnit.MILLISECONDS);
+            return ON_TIME;
+        } catch (TimeoutException e) {
+        }
+        try {
+            f.get(cushion, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return FORFEIT;
+        } catch (ExecutionException e) {
+        }
+        return LATE;
+    }
+
+    /** Wait for a move, charging the player for the CPU time of its thread. */
+    private static int awaitCpu(Future<Move> f, CpuTimer cpu, int to, int cushion) throws ExecutionException,
+            InterruptedException {
+        long wallLimit = System.currentTimeMillis() + CPU_WALL_FACTOR * (long) (to + cushion);
+        while (true) {
+            try {
+                f.get(CPU_POLL_MS, TimeUnit.MILLISECONDS);
+                return cpu.used() > to ? LATE : ON_TIME;
+            } catch (ExecutionException e) {
+                if (cpu.used() > to)
+                    return LATE;
+                throw e;
+            } catch (TimeoutException e) {
+            }
+            if (cpu.used() >= to + cushion || System.currentTimeMillis() >= wallLimit)
+                return FORFEIT;
+        }
+    }
+
+    /** Update the players' boards, like the clients do when the server broadcasts a move. */
+    private static void deliver(Move m, Player[] players, Board[] boards) {
+        int[] rec = m.getReceivers();
+        for (int p = 0; p < players.length; p++) {
+            boolean send = rec == null;
+            for (int i = 0; rec != null && i < rec.length; i++)
+                send |= rec[i] == p;
+            if (!send)
+                continue;
+
+            Move copy = boards[p].parseMove(m.toTransportable());
+            boards[p].move(copy);
+            players[p].movePlayed(boards[p].getBoardState(), copy);
+        }
+    }
+
+    private static void forceLoser(Board board, int c) {
+        if (c == Board.BOARD)
+            board.forceWinner(Board.DRAW);
+        else
+            board.forceWinner((c + 1) % 2);
+    }
+
+    private void log(GameLog log, String str) {
+        if (!quiet)
+            LogWriter.shared().console("% " + str);
+        log.println(str);
+    }
+
+    private static ThreadFactory playerThreads(final int id) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Threads.newThread(r, "player-" + id);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    // CPU time of the thread answering one move request. The thread records
+    // itself when the request starts running; until then nothing is used.
+    private static class CpuTimer {
+        private final ThreadMXBean threads;
+        private volatile long threadID = -1;
+        private volatile long start;
+        private volatile long wallStart;
+
+        CpuTimer(ThreadMXBean threads) {
+            this.threads = threads;
+        }
+
+        void begin() {
+            start = threads.getCurrentThreadCpuTime();
+            wallStart = System.currentTimeMillis();
+            threadID = Thread.currentThread().getId();
+        }
+
+        /** Milliseconds used so far, in wall time if the thread's CPU time can't be read. */
+        long used() {
+            long id = threadID;
+            if (id < 0)
+                return 0;
+            long now = threads.getThreadCpuTime(id);
+            if (now < 0 || start < 0)
+                return System.currentTimeMillis() - wallStart;
+            return (now - start) / 1000000;
+        }
+    }
+
+    // Outcome of one game
+    public static class Result {
+        public final int gameID;
+        public final int winner;
+        public final int turns;
+        public final String message;
+        public final String reason;
+        public final String logFile;
+
+        Result(int gameID, int winner, int turns, String message, String reason, String logFile) {
+            this.gameID = gameID;
+            this.winner = winner;
+            this.turns = turns;
+            this.message = message;
+            this.reason = reason;
+            this.logFile = logFile;
+        }
+    }
+}
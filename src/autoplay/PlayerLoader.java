@@ -0,0 +1,57 @@
+package autoplay;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+// Loads a player from a class path of its own, so that two builds of the same
+// player, e.g. the working tree and a copy of bin/ saved before a change, can
+// play each other in one JVM.
+//
+// Only the game framework (boardgame, pentago_twist, autoplay) and the JDK are
+// shared with the rest of the JVM. Every other class is looked up in the
+// player's class path first, so each loader has its own copy of the player's
+// classes and of their static state.
+//
+class PlayerLoader extends URLClassLoader {
+    private static final String[] SHARED = { "java.", "javax.", "sun.", "jdk.", "boardgame.", "pentago_twist.",
+            "autoplay." };
+
+    /** @param classPath directories and jars, separated by File.pathSeparator */
+    PlayerLoader(String classPath) throws MalformedURLException {
+        super(toURLs(classPath), PlayerLoader.class.getClassLoader());
+    }
+
+    private static URL[] toURLs(String classPath) throws MalformedURLException {
+        String[] parts = classPath.split(File.pathSeparator);
+        URL[] urls = new URL[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            urls[i] = new File(parts[i]).toURI().toURL();
+        return urls;
+    }
+
+    private static boolean isShared(String name) {
+        for (int i = 0; i < SHARED.length; i++)
+            if (name.startsWith(SHARED[i]))
+                return true;
+        return false;
+    }
+
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null && !isShared(name)) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                }
+            }
+            if (c == null)
+                c = super.loadClass(name, false);
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package autoplay;
+
+import java.util.Arrays;
+
+// Sequential probability ratio test between two players, A and B, on the
+// results of colour-balanced game pairs.
+//
+// Each pair scores 0, 0.5, 1, 1.5 or 2 points for A, and the five counts (the
+// pentanomial) are what the test looks at: pairs rather than games, so that
+// the advantage of moving first cancels out. H0 is that A is elo0 stronger
+// than B, H1 that it is elo1 stronger, both in logistic Elo. The log
+// likelihood ratio is the usual normal approximation of the generalized SPRT,
+//
+//     LLR = N (s1 - s0) (2 mean - s0 - s1) / (2 variance)
+//
+// where s0 and s1 are the expected scores per game under H0 and H1 and mean
+// and variance are those of the pair score per game over N pairs. The test
+// accepts H1 once LLR >= log((1 - beta) / alpha) and H0 once
+// LLR <= log(beta / (1 - alpha)).
+//
+// Half a pair is added to each count for the mean and variance, so that the
+// first few pairs, which nearly always have the same score, don't give a zero
+// variance and an infinite LLR.
+//
+public class Sprt {
+    public static final int CONTINUE = 0;
+    public static final int ACCEPT_H0 = -1;
+    public static final int ACCEPT_H1 = 1;
+    private static final double PRIOR = 0.5;
+
+    private final double elo0, elo1;
+    private final double lower, upper;
+    private final int[] counts = new int[5];
+    private int pairs = 0;
+
+    /**
+     * @param elo0 Elo difference of H0
+     * @param elo1 Elo difference of H1, greater than elo0
+     * @param alpha probability of accepting H1 when H0 is true
+     * @param beta probability of accepting H0 when H1 is true
+     */
+    public Sprt(double elo0, double elo1, double alpha, double beta) {
+        if (elo1 <= elo0)
+            throw new IllegalArgumentException("elo1 must be greater than elo0.");
+        if (alpha <= 0 || alpha >= 1 || beta <= 0 || beta >= 1)
+            throw new IllegalArgumentException("alpha and beta must be between 0 and 1.");
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.lower = Math.log(beta / (1 - alpha));
+        this.upper = Math.log((1 - beta) / alpha);
+    }
+
+    /** Record a pair in which A scored points out of 2, in halves. */
+    public synchronized void addPair(double points) {
+        int k = (int) Math.round(points * 2);
+        if (k < 0 || k > 4)
+            throw new IllegalArgumentException("A pair scores between 0 and 2 points.");
+        counts[k]++;
+        pairs++;
+    }
+
+    public synchronized int getPairs() {
+        return pairs;
+    }
+
+    /** Number of pairs in which A scored 0, 0.5, 1, 1.5 and 2 points. */
+    public synchronized int[] getPentanomial() {
+        return counts.clone();
+    }
+
+    public double getLowerBound() {
+        return lower;
+    }
+
+    public double getUpperBound() {
+        return upper;
+    }
+
+    public synchronized double llr() {
+        if (pairs == 0)
+            return 0;
+        double[] mv = meanAndVariance();
+        double s0 = expectedScore(elo0), s1 = expectedScore(elo1);
+        return pairs * (s1 - s0) * (2 * mv[0] - s0 - s1) / (2 * mv[1]);
+    }
+
+    /** One of CONTINUE, ACCEPT_H0 and ACCEPT_H1. */
+    public synchronized int status() {
+        double llr = llr();
+        if (llr >= upper)
+            return ACCEPT_H1;
+        if (llr <= lower)
+            return ACCEPT_H0;
+        return CONTINUE;
+    }
+
+    /** Estimated Elo difference of A over B. */
+    public synchronized double elo() {
+        return eloOf(meanAndVariance()[0]);
+    }
+
+    /** Half the width of the 95% confidence interval of elo(). */
+    public synchronized double eloError() {
+        double[] mv = meanAndVariance();
+        double delta = 1.96 * Math.sqrt(mv[1] / Math.max(pairs, 1));
+        return (eloOf(mv[0] + delta) - eloOf(mv[0] - delta)) / 2;
+    }
+
+    public synchronized String toString() {
+        return String.format("LLR %.2f [%.2f, %.2f], Elo %+.1f +- %.1f, pairs %d %s", llr(), lower, upper, elo(),
+                eloError(), pairs, Arrays.toString(counts));
+    }
+
+    /** Mean and variance of the score per game of a pair, with the prior added. */
+    private double[] meanAndVariance() {
+        double n = 0, sum = 0, sumSq = 0;
+        for (int k = 0; k < counts.length; k++) {
+            double c = counts[k] + PRIOR;
+            double x = k / 4.0;
+            n += c;
+            sum += c * x;
+            sumSq += c * x * x;
+        }
+        double mean = sum / n;
+        return new double[] { mean, sumSq / n - mean * mean };
+    }
+
+    /** Expected score per game of a player elo stronger than its opponent. */
+    public static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /** Elo difference for an expected score per game. */
+    public static double eloOf(double score) {
+        score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / score - 1);
+    }
+}
@@ -0,0 +1,336 @@
+package autoplay;
+
+import boardgame.Board;
+import boardgame.Server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Plays a tournament between several Player classes inside one JVM, running
+// games concurrently on a bounded pool of workers.
+//
+// From the root directory of the project, run
+//
+//     java -cp bin autoplay.Tournament [-pairing roundrobin|gauntlet] [-n games] [-swap] [-w workers] [-t ms] [-ft ms] [-wall] [-l dir] [-archive] [-o file] playerClass...
+//
+// Round robin pairs every player with every other; gauntlet pairs the first
+// player with each of the others. Each pairing is played -n times, with
+// colours alternating, or -n times in colour-swapped pairs with -swap: both
+// games of a pair run back to back on one worker and are reported together.
+//
+// There are as many workers as cores by default. Only one player of a game
+// thinks at a time, so each thinking player has a core of its own; on top of
+// that, players are timed in CPU time of their thread (see MatchRunner -cpu)
+// so that a busy machine doesn't cost them moves. Use -wall to time them in
+// wall time like the server does.
+//
+// Results are printed as games finish, in completion order, and appended to
+// the -o file as CSV if given; the standings are printed at the end. Games are
+// logged like MatchRunner's.
+//
+public class Tournament {
+    public static final String ROUND_ROBIN = "roundrobin";
+    public static final String GAUNTLET = "gauntlet";
+    public static final String CSV_HEADER = "game,player0,player1,winner,turns,reason,ms";
+
+    private final MatchRunner runner;
+    private final String[] classes;
+    private final Standing[] standings;
+
+    public Tournament(MatchRunner runner, String[] classes) {
+        this.runner = runner;
+        this.classes = classes;
+        this.standings = new Standing[classes.length];
+        for (int i = 0; i < classes.length; i++)
+            standings[i] = new Standing(classes[i]);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java autoplay.Tournament [-pairing " + ROUND_ROBIN + "|" + GAUNTLET
+                + "] [-n games] [-swap] [-w workers] [-t ms] [-ft ms] [-wall] [-l dir] [-archive] [-o file] playerClass...\n"
+                + "  Where '-pairing' sets who plays whom. (default=" + ROUND_ROBIN + ")\n"
+                + "        '-n games' sets the number of games, or pairs of games, per pairing. (default=2)\n"
+                + "        '-swap' plays each game twice, with colours swapped.\n"
+                + "        '-w workers' sets the number of games played at once. (default=number of cores)\n"
+                + "        '-t ms' sets the timeout. (default=" + Server.DEFAULT_TIMEOUT + ")\n"
+                + "        '-ft ms' sets the timeout for the first move. (default=" + Server.FIRST_MOVE_TIMEOUT + ")\n"
+                + "        '-wall' times the players in wall time rather than CPU time.\n"
+                + "        '-l dir' sets the log directory. (default=" + Server.log_dir + ")\n"
+                + "        '-archive' appends the logs to the archive of the log directory.\n"
+                + "        '-o file' appends the results to a CSV file.\n"
+                + "  At least two player classes are needed.");
+    }
+
+    public static void main(String[] args) {
+        String pairing = ROUND_ROBIN;
+        int games = 2;
+        boolean swap = false;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int to = Server.DEFAULT_TIMEOUT;
+        int fto = Server.FIRST_MOVE_TIMEOUT;
+        boolean cpu = true;
+        boolean archive = false;
+        String dir = Server.log_dir;
+        String out = null;
+        List<String> classes = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-pairing"))
+                    pairing = args[++i];
+                else if (args[i].equals("-n"))
+                    games = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-swap"))
+                    swap = true;
+                else if (args[i].equals("-w"))
+                    workers = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-t"))
+                    to = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-ft"))
+                    fto = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-wall"))
+                    cpu = false;
+                else if (args[i].equals("-l"))
+                    dir = args[++i];
+                else if (args[i].equals("-archive"))
+                    archive = true;
+                else if (args[i].equals("-o"))
+                    out = args[++i];
+                else if (!args[i].startsWith("-"))
+                    classes.add(args[i]);
+                else
+                    throw new IllegalArgumentException(args[i]);
+            }
+            if (!pairing.equals(ROUND_ROBIN) && !pairing.equals(GAUNTLET))
+                throw new IllegalArgumentException(pairing);
+            if (games < 1 || workers < 1 || classes.size() < 2)
+                throw new IllegalArgumentException();
+        } catch (Exception e) {
+            printUsage();
+            return;
+        }
+
+        for (String c : classes) {
+            try {
+                Class.forName(c);
+            } catch (ClassNotFoundException e) {
+                System.err.println("Player class not found: " + c);
+                return;
+            }
+        }
+        File logDir = new File(dir);
+        if (!logDir.isDirectory() && !logDir.mkdirs()) {
+            System.err.println("Failed to create log directory.");
+            return;
+        }
+
+        MatchRunner.configurePlayers(to, fto, cpu);
+        MatchRunner runner = new MatchRunner(to, fto, logDir, true, cpu);
+        runner.setArchive(archive);
+        Tournament t = new Tournament(runner, classes.toArray(new String[classes.size()]));
+        PrintWriter csv = null;
+        try {
+            if (out != null) {
+                File f = new File(out);
+                boolean header = !f.exists() || f.length() == 0;
+                csv = new PrintWriter(new FileWriter(f, true));
+                if (header)
+                    csv.println(CSV_HEADER);
+            }
+            t.run(pairing.equals(GAUNTLET), games, swap, workers, csv);
+        } catch (IOException e) {
+            System.err.println("Failed to write results: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted.");
+        } finally {
+            if (csv != null)
+                csv.close();
+        }
+        t.printStandings();
+    }
+
+    /**
+     * Play the tournament, printing each result as its game finishes.
+     *
+     * @param gauntlet pair the first player with each of the others, rather
+     *        than every player with every other
+     * @param games games, or pairs of games, per pairing
+     * @param swap play each game twice, with colours swapped
+     * @param workers number of games played at once
+     * @param csv where to append the results, or null
+     */
+    public void run(boolean gauntlet, int games, boolean swap, int workers, PrintWriter csv)
+            throws InterruptedException {
+        // Interleave the pairings, so that the standings are balanced at any
+        // point while the tournament runs
+        List<int[]> jobs = new ArrayList<int[]>();
+        for (int g = 0; g < games; g++) {
+            for (int a = 0; a < classes.length; a++) {
+                for (int b = a + 1; b < classes.length; b++) {
+                    if (gauntlet && a > 0)
+                        continue;
+                    // Colours alternate between the games of a pairing
+                    if (swap || g % 2 == 0)
+                        jobs.add(new int[] { a, b });
+                    else
+                        jobs.add(new int[] { b, a });
+                }
+            }
+        }
+        int total = jobs.size() * (swap ? 2 : 1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, workerThreads());
+        CompletionService<Game[]> done = new ExecutorCompletionService<Game[]>(pool);
+        for (final int[] job : jobs) {
+            final boolean both = swap;
+            done.submit(new Callable<Game[]>() {
+                public Game[] call() throws Exception {
+                    Game first = play(job[0], job[1]);
+                    if (!both)
+                        return new Game[] { first };
+                    return new Game[] { first, play(job[1], job[0]) };
+                }
+            });
+        }
+        System.out.println("Playing " + total + " games on " + workers + " workers");
+
+        long start = System.currentTimeMillis();
+        int finished = 0;
+        try {
+            for (int i = 0; i < jobs.size(); i++) {
+                Game[] result;
+                try {
+                    result = done.take().get();
+                } catch (ExecutionException e) {
+                    System.err.println("Failed to play a game:");
+                    e.getCause().printStackTrace();
+                    continue;
+                }
+                for (int k = 0; k < result.length; k++) {
+                    Game g = result[k];
+                    record(g);
+                    System.out.println("[" + (++finished) + "/" + total + "] " + g);
+                    if (csv != null) {
+                        csv.println(g.toCSV());
+                        csv.flush();
+                    }
+                }
+                if (result.length == 2)
+                    System.out.println("    pair: " + classes[result[0].players[0]] + " scores "
+                            + (result[0].score(0) + result[1].score(1)) + "/2");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println(finished + " games in " + elapsed + " ms");
+    }
+
+    private Game play(int p0, int p1) throws Exception {
+        long start = System.currentTimeMillis();
+        MatchRunner.Result r = runner.play(MatchRunner.newPlayer(classes[p0]), MatchRunner.newPlayer(classes[p1]));
+        return new Game(new int[] { p0, p1 }, r, System.currentTimeMillis() - start);
+    }
+
+    private synchronized void record(Game g) {
+        for (int c = 0; c < 2; c++) {
+            Standing s = standings[g.players[c]];
+            s.games++;
+            if (g.result.winner == Board.DRAW)
+                s.draws++;
+            else if (g.result.winner == c)
+                s.wins++;
+            else if (g.result.winner == 1 - c)
+                s.losses++;
+        }
+    }
+
+    /** Print the players by decreasing score; a draw is worth half a win. */
+    public synchronized void printStandings() {
+        Standing[] sorted = standings.clone();
+        Arrays.sort(sorted, new Comparator<Standing>() {
+            public int compare(Standing a, Standing b) {
+                return Double.compare(b.score(), a.score());
+            }
+        });
+        System.out.println("Standings:");
+        for (int i = 0; i < sorted.length; i++) {
+            Standing s = sorted[i];
+            System.out.println(String.format("%3d. %-40s %6.1f / %-4d +%d =%d -%d", i + 1, s.name, s.score(),
+                    s.games, s.wins, s.draws, s.losses));
+        }
+    }
+
+    private static ThreadFactory workerThreads() {
+        return new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tournament-" + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    // One finished game; players[c] is the index of the class playing colour c
+    private class Game {
+        final int[] players;
+        final MatchRunner.Result result;
+        final long millis;
+
+        Game(int[] players, MatchRunner.Result result, long millis) {
+            this.players = players;
+            this.result = result;
+            this.millis = millis;
+        }
+
+        /** Points scored by colour c. */
+        double score(int c) {
+            if (result.winner == Board.DRAW)
+                return 0.5;
+            return result.winner == c ? 1 : 0;
+        }
+
+        String winnerName() {
+            if (result.winner == 0 || result.winner == 1)
+                return classes[players[result.winner]];
+            return result.winner == Board.DRAW ? "draw" : "none";
+        }
+
+        String toCSV() {
+            return result.gameID + "," + classes[players[0]] + "," + classes[players[1]] + "," + winnerName() + ","
+                    + result.turns + "," + result.reason.replace(',', ';') + "," + millis;
+        }
+
+        public String toString() {
+            return "Game " + result.gameID + ": " + classes[players[0]] + " vs " + classes[players[1]] + ": "
+                    + result.message + " after " + result.turns + " turns (" + millis + " ms)";
+        }
+    }
+
+    private static class Standing {
+        final String name;
+        int games, wins, draws, losses;
+
+        Standing(String name) {
+            this.name = name;
+        }
+
+        double score() {
+            return wins + draws / 2.0;
+        }
+    }
+}
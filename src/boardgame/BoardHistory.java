@@ -0,0 +1,106 @@
+package boardgame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The boards of a game, kept as its moves and a few checkpoints rather than a
+ * board per move. The board after any move is rebuilt on demand by replaying
+ * the moves since the nearest checkpoint before it.
+ *
+ * A checkpoint is taken every interval moves. When there are more than
+ * MAX_CHECKPOINTS, every other one is dropped and the interval doubled, so
+ * however long the game the number of boards held stays bounded and no board
+ * is more than interval moves away from a checkpoint. Stepping forward from
+ * the last board built replays a single move.
+ *
+ * Not thread safe: ServerGUI only uses it on the event dispatch thread.
+ */
+public class BoardHistory {
+    public static final int DEFAULT_INTERVAL = 8;
+    public static final int MAX_CHECKPOINTS = 64;
+
+    private final List<Move> moves = new ArrayList<Move>();
+    // checkpoints.get(k) is the board after k * interval moves
+    private final List<Board> checkpoints = new ArrayList<Board>();
+    private int interval;
+    private final Board last; // The board after every move
+
+    // The last board built by get(), which it can replay forward from
+    private Board cursor = null;
+    private int cursorIndex = -1;
+
+    /** A history starting from a copy of start. */
+    public BoardHistory(Board start) {
+        this(start, DEFAULT_INTERVAL);
+    }
+
+    public BoardHistory(Board start, int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be at least 1.");
+        this.interval = interval;
+        this.last = (Board) start.clone();
+        checkpoints.add((Board) start.clone());
+    }
+
+    /**
+     * Play m on the last board and add it to the history.
+     *
+     * @throws IllegalArgumentException if the board rejects the move, which
+     *                                  is then not added
+     */
+    public void add(Move m) {
+        last.move(m);
+        moves.add(m);
+        if (moves.size() % interval == 0) {
+            checkpoints.add((Board) last.clone());
+            if (checkpoints.size() > MAX_CHECKPOINTS)
+                thin();
+        }
+    }
+
+    /** Keep the checkpoints at even multiples of the interval and double it. */
+    private void thin() {
+        int kept = 0;
+        for (int k = 0; k < checkpoints.size(); k += 2)
+            checkpoints.set(kept++, checkpoints.get(k));
+        checkpoints.subList(kept, checkpoints.size()).clear();
+        interval *= 2;
+    }
+
+    /** The number of boards, one more than the number of moves. */
+    public int size() {
+        return moves.size() + 1;
+    }
+
+    /** The move leading to board index, from 1 to size() - 1. */
+    public Move getMove(int index) {
+        return moves.get(index - 1);
+    }
+
+    /**
+     * The board after the move leading to it. Must not be modified: it is
+     * updated by add(). Use get() for a board to keep.
+     */
+    public Board getLast() {
+        return last;
+    }
+
+    /** A copy of the board after the first index moves, 0 for the start. */
+    public Board get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Board " + index + " of " + size());
+        if (index == moves.size())
+            return (Board) last.clone();
+
+        int checkpoint = index / interval;
+        // Replay from the cursor if it is closer than the checkpoint
+        if (cursor == null || cursorIndex > index || cursorIndex < checkpoint * interval) {
+            cursor = (Board) checkpoints.get(checkpoint).clone();
+            cursorIndex = checkpoint * interval;
+        }
+        while (cursorIndex < index)
+            cursor.move(moves.get(cursorIndex++));
+        return (Board) cursor.clone();
+    }
+}
@@ -57,6 +57,7 @@ public class BoardPanel extends JPanel {
 
                 buffer = this.createImage(getSize().width, getSize().height);
                 bufferDirty = true;
+                bufferReset();
             }
 
             // Repaint board if it has changed
@@ -67,6 +68,7 @@ public class BoardPanel extends JPanel {
                 if (getCurrentBoard() == null) {
                     buf.setColor(this.getBackground());
                     buf.fillRect(0, 0, buffer.getWidth(this), buffer.getHeight(this));
+                    bufferReset();
                 } else {
                     drawBoard(buf);
                 }
@@ -88,6 +90,14 @@ public class BoardPanel extends JPanel {
         g.fillRect(clip.x, clip.y, clip.width, clip.height);
     }
 
+    /**
+     * Called when the offscreen buffer is replaced or cleared, so that a
+     * drawBoard() which only draws what changed since its last call knows to
+     * draw everything again. The default implementation does nothing.
+     */
+    protected void bufferReset() {
+    }
+
     /**
      * Indicate that the BoardPanel should obtain a move from the user, and notify
      * the given BoardPanelListener on completion.
@@ -62,7 +62,11 @@ public class Client implements Runnable {
                     throw e;
                 }
 
-                client.run();
+                // Virtual threads only when -Dboardgame.virtualThreads=true
+                if (Threads.isVirtual())
+                    Threads.start(client, "client").join();
+                else
+                    client.run();
             }
         } catch (Exception e) {
             System.out.println("Caught exception: " + e);
@@ -0,0 +1,353 @@
+package boardgame;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * The log file of one game and the line it appends to the outcome file,
+ * shared by Server and NioServer so that both write the same formats.
+ *
+ * Game IDs come from a counter file in the log directory, which holds the
+ * last ID handed out. It is read and updated under an exclusive file lock, so
+ * servers in different processes sharing a directory never share an ID, and
+ * allocating one costs the same however many games have been played. The
+ * counter is seeded once from the highest ID among existing games: their log
+ * files, the archive and the outcome file.
+ *
+ * Logs are sharded by ID into subdirectories of SHARD_SIZE games each, e.g.
+ * game 12345 is logged to 00012/game12345.log, so no directory grows without
+ * bound. The file name recorded in the outcome file includes the shard. Logs
+ * written before sharding are still found by file(). In archive mode, the logs
+ * go to the LogArchive of the directory instead; openLog() and forEachLog()
+ * read games from wherever they were logged.
+ *
+ * Everything else is only queued here and written by the shared LogWriter, in
+ * order: a game's file is closed after its last line, and its outcome
+ * appended after that. Use flush() to wait until the writes are done.
+ */
+public class GameLog {
+    public static final String OUTCOME_FILE = "outcomes.txt";
+    public static final String LOG_PREFIX = "game";
+    public static final String LOG_SUFFIX = ".log";
+    public static final String ID_FILE = "gameid.txt";
+    public static final int SHARD_SIZE = 1000;
+
+    // FileChannel locks are held by the whole process, so threads of this
+    // process also need to wait for each other
+    private static final Object ALLOCATION_LOCK = new Object();
+
+    private final File dir;
+    private final int gameID;
+    private final String fileName;
+    private final PrintStream out; // Only written by the LogWriter
+    private final LogWriter writer;
+
+    private GameLog(File dir, int gameID, String fileName, PrintStream out) {
+        this.dir = dir;
+        this.gameID = gameID;
+        this.fileName = fileName;
+        this.out = out;
+        this.writer = LogWriter.shared();
+    }
+
+    /** Allocate a new game ID and create its log file in dir. */
+    public static GameLog create(File dir) throws IOException {
+        return create(dir, false);
+    }
+
+    /**
+     * Allocate a new game ID and create its log in dir.
+     *
+     * @param archive log to the archive of dir rather than to a file
+     */
+    public static GameLog create(File dir, boolean archive) throws IOException {
+        if (!dir.isDirectory())
+            throw new IOException("Log directory doesn't seem to exist.");
+        if (archive) {
+            int id = allocateID(dir);
+            return new GameLog(dir, id, LogArchive.reference(id), LogArchive.open(dir).newRecord(id));
+        }
+
+        while (true) {
+            int id = allocateID(dir);
+            File file = new File(dir, fileName(id));
+            File shard = file.getParentFile();
+            if (!shard.isDirectory() && !shard.mkdirs() && !shard.isDirectory())
+                throw new IOException("Failed to create log directory " + shard);
+            // Skip IDs whose log exists already, e.g. if the counter was lost
+            if (file.createNewFile()) {
+                PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+                return new GameLog(dir, id, fileName(id), out);
+            }
+        }
+    }
+
+    /** Take the next ID from the counter file of dir. */
+    private static int allocateID(File dir) throws IOException {
+        synchronized (ALLOCATION_LOCK) {
+            try (RandomAccessFile raf = new RandomAccessFile(new File(dir, ID_FILE), "rw");
+                    FileChannel channel = raf.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    int last = -1;
+                    if (raf.length() > 0) {
+                        byte[] b = new byte[(int) Math.min(raf.length(), 32)];
+                        raf.readFully(b);
+                        try {
+                            last = Integer.parseInt(new String(b, StandardCharsets.US_ASCII).trim());
+                        } catch (NumberFormatException e) {
+                            // Torn write; recover from the games
+                        }
+                    }
+                    if (last < 0)
+                        last = Math.max(scanMaxID(dir), Math.max(archiveMaxID(dir), outcomeMaxID(dir)));
+
+                    // Overwrite before trimming, so the file is never left empty;
+                    // the new ID is at least as long as the old one
+                    int id = last + 1;
+                    byte[] b = (id + "\n").getBytes(StandardCharsets.US_ASCII);
+                    raf.seek(0);
+                    raf.write(b);
+                    raf.setLength(b.length);
+                    return id;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /** Highest ID among the logs of dir and of its shards, or 0. */
+    private static int scanMaxID(File dir) {
+        int max = 0;
+        File[] files = dir.listFiles();
+        if (files == null)
+            return max;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory())
+                max = Math.max(max, scanMaxID(files[i]));
+            else
+                max = Math.max(max, parseID(files[i].getName()));
+        }
+        return max;
+    }
+
+    /** Highest ID in the archive of dir, or 0. */
+    private static int archiveMaxID(File dir) throws IOException {
+        if (!LogArchive.Reader.exists(dir))
+            return 0;
+        try (LogArchive.Reader archive = new LogArchive.Reader(new File(dir, LogArchive.ARCHIVE_DIR))) {
+            int[] ids = archive.getGameIDs();
+            return ids.length == 0 ? 0 : Math.max(ids[ids.length - 1], 0);
+        }
+    }
+
+    /** Highest ID in the outcome file of dir, or 0. */
+    private static int outcomeMaxID(File dir) throws IOException {
+        File f = new File(dir, OUTCOME_FILE);
+        if (!f.isFile())
+            return 0;
+        int max = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                int comma = line.indexOf(',');
+                try {
+                    max = Math.max(max, Integer.parseInt(line.substring(0, Math.max(comma, 0)).trim()));
+                } catch (NumberFormatException e) {
+                    // Not an outcome, e.g. a line cut short
+                }
+            }
+        }
+        return max;
+    }
+
+    /** The ID of a log file name, or 0 if it isn't one. */
+    public static int parseID(String name) {
+        int plen = LOG_PREFIX.length(), slen = LOG_SUFFIX.length();
+        if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX) || name.length() <= plen + slen)
+            return 0;
+        try {
+            return Math.max(Integer.parseInt(name.substring(plen, name.length() - slen)), 0);
+        } catch (NumberFormatException e) {
+            return 0; // Not one of ours
+        }
+    }
+
+    /** Path of the log of game id, relative to the log directory, e.g. "00012/game12345.log". */
+    public static String fileName(int id) {
+        return String.format("%05d/%s%05d%s", id / SHARD_SIZE, LOG_PREFIX, id, LOG_SUFFIX);
+    }
+
+    /** Reads the logs of a log directory, see forEachLog(). */
+    public interface Visitor {
+        void visit(int gameID, BufferedReader log) throws IOException;
+    }
+
+    /** The log of game id in dir, from its file or the archive, or null if there is none. */
+    public static BufferedReader openLog(File dir, int id) throws IOException {
+        File f = file(dir, id);
+        if (f.isFile())
+            return new BufferedReader(new FileReader(f));
+        if (!LogArchive.Reader.exists(dir))
+            return null;
+        try (LogArchive.Reader archive = new LogArchive.Reader(new File(dir, LogArchive.ARCHIVE_DIR))) {
+            return archive.open(id);
+        }
+    }
+
+    /**
+     * Call visitor with every game logged in dir: log files, sharded or not,
+     * then archived games in order of ID.
+     */
+    public static void forEachLog(File dir, Visitor visitor) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IOException("Log directory doesn't seem to exist: " + dir);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory() && !files[i].getName().equals(LogArchive.ARCHIVE_DIR)) {
+                forEachLog(files[i], visitor);
+            } else if (parseID(files[i].getName()) > 0) {
+                try (BufferedReader in = new BufferedReader(new FileReader(files[i]))) {
+                    visitor.visit(parseID(files[i].getName()), in);
+                }
+            }
+        }
+
+        if (LogArchive.Reader.exists(dir)) {
+            try (LogArchive.Reader archive = new LogArchive.Reader(new File(dir, LogArchive.ARCHIVE_DIR))) {
+                int[] ids = archive.getGameIDs();
+                for (int i = 0; i < ids.length; i++) {
+                    try (BufferedReader in = archive.open(ids[i])) {
+                        visitor.visit(ids[i], in);
+                    }
+                }
+            }
+        }
+    }
+
+    /** The log of game id in dir, sharded or, for older logs, not. */
+    public static File file(File dir, int id) {
+        File f = new File(dir, fileName(id));
+        if (f.exists())
+            return f;
+        File flat = new File(dir, String.format("%s%05d%s", LOG_PREFIX, id, LOG_SUFFIX));
+        return flat.exists() ? flat : f;
+    }
+
+    public int getGameID() {
+        return gameID;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Write the comment lines at the top of the log.
+     *
+     * @param players one description per player, e.g. "WHITE, 'name', running on host"
+     */
+    public void writeHeader(String version, String hostname, int port, Board board, int timeout,
+            int firstMoveTimeout, Move[] history, String[] players) {
+        println("# Server version " + version + " running on " + hostname + ":" + port);
+        println("# Game ID: " + gameID);
+        println("# Board class: " + board.getClass().getName());
+        println("# Timeout: " + timeout);
+        println("# First Move Timeout: " + firstMoveTimeout);
+        println("# Date: " + (new Date()).toString());
+
+        if (history != null)
+            println("# Starting at move " + (history.length + 1));
+
+        for (int i = 0; i < players.length; i++)
+            println("# Player " + (i + 1) + ": " + players[i]);
+    }
+
+    /** Append one line of the game record. */
+    public void println(String str) {
+        writer.println(out, str);
+    }
+
+    /** Write the closing comment and close the file. */
+    public void close() {
+        writer.close(out, "# Game ended: " + (new Date()).toString());
+    }
+
+    /** Wait until everything queued for this log, and for any other, has been written. */
+    public void flush() {
+        writer.flush();
+    }
+
+    /** Build the GAMEOVER message sent to the players and logged. */
+    public static String gameOverMessage(String reason, Board board) {
+        String msg = "GAMEOVER ";
+
+        if (!reason.isEmpty()) {
+            msg += reason + " ";
+        }
+
+        switch (board.getWinner()) {
+            case Board.DRAW:
+                msg += "DRAW";
+                break;
+            case Board.NOBODY:
+                msg += "UNDECIDED";
+                break;
+            case Board.CANCELLED0:
+                msg += "CANCELLED 0";
+                break;
+            case Board.CANCELLED1:
+                msg += "CANCELLED 1";
+                break;
+            default:
+                msg += "WINNER " + board.getWinner();
+        }
+        return msg;
+    }
+
+    /**
+     * Append the outcome of this game to the outcome file of its directory.
+     *
+     * @param names player names in seat order, null for an empty seat
+     * @param ids player IDs in seat order
+     * @param msg the GAMEOVER message, recorded when nobody won
+     */
+    public void appendOutcome(String[] names, int[] ids, Board board, String msg, String reason) {
+        String delim = ",";
+        StringBuilder sb = new StringBuilder();
+        sb.append(gameID).append(delim);
+
+        int win = -1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null)
+                sb.append("NOBODY").append(delim);
+            else {
+                sb.append(names[i]).append(delim);
+
+                if (board.getWinner() == ids[i]) {
+                    win = i;
+                }
+            }
+        }
+
+        sb.append(win > -1 ? Integer.toString(ids[win]) : msg).append(delim);
+        sb.append(win > -1 ? names[win] : "NOBODY").append(delim);
+        sb.append(board.getTurnNumber()).append(delim);
+        sb.append(fileName).append(delim);
+        sb.append(reason);
+
+        // The writer appends one line at a time, so concurrent games don't
+        // interleave their outcomes
+        writer.append(new File(dir, OUTCOME_FILE), sb.toString());
+    }
+}
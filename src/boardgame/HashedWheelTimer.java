@@ -0,0 +1,279 @@
+package boardgame;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel shared by all the games of a process, used for the move
+ * timeouts of Server and NioServer.
+ *
+ * Timeouts are hashed into one of WHEEL_SIZE buckets by their deadline tick.
+ * Scheduling and cancelling are O(1) and can be done from any thread: new and
+ * cancelled timeouts go through lock-free queues that the single worker thread
+ * drains once per tick, so the buckets themselves are only touched by the
+ * worker. A timeout further away than one turn of the wheel waits in its bucket
+ * for the remaining number of rounds.
+ *
+ * Timeouts fire up to one tick late, never early. Tasks run on the worker
+ * thread and must be short, unless the timer was given an executor to run
+ * them on. The shared timer runs them on virtual threads when Threads does,
+ * otherwise on a pool of platform threads: a game's timeout may block on its
+ * clients' sockets, which must not hold up the timeouts of the other games.
+ */
+public class HashedWheelTimer {
+    public static final long DEFAULT_TICK_MS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static HashedWheelTimer shared = null;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private final Executor executor; // May be null
+    private final long startTime;
+    private volatile boolean stopped = false;
+    private long tick = 0; // Only used by the worker
+
+    /** The timer shared by the whole process, started on first use. */
+    public static synchronized HashedWheelTimer shared() {
+        if (shared == null) {
+            Executor executor = Threads.virtualExecutor();
+            if (executor == null)
+                executor = taskPool();
+            shared = new HashedWheelTimer(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, executor);
+        }
+        return shared;
+    }
+
+    /**
+     * Daemon platform threads for the tasks of the shared timer. Idle threads
+     * are reused, so there are only as many as tasks running at once, and a
+     * task blocked on a stuck client only holds its own thread.
+     */
+    private static ExecutorService taskPool() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "timer-task-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param tickMs duration of one tick, in ms
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(long tickMs, int wheelSize) {
+        this(tickMs, wheelSize, null);
+    }
+
+    /**
+     * @param tickMs duration of one tick, in ms
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param executor runs the tasks, or null to run them on the worker thread
+     */
+    public HashedWheelTimer(long tickMs, int wheelSize, Executor executor) {
+        if (tickMs <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("Tick and wheel size must be positive.");
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize)
+            size <<= 1;
+
+        this.tickNanos = tickMs * 1000000L;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+
+        worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "timer-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Run task on the timer thread once delayMs have passed. */
+    public Timeout schedule(Runnable task, long delayMs) {
+        if (stopped)
+            throw new IllegalStateException("Timer is stopped.");
+        Timeout t = new Timeout(task, System.nanoTime() - startTime + Math.max(delayMs, 0) * 1000000L);
+        pending.incrementAndGet();
+        added.add(t);
+        return t;
+    }
+
+    /** The number of timeouts scheduled that have neither fired nor been cancelled. */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /** Stop the worker thread. Pending timeouts never fire. */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        while (!stopped) {
+            long now = waitForNextTick();
+            if (now < 0)
+                break;
+
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire(now);
+            tick++;
+        }
+    }
+
+    /** Sleep until the end of the current tick; returns the time in ns since start, or -1 if stopped. */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepMs = (deadline - now + 999999) / 1000000;
+            if (sleepMs <= 0)
+                return now;
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                if (stopped)
+                    return -1;
+            }
+        }
+    }
+
+    private void transferAdded() {
+        Timeout t;
+        while ((t = added.poll()) != null) {
+            if (t.state.get() != Timeout.ST_INIT)
+                continue; // Cancelled before it reached the wheel
+
+            long ticks = t.deadline / tickNanos;
+            t.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(t);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null)
+                t.bucket.remove(t);
+        }
+    }
+
+    /** A scheduled task, which can be cancelled until it fires. */
+    public final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline; // ns since the timer started
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        // Only used by the worker
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev, next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /** Returns false if the task already ran or was already cancelled. */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED))
+                return false;
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED))
+                return;
+            pending.decrementAndGet();
+            try {
+                if (executor != null)
+                    executor.execute(task);
+                else
+                    task.run();
+            } catch (Throwable e) {
+                System.err.println("Timer task failed:");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Doubly linked list of the timeouts hashed to one slot. */
+    private static final class Bucket {
+        private Timeout head, tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null)
+                t.prev.next = t.next;
+            else
+                head = t.next;
+            if (t.next != null)
+                t.next.prev = t.prev;
+            else
+                tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+
+        /** Fire the timeouts of this round, count down the others. */
+        void expire(long now) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.isCancelled()) {
+                    remove(t);
+                } else if (t.remainingRounds <= 0 && t.deadline <= now) {
+                    remove(t);
+                    t.expire();
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package boardgame;
+
+/**
+ * Histogram of latencies in microseconds, with buckets laid out like
+ * HdrHistogram's: values below SUB_BUCKETS have a bucket each, and above that
+ * every power of two is split into SUB_BUCKETS / 2 buckets of equal width. A
+ * bucket is thus never wider than 1/64 of the values in it, so percentiles
+ * are within about 1.6% of the exact ones, for a fixed footprint of a couple
+ * thousand counts whatever the number of values recorded.
+ *
+ * Values above MAX_VALUE, about 19 hours, are recorded as MAX_VALUE. The
+ * methods are synchronized, so a histogram can be shared by the games of a
+ * process.
+ */
+public class LatencyHistogram {
+    public static final int SUB_BUCKET_BITS = 7;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[index(MAX_VALUE) + 1];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /** Bucket of value v, in [0, MAX_VALUE]. */
+    static int index(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((v >>> shift) - HALF);
+    }
+
+    /** Highest value falling in bucket i. */
+    static long highestValue(int i) {
+        if (i < SUB_BUCKETS)
+            return i;
+        int shift = (i - SUB_BUCKETS) / HALF + 1;
+        long low = (long) ((i - SUB_BUCKETS) % HALF + HALF) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /** Record one value, in microseconds. Negative values count as 0. */
+    public synchronized void record(long micros) {
+        long v = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts[index(v)]++;
+        count++;
+        sum += v;
+        if (v > max)
+            max = v;
+    }
+
+    /** Add all the values of h to this histogram. */
+    public void add(LatencyHistogram h) {
+        long[] c;
+        long n, s, m;
+        synchronized (h) {
+            c = h.counts.clone();
+            n = h.count;
+            s = h.sum;
+            m = h.max;
+        }
+        synchronized (this) {
+            for (int i = 0; i < c.length; i++)
+                counts[i] += c[i];
+            count += n;
+            sum += s;
+            if (m > max)
+                max = m;
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** The largest value recorded, exactly, or 0 if none was. */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /** The sum of the values recorded, in microseconds. */
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The value that percentile percent of the values are at or below, as the
+     * highest value of its bucket but never above the maximum, or 0 if no
+     * value was recorded.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d values, p50 %.1f ms, p99 %.1f ms, max %.1f ms", count,
+                getValueAtPercentile(50) / 1000.0, getValueAtPercentile(99) / 1000.0, max / 1000.0);
+    }
+}
@@ -0,0 +1,260 @@
+package boardgame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long the players of one game take to answer PLAY, shared by Server and
+ * NioServer so that both record the same metrics.
+ *
+ * A move's latency runs from sending PLAY to receiving the move, and is
+ * recorded even when the move came too late and a random one was played
+ * instead: that is the move the player was late with. Besides latencies, each
+ * player counts its timeouts (the random move was chosen), substitutions (it
+ * was played), moves that took more than NEAR_LIMIT of their time, and games
+ * lost on time, for which no latency is recorded.
+ *
+ * A game's stats are only used by the thread processing its moves, or under
+ * its server's lock. When the game ends, each player's line is appended to
+ * GAMES_FILE in the log directory, and its stats are added to those of every
+ * game of the process with the same player name: a tournament run with -k.
+ * The totals are written to SUMMARY_FILE after every game. Both files are
+ * written by the shared LogWriter, off the game threads.
+ */
+public class LatencyStats {
+    public static final String GAMES_FILE = "latency.csv";
+    public static final String SUMMARY_FILE = "latency-summary.txt";
+    public static final String CSV_HEADER = "game,seat,player,moves,p50_ms,p99_ms,max_ms,near_limit,timeouts,"
+            + "substitutions,time_losses";
+    public static final double NEAR_LIMIT = 0.9;
+
+    private static final Date START = new Date();
+    // Every game of the process, by player name, guarded by itself
+    private static final Map<String, Player> tournament = new LinkedHashMap<String, Player>();
+    private static int gamesEnded = 0;
+
+    /** The stats of one player, over one game or summed over many. */
+    public static final class Player {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private int games = 0;
+        private int nearLimit = 0;
+        private int timeouts = 0;
+        private int substitutions = 0;
+        private int timeLosses = 0;
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public int getNearLimit() {
+            return nearLimit;
+        }
+
+        public int getTimeouts() {
+            return timeouts;
+        }
+
+        public int getSubstitutions() {
+            return substitutions;
+        }
+
+        public int getTimeLosses() {
+            return timeLosses;
+        }
+
+        synchronized void add(Player p) {
+            latencies.add(p.latencies);
+            games += p.games;
+            nearLimit += p.nearLimit;
+            timeouts += p.timeouts;
+            substitutions += p.substitutions;
+            timeLosses += p.timeLosses;
+        }
+
+        synchronized Player copy() {
+            Player p = new Player();
+            p.add(this);
+            return p;
+        }
+
+        /** moves,p50_ms,p99_ms,max_ms,near_limit,timeouts,substitutions,time_losses */
+        String toCsv() {
+            return latencies.getCount() + "," + ms(latencies.getValueAtPercentile(50)) + ","
+                    + ms(latencies.getValueAtPercentile(99)) + "," + ms(latencies.getMax()) + "," + nearLimit + ","
+                    + timeouts + "," + substitutions + "," + timeLosses;
+        }
+    }
+
+    private final Player[] seats;
+    private final long[] requested; // nanoTime PLAY was sent, 0 when no move is expected
+    private final long[] limit; // Timeout of the move expected, in microseconds
+
+    public LatencyStats(int players) {
+        seats = new Player[players];
+        for (int i = 0; i < players; i++)
+            seats[i] = new Player();
+        requested = new long[players];
+        limit = new long[players];
+    }
+
+    private boolean isSeat(int seat) {
+        return seat >= 0 && seat < seats.length;
+    }
+
+    /** PLAY was just sent to seat, which has timeoutMs to answer. */
+    public void moveRequested(int seat, int timeoutMs) {
+        if (!isSeat(seat))
+            return;
+        requested[seat] = System.nanoTime();
+        limit[seat] = timeoutMs * 1000L;
+    }
+
+    /** A move just came from seat, record its latency if it was asked for. */
+    public void moveReceived(int seat) {
+        if (!isSeat(seat) || requested[seat] == 0)
+            return;
+        long micros = (System.nanoTime() - requested[seat]) / 1000;
+        requested[seat] = 0;
+        seats[seat].latencies.record(micros);
+        if (micros > limit[seat] * NEAR_LIMIT)
+            seats[seat].nearLimit++;
+    }
+
+    /** The timeout of seat fired and a random move was chosen for it. */
+    public void timedOut(int seat) {
+        if (isSeat(seat))
+            seats[seat].timeouts++;
+    }
+
+    /** The random move chosen for seat was played in place of its own. */
+    public void substituted(int seat) {
+        if (isSeat(seat))
+            seats[seat].substitutions++;
+    }
+
+    /** Seat lost the game on time. */
+    public void lostOnTime(int seat) {
+        if (isSeat(seat))
+            seats[seat].timeLosses++;
+    }
+
+    public Player getPlayer(int seat) {
+        return seats[seat];
+    }
+
+    /**
+     * Log the stats of a game that ended and add them to the totals of the
+     * process.
+     *
+     * @param dir the log directory
+     * @param names player names in seat order, null for an empty seat
+     */
+    public void gameEnded(File dir, int gameID, String[] names) {
+        final List<String> lines = new ArrayList<String>();
+        synchronized (tournament) {
+            for (int i = 0; i < seats.length; i++) {
+                if (names[i] == null)
+                    continue;
+                seats[i].games = 1;
+                lines.add(gameID + "," + i + "," + names[i] + "," + seats[i].toCsv());
+
+                Player total = tournament.get(names[i]);
+                if (total == null) {
+                    total = new Player();
+                    tournament.put(names[i], total);
+                }
+                total.add(seats[i]);
+            }
+            gamesEnded++;
+        }
+
+        // Both files are only written on the writer thread, one game at a time
+        final File games = new File(dir, GAMES_FILE);
+        final File summary = new File(dir, SUMMARY_FILE);
+        LogWriter.shared().execute(new Runnable() {
+            public void run() {
+                try {
+                    boolean header = !games.exists();
+                    try (PrintStream out = new PrintStream(new FileOutputStream(games, true))) {
+                        if (header)
+                            out.println(CSV_HEADER);
+                        for (String line : lines)
+                            out.println(line);
+                    }
+                    writeSummary(summary);
+                } catch (IOException e) {
+                    System.err.println("Failed to write the latencies to " + games.getParent() + ": " + e);
+                }
+            }
+        });
+    }
+
+    /** The totals of every game of the process, by player name. */
+    public static Map<String, Player> getTournament() {
+        Map<String, Player> copy = new LinkedHashMap<String, Player>();
+        synchronized (tournament) {
+            for (Map.Entry<String, Player> e : tournament.entrySet())
+                copy.put(e.getKey(), e.getValue().copy());
+        }
+        return copy;
+    }
+
+    /** The number of games of the process that ended. */
+    public static int getGamesEnded() {
+        synchronized (tournament) {
+            return gamesEnded;
+        }
+    }
+
+    /** Replace file with the totals, through a temporary file so readers never see half of it. */
+    static void writeSummary(File file) throws IOException {
+        Map<String, Player> players;
+        int ended;
+        synchronized (tournament) {
+            players = getTournament();
+            ended = gamesEnded;
+        }
+        Player all = new Player();
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, Player> e : players.entrySet()) {
+            lines.add(row(e.getKey(), e.getValue()));
+            all.add(e.getValue());
+        }
+        all.games = ended;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintStream out = new PrintStream(tmp)) {
+            out.println("# Move latencies of the games played since " + START + ", updated " + new Date());
+            out.println(String.format("%-20s %6s %8s %9s %9s %9s %10s %8s %13s %11s", "player", "games", "moves",
+                    "p50_ms", "p99_ms", "max_ms", "near_limit", "timeouts", "substitutions", "time_losses"));
+            for (String line : lines)
+                out.println(line);
+            out.println(row("(all)", all));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String row(String name, Player p) {
+        LatencyHistogram h = p.latencies;
+        return String.format("%-20s %6d %8d %9s %9s %9s %10d %8d %13d %11d", name, p.games, h.getCount(),
+                ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(99)), ms(h.getMax()), p.nearLimit,
+                p.timeouts, p.substitutions, p.timeLosses);
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.1f", micros / 1000.0);
+    }
+}
@@ -0,0 +1,406 @@
+package boardgame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archive of finished game logs, for runs that play too many games to keep
+ * one small file each (see the -archive option of Server).
+ *
+ * The archive lives in the ARCHIVE_DIR subdirectory of a log directory. Logs
+ * are appended to segment files, each up to SEGMENT_SIZE, in deflated blocks
+ * of about BLOCK_SIZE bytes of log text; a block is only written once full, or
+ * FLUSH_DELAY_MS after its first game ended, or on exit. The index file has
+ * one fixed-size entry per game, with the game ID, segment, offset of its
+ * block and position of the log within the block. Both files are appended to
+ * under an exclusive lock on the index, so several processes can share an
+ * archive, and game IDs come from the same counter as log files.
+ *
+ * Segment: MAGIC, VERSION, then blocks of (raw length, deflated length,
+ * deflated bytes). Index: MAGIC, VERSION, then entries of (game ID, segment,
+ * block offset, offset in block, length). All numbers are big-endian.
+ *
+ * Blocks are built and written by the LogWriter thread only. Use Reader to
+ * read an archive.
+ */
+public class LogArchive {
+    public static final String ARCHIVE_DIR = "archive";
+    public static final String INDEX_FILE = "index.dat";
+    public static final String SEGMENT_PREFIX = "segment";
+    public static final String SEGMENT_SUFFIX = ".dat";
+    public static final int BLOCK_SIZE = 64 * 1024;
+    public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final long FLUSH_DELAY_MS = 2000;
+
+    private static final int MAGIC = 0x50474c41; // "PGLA"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int BLOCK_HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 24;
+
+    private static final Map<File, LogArchive> archives = new HashMap<File, LogArchive>();
+
+    private final File dir;
+    private final LogWriter writer;
+
+    // Only used by the writer thread
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + BLOCK_SIZE / 4);
+    private final List<int[]> blockGames = new ArrayList<int[]>(); // ID, offset, length
+    private final Deflater deflater = new Deflater();
+    private int blockGeneration = 0;
+
+    private LogArchive(File dir) {
+        this.dir = dir;
+        this.writer = LogWriter.shared();
+    }
+
+    /** The archive of a log directory, created if needed. */
+    public static LogArchive open(File logDir) throws IOException {
+        File dir = new File(logDir, ARCHIVE_DIR).getCanonicalFile();
+        synchronized (archives) {
+            LogArchive a = archives.get(dir);
+            if (a == null) {
+                if (!dir.isDirectory() && !dir.mkdirs())
+                    throw new IOException("Failed to create archive directory " + dir);
+                a = new LogArchive(dir);
+                archives.put(dir, a);
+                final LogArchive f = a;
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    public void run() {
+                        f.flush(LogWriter.SHUTDOWN_WAIT_MS);
+                    }
+                }, "log-archive-shutdown"));
+            }
+            return a;
+        }
+    }
+
+    /** What the outcome file records as the log of an archived game. */
+    public static String reference(int gameID) {
+        return ARCHIVE_DIR + "#" + gameID;
+    }
+
+    /**
+     * A stream for the log of one game, to be written through the LogWriter.
+     * Closing it adds the log to the archive.
+     */
+    public PrintStream newRecord(final int gameID) {
+        return new PrintStream(new ByteArrayOutputStream(1024) {
+            private boolean closed = false;
+
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    add(gameID, buf, count);
+                }
+            }
+        });
+    }
+
+    /** Write the current block, waiting at most timeoutMs for it. */
+    public boolean flush(long timeoutMs) {
+        writer.execute(new Runnable() {
+            public void run() {
+                writeBlock();
+            }
+        });
+        return writer.flush(timeoutMs);
+    }
+
+    private void add(int gameID, byte[] b, int len) {
+        if (blockGames.isEmpty())
+            scheduleFlush();
+        blockGames.add(new int[] { gameID, block.size(), len });
+        block.write(b, 0, len);
+        if (block.size() >= BLOCK_SIZE)
+            writeBlock();
+    }
+
+    /** Write the block after FLUSH_DELAY_MS, unless it has been written by then. */
+    private void scheduleFlush() {
+        final int generation = blockGeneration;
+        HashedWheelTimer.shared().schedule(new Runnable() {
+            public void run() {
+                writer.execute(new Runnable() {
+                    public void run() {
+                        if (blockGeneration == generation)
+                            writeBlock();
+                    }
+                });
+            }
+        }, FLUSH_DELAY_MS);
+    }
+
+    private void writeBlock() {
+        if (blockGames.isEmpty())
+            return;
+        byte[] raw = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            deflated.write(buf, 0, n);
+        }
+
+        try (RandomAccessFile index = new RandomAccessFile(new File(dir, INDEX_FILE), "rw");
+                FileChannel indexChannel = index.getChannel()) {
+            FileLock lock = indexChannel.lock();
+            try {
+                if (index.length() == 0)
+                    writeHeader(index);
+
+                int segment = lastSegment(dir);
+                File file = new File(dir, segmentName(segment));
+                if (segment == 0 || file.length() >= SEGMENT_SIZE)
+                    file = new File(dir, segmentName(++segment));
+
+                long offset;
+                try (RandomAccessFile seg = new RandomAccessFile(file, "rw")) {
+                    if (seg.length() == 0)
+                        writeHeader(seg);
+                    offset = seg.length();
+                    ByteBuffer b = ByteBuffer.allocate(BLOCK_HEADER_BYTES + deflated.size());
+                    b.putInt(raw.length).putInt(deflated.size()).put(deflated.toByteArray());
+                    seg.seek(offset);
+                    seg.write(b.array());
+                }
+
+                // Only index the games once their block is complete
+                ByteBuffer entries = ByteBuffer.allocate(ENTRY_BYTES * blockGames.size());
+                for (int[] g : blockGames)
+                    entries.putInt(g[0]).putInt(segment).putLong(offset).putInt(g[1]).putInt(g[2]);
+                // Drop a torn entry left by a crash
+                long end = HEADER_BYTES + (index.length() - HEADER_BYTES) / ENTRY_BYTES * ENTRY_BYTES;
+                index.setLength(end);
+                index.seek(end);
+                index.write(entries.array());
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write log archive block, " + blockGames.size() + " games lost:");
+            e.printStackTrace();
+        }
+
+        block.reset();
+        blockGames.clear();
+        blockGeneration++;
+    }
+
+    private static void writeHeader(RandomAccessFile f) throws IOException {
+        f.seek(0);
+        f.writeInt(MAGIC);
+        f.writeInt(VERSION);
+    }
+
+    private static void checkHeader(DataInput in, File f) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a log archive file: " + f);
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported log archive version " + version + ": " + f);
+    }
+
+    static String segmentName(int segment) {
+        return String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX);
+    }
+
+    /** Number of the last segment in dir, or 0 if there is none. */
+    private static int lastSegment(File dir) {
+        int max = 0;
+        String[] names = dir.list();
+        for (int i = 0; names != null && i < names.length; i++) {
+            String n = names[i];
+            if (n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    max = Math.max(max,
+                            Integer.parseInt(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Read access to an archive, from its index as it was when opened. Not
+     * thread safe.
+     */
+    public static class Reader implements Closeable {
+        private final File dir;
+        private final int[] ids; // Sorted
+        private final int[] segments;
+        private final long[] blocks;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final Map<Integer, RandomAccessFile> files = new HashMap<Integer, RandomAccessFile>();
+        private final Inflater inflater = new Inflater();
+        // The last block read, since games are usually read in order
+        private int cachedSegment = -1;
+        private long cachedBlock = -1;
+        private byte[] cached;
+
+        /** @param archiveDir the ARCHIVE_DIR of a log directory */
+        public Reader(File archiveDir) throws IOException {
+            this.dir = archiveDir;
+            File f = new File(archiveDir, INDEX_FILE);
+            int n = (int) Math.max((f.length() - HEADER_BYTES) / ENTRY_BYTES, 0);
+            if (f.length() < HEADER_BYTES)
+                f = null; // Created, but nothing archived yet
+            int[] id = new int[n], seg = new int[n], off = new int[n], len = new int[n];
+            long[] blk = new long[n];
+            try (DataInputStream in = f == null ? null
+                    : new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+                if (in != null)
+                    checkHeader(in, f);
+                for (int i = 0; i < n; i++) {
+                    id[i] = in.readInt();
+                    seg[i] = in.readInt();
+                    blk[i] = in.readLong();
+                    off[i] = in.readInt();
+                    len[i] = in.readInt();
+                }
+            } catch (EOFException e) {
+                throw new IOException("Truncated log archive index: " + f);
+            }
+
+            // Sort by game ID; IDs are nearly sorted already, and packing the
+            // entry number under the ID keeps the sort on primitives
+            long[] order = new long[n];
+            for (int i = 0; i < n; i++)
+                order[i] = ((long) id[i] << 32) | i;
+            Arrays.sort(order);
+            ids = new int[n];
+            segments = new int[n];
+            blocks = new long[n];
+            offsets = new int[n];
+            lengths = new int[n];
+            for (int k = 0; k < n; k++) {
+                int i = (int) order[k];
+                ids[k] = id[i];
+                segments[k] = seg[i];
+                blocks[k] = blk[i];
+                offsets[k] = off[i];
+                lengths[k] = len[i];
+            }
+        }
+
+        /** Whether there is an archive in the ARCHIVE_DIR of logDir. */
+        public static boolean exists(File logDir) {
+            return new File(new File(logDir, ARCHIVE_DIR), INDEX_FILE).isFile();
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        /** The IDs of the archived games, in increasing order. */
+        public int[] getGameIDs() {
+            return ids.clone();
+        }
+
+        public boolean contains(int gameID) {
+            return Arrays.binarySearch(ids, gameID) >= 0;
+        }
+
+        /** The log of a game, or null if it isn't archived. */
+        public byte[] read(int gameID) throws IOException {
+            int k = Arrays.binarySearch(ids, gameID);
+            if (k < 0)
+                return null;
+            byte[] raw = readBlock(segments[k], blocks[k]);
+            if (offsets[k] < 0 || lengths[k] < 0 || offsets[k] > raw.length - lengths[k])
+                throw new IOException("Corrupt log archive index entry of game " + gameID);
+            return Arrays.copyOfRange(raw, offsets[k], offsets[k] + lengths[k]);
+        }
+
+        /** The log of a game as lines, or null if it isn't archived. */
+        public BufferedReader open(int gameID) throws IOException {
+            byte[] b = read(gameID);
+            if (b == null)
+                return null;
+            return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(b)));
+        }
+
+        private byte[] readBlock(int segment, long offset) throws IOException {
+            if (segment == cachedSegment && offset == cachedBlock)
+                return cached;
+
+            RandomAccessFile f = files.get(segment);
+            if (f == null) {
+                File file = new File(dir, segmentName(segment));
+                f = new RandomAccessFile(file, "r");
+                files.put(segment, f);
+                checkHeader(f, file);
+            }
+            String where = " log archive block at " + offset + " of segment " + segment;
+            if (offset < HEADER_BYTES || offset > f.length() - BLOCK_HEADER_BYTES)
+                throw new IOException("No" + where);
+            f.seek(offset);
+            int rawLength = f.readInt();
+            int deflatedLength = f.readInt();
+            // Check the lengths before allocating: a block is never larger than a segment
+            if (rawLength < 0 || rawLength > SEGMENT_SIZE || deflatedLength < 0
+                    || deflatedLength > f.length() - f.getFilePointer())
+                throw new IOException("Corrupt" + where);
+            byte[] deflated = new byte[deflatedLength];
+            f.readFully(deflated);
+
+            byte[] raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(deflated);
+            try {
+                int n = 0;
+                while (n < rawLength && !inflater.finished()) {
+                    int k = inflater.inflate(raw, n, rawLength - n);
+                    // Nothing more will come out of the block's bytes
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += k;
+                }
+                if (n < rawLength)
+                    throw new IOException("Truncated" + where);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt" + where, e);
+            }
+
+            cachedSegment = segment;
+            cachedBlock = offset;
+            cached = raw;
+            return raw;
+        }
+
+        public void close() throws IOException {
+            for (RandomAccessFile f : files.values())
+                f.close();
+            files.clear();
+            inflater.end();
+        }
+    }
+}
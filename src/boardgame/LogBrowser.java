@@ -0,0 +1,334 @@
+package boardgame;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Browses the games of a log directory through its LogIndex: filter them by
+ * player, winner, end, length, opening and date, page through the matches,
+ * and open one by double-clicking it or pressing Enter.
+ *
+ * The index is loaded and updated, and queried, on worker threads so that
+ * the dialog stays responsive however many games there are. Only the rows of
+ * the page shown are read from the index.
+ */
+public class LogBrowser extends JDialog {
+    private static final long serialVersionUID = 1L;
+    public static final int PAGE_SIZE = 200;
+    /** The ends of games, as LogIndex.Filter.end takes them. */
+    public static final String[] ENDS = { "", "normal", "timeout", "illegal_move", "disconnection", "user_cancel" };
+    private static final String[] COLUMNS = { "ID", "Date", "Player 1", "Player 2", "Winner", "Moves", "End",
+            "Opening" };
+
+    /** Told which game to open. */
+    public interface Listener {
+        void openGame(File dir, int gameID);
+    }
+
+    private final File dir;
+    private final Listener listener;
+    private LogIndex index = null;
+    private int[] selected = new int[0]; // Positions in the index matching the filter
+    private int page = 0;
+    private Object[][] rows = new Object[0][]; // The page shown
+    private boolean busy = false;
+
+    private final JTextField playerField = new JTextField(10);
+    private final JTextField winnerField = new JTextField(10);
+    private final JComboBox<String> endBox = new JComboBox<String>(ENDS);
+    private final JTextField minField = new JTextField(4);
+    private final JTextField maxField = new JTextField(4);
+    private final JTextField openingField = new JTextField(12);
+    private final JTextField fromField = new JTextField(8);
+    private final JTextField toField = new JTextField(8);
+    private final JButton searchButton = new JButton("Search");
+    private final JButton refreshButton = new JButton("Refresh");
+    private final JButton prevButton = new JButton("< Prev");
+    private final JButton nextButton = new JButton("Next >");
+    private final JLabel pageLabel = new JLabel();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final TableModel model = new TableModel();
+    private final JTable table = new JTable(model);
+
+    public LogBrowser(Frame owner, File dir, Listener listener) {
+        super(owner, "Logs in " + dir.getAbsolutePath(), false);
+        this.dir = dir;
+        this.listener = listener;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        ActionListener search = new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        };
+        JTextField[] fields = { playerField, winnerField, minField, maxField, openingField, fromField, toField };
+        for (JTextField f : fields)
+            f.addActionListener(search);
+        endBox.addActionListener(search);
+        searchButton.addActionListener(search);
+        refreshButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        prevButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                showPage(page - 1);
+            }
+        });
+        nextButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                showPage(page + 1);
+            }
+        });
+
+        JPanel filters = new JPanel(new GridLayout(2, 1));
+        JPanel line = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        line.add(new JLabel("Player:"));
+        line.add(playerField);
+        line.add(new JLabel("Winner:"));
+        line.add(winnerField);
+        line.add(new JLabel("End:"));
+        line.add(endBox);
+        line.add(new JLabel("Moves:"));
+        line.add(minField);
+        line.add(new JLabel("to"));
+        line.add(maxField);
+        filters.add(line);
+        line = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        line.add(new JLabel("Opening:"));
+        line.add(openingField);
+        line.add(new JLabel("From (yyyy-mm-dd):"));
+        line.add(fromField);
+        line.add(new JLabel("to"));
+        line.add(toField);
+        line.add(searchButton);
+        line.add(refreshButton);
+        filters.add(line);
+
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(60);
+        table.getColumnModel().getColumn(1).setPreferredWidth(120);
+        table.getColumnModel().getColumn(5).setPreferredWidth(50);
+        table.getColumnModel().getColumn(7).setPreferredWidth(300);
+        table.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    openSelected();
+            }
+        });
+        table.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "openGame");
+        table.getActionMap().put("openGame", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                openSelected();
+            }
+        });
+
+        JPanel bottom = new JPanel(new BorderLayout());
+        JPanel paging = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        paging.add(prevButton);
+        paging.add(pageLabel);
+        paging.add(nextButton);
+        bottom.add(statusLabel, BorderLayout.CENTER);
+        bottom.add(paging, BorderLayout.EAST);
+
+        getContentPane().add(filters, BorderLayout.NORTH);
+        getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+        getContentPane().add(bottom, BorderLayout.SOUTH);
+        setSize(1000, 600);
+        setLocationRelativeTo(owner);
+
+        refresh();
+    }
+
+    private void setBusy(boolean b) {
+        busy = b;
+        searchButton.setEnabled(!b);
+        refreshButton.setEnabled(!b);
+        prevButton.setEnabled(!b && page > 0);
+        nextButton.setEnabled(!b && (page + 1) * PAGE_SIZE < selected.length);
+    }
+
+    /** Load the index if need be and add the games logged since, then search again. */
+    private void refresh() {
+        if (busy)
+            return;
+        setBusy(true);
+        statusLabel.setText("Indexing " + dir + "...");
+        new SwingWorker<LogIndex, String>() {
+            protected LogIndex doInBackground() throws Exception {
+                LogIndex idx = index == null ? new LogIndex(dir) : index;
+                int added = idx.update(new LogIndex.Progress() {
+                    public void progress(int done, int total) {
+                        publish("Indexing " + dir + ": " + done + " of " + total + " new games...");
+                    }
+                });
+                publish(idx.size() + " games, " + added + " new.");
+                return idx;
+            }
+
+            protected void process(List<String> messages) {
+                statusLabel.setText(messages.get(messages.size() - 1));
+            }
+
+            protected void done() {
+                setBusy(false);
+                try {
+                    index = get();
+                } catch (Exception e) {
+                    statusLabel.setText("Failed to index " + dir + ": " + e.getCause());
+                    return;
+                }
+                search();
+            }
+        }.execute();
+    }
+
+    /** Select the games matching the filter fields and show the first page. */
+    private void search() {
+        if (busy || index == null)
+            return;
+        final LogIndex.Filter f;
+        try {
+            f = readFilter();
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText(e.getMessage());
+            return;
+        }
+        setBusy(true);
+        new SwingWorker<int[], Void>() {
+            protected int[] doInBackground() {
+                return index.select(f);
+            }
+
+            protected void done() {
+                try {
+                    selected = get();
+                } catch (Exception e) {
+                    selected = new int[0];
+                    statusLabel.setText("Search failed: " + e.getCause());
+                }
+                setBusy(false);
+                showPage(0);
+            }
+        }.execute();
+    }
+
+    private LogIndex.Filter readFilter() {
+        LogIndex.Filter f = new LogIndex.Filter();
+        f.player = playerField.getText();
+        f.winner = winnerField.getText();
+        f.end = (String) endBox.getSelectedItem();
+        f.opening = openingField.getText();
+        f.minLength = parseInt(minField, "Moves", 0);
+        f.maxLength = parseInt(maxField, "Moves", Integer.MAX_VALUE);
+        f.from = parseDay(fromField, 0);
+        // The whole of the last day
+        f.to = parseDay(toField, 1);
+        return f;
+    }
+
+    private static int parseInt(JTextField field, String name, int empty) {
+        String s = field.getText().trim();
+        if (s.isEmpty())
+            return empty;
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number: " + s);
+        }
+    }
+
+    /** The start of the day in field, plus days; 0 if the field is empty. */
+    private static long parseDay(JTextField field, int days) {
+        String s = field.getText().trim();
+        if (s.isEmpty())
+            return 0;
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        try {
+            return format.parse(s).getTime() + days * 24L * 3600 * 1000;
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Dates are yyyy-mm-dd: " + s);
+        }
+    }
+
+    /** Read the rows of page p of the selection from the index and show them. */
+    private void showPage(int p) {
+        int pages = Math.max(1, (selected.length + PAGE_SIZE - 1) / PAGE_SIZE);
+        page = Math.max(0, Math.min(p, pages - 1));
+        int from = page * PAGE_SIZE;
+        int to = Math.min(from + PAGE_SIZE, selected.length);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        rows = new Object[to - from][];
+        for (int r = 0; r < rows.length; r++) {
+            int i = selected[from + r];
+            Date date = index.getDate(i);
+            rows[r] = new Object[] { index.getGameID(i), date == null ? "" : format.format(date),
+                    index.getPlayer(i, 0), index.getPlayer(i, 1), index.getResultText(i), index.getLength(i),
+                    MetricsServer.reasonLabel(index.getReason(i)), index.getOpening(i) };
+        }
+        model.fireTableDataChanged();
+        pageLabel.setText(selected.length == 0 ? "No games" : "Games " + (from + 1) + "-" + to + " of "
+                + selected.length);
+        setBusy(false);
+    }
+
+    private void openSelected() {
+        int r = table.getSelectedRow();
+        if (r >= 0 && r < rows.length)
+            listener.openGame(dir, (Integer) rows[r][0]);
+    }
+
+    private class TableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        public int getRowCount() {
+            return rows.length;
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int c) {
+            return COLUMNS[c];
+        }
+
+        public Class<?> getColumnClass(int c) {
+            return c == 0 || c == 5 ? Integer.class : String.class;
+        }
+
+        public Object getValueAt(int r, int c) {
+            return rows[r][c];
+        }
+    }
+}
@@ -0,0 +1,671 @@
+package boardgame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of the games of a log directory, for browsing it without opening
+ * every log: players, result, end reason and length from the outcome file,
+ * and date and opening moves from the header of each log.
+ *
+ * The index is kept in INDEX_FILE in the log directory, with the length of
+ * the outcome file it covers. update() only reads the outcome lines added
+ * since, and the logs of those games, so the index is built once and then
+ * kept up to date at the cost of the new games. Games whose outcome was never
+ * written, e.g. those of a server that crashed, are not indexed.
+ *
+ * In memory the games are held column by column, with the strings (players,
+ * reasons, openings) interned in a table, so that select() scans hundreds of
+ * thousands of games in a few milliseconds. The methods are synchronized, so
+ * a browser can update the index on one thread and query it on another.
+ *
+ * File: MAGIC, VERSION (ints), the length of the outcome file covered (long),
+ * then records of
+ * <pre>
+ *   game ID              varint
+ *   player 0, player 1   string reference
+ *   reason               string reference
+ *   opening              string reference
+ *   result               byte, see RESULT_*
+ *   length               varint, the turn number at the end
+ *   date                 long, ms since the epoch, 0 if unknown
+ * </pre>
+ * String references are those of pentago_twist.GameRecordWriter: 0 and the
+ * string on first use, its index + 1 afterwards. A record cut short by a crash
+ * is dropped, and its game indexed again by the next update.
+ */
+public class LogIndex {
+    public static final String INDEX_FILE = "logindex.dat";
+    public static final int MAGIC = 0x50474958; // "PGIX"
+    public static final int VERSION = 1;
+    public static final int OPENING_MOVES = 4;
+    /** Separates the moves of an opening. */
+    public static final String OPENING_SEPARATOR = "; ";
+    /** Above this many new games, update() reads the whole directory once rather than a log per game. */
+    public static final int SCAN_THRESHOLD = 1000;
+
+    // Result byte: the winner's ID, or one of these
+    public static final int RESULT_DRAW = 2;
+    public static final int RESULT_UNDECIDED = 3;
+    public static final int RESULT_CANCELLED0 = 4;
+    public static final int RESULT_CANCELLED1 = 5;
+
+    private static final int HEADER_SIZE = 16;
+    private static final String DATE_FORMAT = "EEE MMM dd HH:mm:ss zzz yyyy"; // Date.toString()
+
+    private final File dir;
+    private final File file;
+    private long covered = 0; // Bytes of the outcome file indexed
+    private long validLength = HEADER_SIZE; // Bytes of the index file holding whole records
+    private boolean rewrite = false; // The index file must be written from scratch
+
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIDs = new HashMap<String, Integer>();
+    private int written = 0; // Strings already in the index file
+
+    private int size = 0;
+    private int[] ids = new int[1024];
+    private int[] player0 = new int[1024];
+    private int[] player1 = new int[1024];
+    private int[] reasons = new int[1024];
+    private int[] openings = new int[1024];
+    private byte[] results = new byte[1024];
+    private short[] lengths = new short[1024];
+    private long[] dates = new long[1024];
+    private final BitSet indexed = new BitSet();
+
+    /** Reports the progress of update(). */
+    public interface Progress {
+        void progress(int done, int total);
+    }
+
+    /** What select() matches. Null or empty fields match everything. */
+    public static class Filter {
+        /** Part of the name of either player, in any case. */
+        public String player;
+        /** Part of the name of the winner, in any case. */
+        public String winner;
+        /** A kind of end, as MetricsServer reports them, e.g. "normal" or "timeout". */
+        public String end;
+        /** The first moves, as getOpening() shows them. */
+        public String opening;
+        public int minLength = 0;
+        public int maxLength = Integer.MAX_VALUE;
+        /** Dates in ms since the epoch, 0 for no bound. Games of unknown date only match without bounds. */
+        public long from = 0, to = 0;
+    }
+
+    /** The index of dir, read from its index file if there is one. Call update() to bring it up to date. */
+    public LogIndex(File dir) throws IOException {
+        this.dir = dir;
+        this.file = new File(dir, INDEX_FILE);
+        if (file.isFile())
+            read();
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a log index, or of another version.");
+            covered = in.readLong();
+            long pos = HEADER_SIZE;
+            CountingInput counter = new CountingInput(in);
+            while (true) {
+                int mark = strings.size();
+                try {
+                    counter.count = 0;
+                    int b = counter.read();
+                    if (b < 0)
+                        break;
+                    int id = readVarint(counter, b);
+                    int p0 = readString(counter), p1 = readString(counter);
+                    int reason = readString(counter), opening = readString(counter);
+                    int result = counter.readUnsignedByte();
+                    int length = readVarint(counter, counter.readUnsignedByte());
+                    long date = counter.readLong();
+                    add(id, p0, p1, reason, opening, result, length, date);
+                    pos += counter.count;
+                } catch (EOFException e) {
+                    // Cut short: forget its strings, and read the outcome
+                    // file again from the start to find the games missing
+                    for (int i = strings.size() - 1; i >= mark; i--)
+                        stringIDs.remove(strings.remove(i));
+                    covered = 0;
+                    break;
+                }
+            }
+            validLength = pos;
+            written = strings.size();
+        }
+    }
+
+    /**
+     * Index the games added to the outcome file since the last update, and
+     * save the index.
+     *
+     * @param progress told how many of the new games are done, may be null
+     * @return the number of games added
+     */
+    public synchronized int update(Progress progress) throws IOException {
+        File outcomes = new File(dir, GameLog.OUTCOME_FILE);
+        if (!outcomes.isFile())
+            return 0;
+        if (outcomes.length() < covered) {
+            // The outcome file was replaced: start over
+            clear();
+        }
+
+        final List<Outcome> games = new ArrayList<Outcome>();
+        long end = readOutcomes(outcomes, covered, games);
+        for (int i = games.size() - 1; i >= 0; i--)
+            if (indexed.get(games.get(i).id))
+                games.remove(i);
+
+        // Dates and openings, from the logs
+        if (games.size() > SCAN_THRESHOLD) {
+            final Map<Integer, Outcome> wanted = new HashMap<Integer, Outcome>();
+            for (Outcome o : games)
+                wanted.put(o.id, o);
+            final Progress p = progress;
+            GameLog.forEachLog(dir, new GameLog.Visitor() {
+                int done = 0;
+
+                public void visit(int gameID, BufferedReader log) throws IOException {
+                    Outcome o = wanted.get(gameID);
+                    if (o != null && o.opening == null) {
+                        readHeader(log, o);
+                        if (p != null && ++done % 1000 == 0)
+                            p.progress(done, games.size());
+                    }
+                }
+            });
+        } else {
+            int done = 0;
+            for (Outcome o : games) {
+                try (BufferedReader log = GameLog.openLog(dir, o.id)) {
+                    if (log != null)
+                        readHeader(log, o);
+                }
+                if (progress != null && ++done % 100 == 0)
+                    progress.progress(done, games.size());
+            }
+        }
+
+        for (Outcome o : games)
+            add(o.id, intern(o.players[0]), intern(o.players[1]), intern(o.reason),
+                    intern(o.opening == null ? "" : o.opening), o.result, o.length, o.date);
+        covered = end;
+        save(games.size());
+        if (progress != null)
+            progress.progress(games.size(), games.size());
+        return games.size();
+    }
+
+    private void clear() {
+        size = 0;
+        strings.clear();
+        stringIDs.clear();
+        indexed.clear();
+        covered = 0;
+        written = 0;
+        validLength = HEADER_SIZE;
+        rewrite = true;
+    }
+
+    /** One line of the outcome file, then what its log adds. */
+    public static final class Outcome {
+        public int id;
+        public String[] players = new String[2];
+        /** The reason of the GAMEOVER message, "" for a normal end. */
+        public String reason;
+        /** The winner's ID, or one of RESULT_*. */
+        public int result;
+        /** The turn number at the end. */
+        public int length;
+        // Only set by update(), from the log
+        long date = 0;
+        String opening = null;
+    }
+
+    /** Parse the complete lines of outcomes from offset; returns the offset after the last one. */
+    private static long readOutcomes(File outcomes, long offset, List<Outcome> games) throws IOException {
+        long pos = offset;
+        try (InputStream raw = new FileInputStream(outcomes)) {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = raw.skip(offset - skipped);
+                if (n <= 0)
+                    throw new EOFException("Outcome file shorter than indexed.");
+                skipped += n;
+            }
+            InputStream in = new BufferedInputStream(raw, 1 << 16);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                pos += line.size() + 1;
+                String s = line.toString().trim();
+                line.reset();
+                Outcome o = parseOutcome(s);
+                if (o != null)
+                    games.add(o);
+                else if (!s.isEmpty())
+                    System.err.println("Skipping unreadable outcome: " + s);
+            }
+            // A last line without its newline is still being written
+        }
+        return pos;
+    }
+
+    /**
+     * A line of a two player game's outcome, see GameLog.appendOutcome: ID,
+     * players, winner ID or GAMEOVER message, winner name, turn number, log
+     * file, reason. The message and the reason may hold commas, so the fields
+     * are found around the log file, the only one of a known form. Null if s
+     * is not such a line.
+     */
+    public static Outcome parseOutcome(String s) {
+        String[] f = s.split(",", -1);
+        int log = -1;
+        for (int i = 6; i < f.length && log < 0; i++)
+            if (isLogReference(f[i]))
+                log = i;
+        if (log < 0)
+            return null;
+        try {
+            Outcome o = new Outcome();
+            o.id = Integer.parseInt(f[0].trim());
+            o.players[0] = f[1];
+            o.players[1] = f[2];
+            o.result = resultOf(join(f, 3, log - 2).trim());
+            o.length = Integer.parseInt(f[log - 1].trim());
+            o.reason = join(f, log + 1, f.length);
+            return o;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String join(String[] f, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++)
+            sb.append(i > from ? "," : "").append(f[i]);
+        return sb.toString();
+    }
+
+    private static boolean isLogReference(String field) {
+        if (field.startsWith(LogArchive.ARCHIVE_DIR + "#"))
+            return true;
+        String name = field.substring(field.lastIndexOf('/') + 1);
+        return GameLog.parseID(name) > 0;
+    }
+
+    private static int resultOf(String win) {
+        try {
+            int id = Integer.parseInt(win);
+            return id == 0 || id == 1 ? id : RESULT_UNDECIDED;
+        } catch (NumberFormatException e) {
+            if (win.endsWith("DRAW"))
+                return RESULT_DRAW;
+            if (win.endsWith("CANCELLED 0"))
+                return RESULT_CANCELLED0;
+            if (win.endsWith("CANCELLED 1"))
+                return RESULT_CANCELLED1;
+            return RESULT_UNDECIDED;
+        }
+    }
+
+    /** Read the date and the first OPENING_MOVES moves of a log. */
+    private static void readHeader(BufferedReader log, Outcome o) throws IOException {
+        StringBuilder opening = new StringBuilder();
+        int moves = 0;
+        String line;
+        while (moves < OPENING_MOVES && (line = log.readLine()) != null) {
+            if (line.startsWith("# Date:")) {
+                o.date = parseDate(line.substring(7).trim());
+            } else if (line.startsWith("#") || line.startsWith("START")) {
+                continue;
+            } else if (line.startsWith("GAMEOVER") || line.startsWith("WINNER") || line.startsWith("DRAW")
+                    || line.startsWith("UNDECIDED")) {
+                break;
+            } else {
+                opening.append(moves > 0 ? OPENING_SEPARATOR : "").append(line.trim());
+                moves++;
+            }
+        }
+        o.opening = opening.toString();
+    }
+
+    private static long parseDate(String s) {
+        try {
+            return new SimpleDateFormat(DATE_FORMAT, Locale.US).parse(s).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private int intern(String s) {
+        Integer i = stringIDs.get(s);
+        if (i == null) {
+            i = strings.size();
+            strings.add(s);
+            stringIDs.put(s, i);
+        }
+        return i;
+    }
+
+    private void add(int id, int p0, int p1, int reason, int opening, int result, int length, long date) {
+        if (size == ids.length) {
+            int n = size * 2;
+            ids = Arrays.copyOf(ids, n);
+            player0 = Arrays.copyOf(player0, n);
+            player1 = Arrays.copyOf(player1, n);
+            reasons = Arrays.copyOf(reasons, n);
+            openings = Arrays.copyOf(openings, n);
+            results = Arrays.copyOf(results, n);
+            lengths = Arrays.copyOf(lengths, n);
+            dates = Arrays.copyOf(dates, n);
+        }
+        ids[size] = id;
+        player0[size] = p0;
+        player1[size] = p1;
+        reasons[size] = reason;
+        openings[size] = opening;
+        results[size] = (byte) result;
+        lengths[size] = (short) Math.min(length, Short.MAX_VALUE);
+        dates[size] = date;
+        indexed.set(id);
+        size++;
+    }
+
+    /** Append the last added games to the index file, then record how much of the outcome file it covers. */
+    private void save(int added) throws IOException {
+        if (!file.isFile())
+            rewrite = true;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (rewrite) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeLong(0);
+                written = 0;
+                validLength = HEADER_SIZE;
+                added = size;
+                rewrite = false;
+            }
+            raf.setLength(validLength);
+            raf.seek(validLength);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes));
+            for (int i = size - added; i < size; i++) {
+                writeVarint(out, ids[i]);
+                writeString(out, player0[i]);
+                writeString(out, player1[i]);
+                writeString(out, reasons[i]);
+                writeString(out, openings[i]);
+                out.writeByte(results[i]);
+                writeVarint(out, lengths[i]);
+                out.writeLong(dates[i]);
+            }
+            out.flush();
+            raf.write(bytes.toByteArray());
+            validLength = raf.getFilePointer();
+            // Only now that the records are written
+            raf.seek(8);
+            raf.writeLong(covered);
+        }
+    }
+
+    /**
+     * Write string s: its index + 1 if the file has it already, else 0 and
+     * the string. Strings are numbered in order of first use in the file,
+     * which is their order in the table since games are only appended.
+     */
+    private void writeString(DataOutputStream out, int s) throws IOException {
+        if (s < written) {
+            writeVarint(out, s + 1);
+        } else {
+            if (s != written)
+                throw new IllegalStateException("String table out of order.");
+            writeVarint(out, 0);
+            out.writeUTF(strings.get(s));
+            written++;
+        }
+    }
+
+    private int readString(CountingInput in) throws IOException {
+        int ref = readVarint(in, in.readUnsignedByte());
+        if (ref == 0)
+            return intern(in.readUTF());
+        if (ref > strings.size())
+            throw new IOException("Corrupt log index: string " + ref + " of " + strings.size());
+        return ref - 1;
+    }
+
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarint(CountingInput in, int b) throws IOException {
+        int v = 0, shift = 0;
+        while ((b & 0x80) != 0) {
+            if (shift > 28)
+                throw new IOException("Corrupt log index: varint too long.");
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+            b = in.readUnsignedByte();
+        }
+        return v | b << shift;
+    }
+
+    /** Reads through a DataInputStream, counting the bytes of the current record. */
+    private static final class CountingInput {
+        final DataInputStream in;
+        long count;
+
+        CountingInput(DataInputStream in) {
+            this.in = in;
+        }
+
+        int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        int readUnsignedByte() throws IOException {
+            count++;
+            return in.readUnsignedByte();
+        }
+
+        long readLong() throws IOException {
+            count += 8;
+            return in.readLong();
+        }
+
+        String readUTF() throws IOException {
+            String s = in.readUTF();
+            count += 2 + utfLength(s);
+            return s;
+        }
+    }
+
+    private static int utfLength(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+        }
+        return n;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The games matching f, as positions in the index, newest first.
+     */
+    public synchronized int[] select(Filter f) {
+        Match player = match(f.player, Match.CONTAINS);
+        Match winner = match(f.winner, Match.CONTAINS);
+        Match opening = match(f.opening, Match.PREFIX);
+        Match end = match(f.end, Match.END);
+
+        int[] selected = new int[size];
+        int n = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            if (player != null && !player.test(player0[i]) && !player.test(player1[i]))
+                continue;
+            if (winner != null) {
+                int w = results[i] == 0 ? player0[i] : results[i] == 1 ? player1[i] : -1;
+                if (w < 0 || !winner.test(w))
+                    continue;
+            }
+            if (opening != null && !opening.test(openings[i]))
+                continue;
+            if (end != null && !end.test(reasons[i]))
+                continue;
+            if (lengths[i] < f.minLength || lengths[i] > f.maxLength)
+                continue;
+            if (f.from != 0 && (dates[i] == 0 || dates[i] < f.from))
+                continue;
+            if (f.to != 0 && (dates[i] == 0 || dates[i] >= f.to))
+                continue;
+            selected[n++] = i;
+        }
+        return Arrays.copyOf(selected, n);
+    }
+
+    /** The match of value, or null for a field left empty, which matches everything. */
+    private Match match(String value, int kind) {
+        if (value == null || value.trim().isEmpty())
+            return null;
+        return new Match(value.trim().toLowerCase(), kind);
+    }
+
+    /**
+     * Tests strings of the table against a filter field, ignoring case, and
+     * each at most once: a column only refers to some of the strings, e.g. a
+     * few player names among the openings of every game.
+     */
+    private final class Match {
+        static final int CONTAINS = 0, PREFIX = 1, END = 2;
+
+        private final String value;
+        private final int kind;
+        private final byte[] memo = new byte[strings.size()]; // 0 unknown, 1 match, 2 no match
+
+        private Match(String value, int kind) {
+            this.value = value;
+            this.kind = kind;
+        }
+
+        boolean test(int s) {
+            if (memo[s] == 0) {
+                String v = strings.get(s);
+                boolean m = kind == END ? MetricsServer.reasonLabel(v).equals(value)
+                        : kind == PREFIX ? v.toLowerCase().startsWith(value) : v.toLowerCase().contains(value);
+                memo[s] = (byte) (m ? 1 : 2);
+            }
+            return memo[s] == 1;
+        }
+    }
+
+    public synchronized int getGameID(int i) {
+        return ids[i];
+    }
+
+    public synchronized String getPlayer(int i, int seat) {
+        return strings.get(seat == 0 ? player0[i] : player1[i]);
+    }
+
+    /** The winner's ID, or one of RESULT_*. */
+    public synchronized int getResult(int i) {
+        return results[i];
+    }
+
+    /** The winner's name, or how the game ended without one. */
+    public synchronized String getResultText(int i) {
+        switch (results[i]) {
+            case 0:
+                return strings.get(player0[i]);
+            case 1:
+                return strings.get(player1[i]);
+            case RESULT_DRAW:
+                return "Draw";
+            case RESULT_CANCELLED0:
+            case RESULT_CANCELLED1:
+                return "Cancelled";
+            default:
+                return "Undecided";
+        }
+    }
+
+    /** The reason the game ended, empty if it was played to the end. */
+    public synchronized String getReason(int i) {
+        return strings.get(reasons[i]);
+    }
+
+    /** The turn number at the end of the game. */
+    public synchronized int getLength(int i) {
+        return lengths[i];
+    }
+
+    /** When the game started, or null if its log didn't say. */
+    public synchronized Date getDate(int i) {
+        return dates[i] == 0 ? null : new Date(dates[i]);
+    }
+
+    /** The first moves, as logged and separated by OPENING_SEPARATOR. */
+    public synchronized String getOpening(int i) {
+        return strings.get(openings[i]);
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : Server.log_dir);
+        long start = System.nanoTime();
+        LogIndex index = new LogIndex(dir);
+        int before = index.size();
+        int added = index.update(new Progress() {
+            public void progress(int done, int total) {
+                if (done < total)
+                    System.out.println("Indexed " + done + " of " + total + " new games...");
+            }
+        });
+        System.out.println(index.size() + " games indexed in " + new File(dir, INDEX_FILE) + " (" + added + " new, "
+                + before + " before) in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,247 @@
+package boardgame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the game logs of the whole process on one background thread, so that
+ * log IO stays off the threads that process moves.
+ *
+ * Game threads only put records on a bounded queue. The writer takes them off
+ * in batches of up to BATCH_SIZE, writes them, and then flushes each file the
+ * batch touched once. When the queue is full, producers wait for room, so no
+ * line is ever dropped. Records are written in the order they were queued:
+ * closing a log is a record too, so a game's lines all reach its file before
+ * it is closed and before its outcome is appended. flush() waits for
+ * everything queued before it, and a shutdown hook does the same before the
+ * JVM exits.
+ */
+public class LogWriter {
+    public static final int QUEUE_CAPACITY = 16384;
+    public static final int BATCH_SIZE = 1024;
+    public static final long SHUTDOWN_WAIT_MS = 10000;
+
+    private static LogWriter shared = null;
+
+    private final BlockingQueue<Record> queue;
+    private final Thread worker;
+
+    /** The writer shared by the whole process, started on first use. */
+    public static synchronized LogWriter shared() {
+        if (shared == null) {
+            shared = new LogWriter(QUEUE_CAPACITY);
+            final LogWriter w = shared;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    w.flush(SHUTDOWN_WAIT_MS);
+                }
+            }, "log-writer-shutdown"));
+        }
+        return shared;
+    }
+
+    public LogWriter(int capacity) {
+        queue = new ArrayBlockingQueue<Record>(capacity);
+        worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "log-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Queue a line for out. */
+    public void println(PrintStream out, String line) {
+        put(new Record(Record.LINE, out, null, line));
+    }
+
+    /** Queue a last line, which may be null, and the closing of out. */
+    public void close(PrintStream out, String line) {
+        put(new Record(Record.CLOSE, out, null, line));
+    }
+
+    /** Queue a line to append to file, which is opened for the batch only. */
+    public void append(File file, String line) {
+        put(new Record(Record.APPEND, null, file, line));
+    }
+
+    /** Queue a line for System.out. */
+    public void console(String line) {
+        put(new Record(Record.CONSOLE, null, null, line));
+    }
+
+    /** Queue a task, run on the writer thread after everything queued before it. */
+    public void execute(Runnable task) {
+        put(new Record(Record.TASK, null, null, null, task));
+    }
+
+    /** The number of records queued and not yet taken by the writer. */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /** Wait until everything queued so far has been written and flushed. */
+    public void flush() {
+        flush(0);
+    }
+
+    /**
+     * Wait until everything queued so far has been written and flushed, or
+     * for at most timeoutMs if it is positive.
+     *
+     * @return false if the wait timed out or was interrupted
+     */
+    public boolean flush(long timeoutMs) {
+        Record barrier = new Record(Record.BARRIER, null, null, null);
+        put(barrier);
+        try {
+            if (timeoutMs <= 0) {
+                barrier.done.await();
+                return true;
+            }
+            return barrier.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void put(Record r) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(r);
+                break;
+            } catch (InterruptedException e) {
+                // A log line must not be lost because its game is being
+                // torn down; keep the interrupt for the caller
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void work() {
+        List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+        Map<PrintStream, Boolean> dirty = new IdentityHashMap<PrintStream, Boolean>();
+        Map<File, PrintStream> appended = new LinkedHashMap<File, PrintStream>();
+        StringBuilder console = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // Only stops with the JVM
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+
+            for (Record r : batch) {
+                try {
+                    write(r, dirty, appended, console);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to write log record:");
+                    e.printStackTrace();
+                }
+            }
+
+            for (PrintStream out : dirty.keySet())
+                out.flush();
+            for (PrintStream out : appended.values())
+                out.close();
+            if (console.length() > 0) {
+                System.out.print(console);
+                System.out.flush();
+            }
+            for (Record r : batch)
+                if (r.kind == Record.BARRIER)
+                    r.done.countDown();
+
+            batch.clear();
+            dirty.clear();
+            appended.clear();
+            console.setLength(0);
+        }
+    }
+
+    private static void write(Record r, Map<PrintStream, Boolean> dirty, Map<File, PrintStream> appended,
+            StringBuilder console) {
+        switch (r.kind) {
+            case Record.LINE:
+                r.out.println(r.text);
+                dirty.put(r.out, Boolean.TRUE);
+                break;
+            case Record.CLOSE:
+                if (r.text != null)
+                    r.out.println(r.text);
+                r.out.close();
+                dirty.remove(r.out);
+                break;
+            case Record.APPEND:
+                append(appended, r.file, r.text);
+                break;
+            case Record.CONSOLE:
+                console.append(r.text).append(System.lineSeparator());
+                break;
+            case Record.TASK:
+                r.task.run();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void append(Map<File, PrintStream> appended, File file, String line) {
+        try {
+            PrintStream out = appended.get(file);
+            if (out == null) {
+                out = new PrintStream(new FileOutputStream(file, true));
+                appended.put(file, out);
+            }
+            out.println(line);
+        } catch (IOException e) {
+            System.err.println("Failed to append to '" + file + "': ");
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Record {
+        static final int LINE = 0;
+        static final int CLOSE = 1;
+        static final int APPEND = 2;
+        static final int CONSOLE = 3;
+        static final int BARRIER = 4;
+        static final int TASK = 5;
+
+        final int kind;
+        final PrintStream out;
+        final File file;
+        final String text;
+        final CountDownLatch done;
+        final Runnable task;
+
+        Record(int kind, PrintStream out, File file, String text) {
+            this(kind, out, file, text, null);
+        }
+
+        Record(int kind, PrintStream out, File file, String text, Runnable task) {
+            this.kind = kind;
+            this.task = task;
+            this.out = out;
+            this.file = file;
+            this.text = text;
+            this.done = kind == BARRIER ? new CountDownLatch(1) : null;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package boardgame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP endpoint on localhost reporting what the servers of the process are
+ * doing, for long tournaments run with Server -k or -nio. Start it with
+ * Server -metrics port.
+ *
+ * /metrics is in the Prometheus text format: games started and ended (by
+ * reason), active games and games ended per second over the last minute, the
+ * depths of the LogWriter queue, the timer and any registered queue such as
+ * NioServer's event loops, the move latencies and timeouts of LatencyStats by
+ * player, and the JVM's heap, GC and thread counts. / is a short plain text
+ * status for people.
+ *
+ * Requests are served by a thread of the endpoint's own. Game threads only
+ * bump counters here; a request reads them, and copies the latency totals
+ * under LatencyStats' lock, so it never waits for a game or makes one wait
+ * for more than that copy.
+ */
+public class MetricsServer {
+    public static final int RATE_WINDOW_SECONDS = 60;
+    public static final String PREFIX = "pentago_";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private static final AtomicLong started = new AtomicLong();
+    private static final AtomicLong ended = new AtomicLong();
+    private static final ConcurrentHashMap<String, AtomicLong> endReasons = new ConcurrentHashMap<String, AtomicLong>();
+    private static final List<Gauge> gauges = new CopyOnWriteArrayList<Gauge>();
+    private static final long startTime = System.nanoTime();
+
+    // Games ended in each of the last seconds, guarded by rateSeconds
+    private static final long[] rateSeconds = new long[RATE_WINDOW_SECONDS];
+    private static final int[] rateCounts = new int[RATE_WINDOW_SECONDS];
+
+    private static HttpServer http = null;
+
+    /** A value read when the metrics are requested. */
+    public interface Value {
+        long get();
+    }
+
+    private static final class Gauge {
+        final String name, help, labels;
+        final Value value;
+
+        Gauge(String name, String help, String labels, Value value) {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+
+    private MetricsServer() {
+    }
+
+    static {
+        gauge("log_writer_queue", "Records waiting for the log writer.", null, new Value() {
+            public long get() {
+                return LogWriter.shared().getQueueSize();
+            }
+        });
+        gauge("timer_pending", "Move timeouts scheduled on the shared timer.", null, new Value() {
+            public long get() {
+                return HashedWheelTimer.shared().getPending();
+            }
+        });
+    }
+
+    /**
+     * Report value as the gauge PREFIX + name. Gauges registered under one
+     * name must tell themselves apart with labels, e.g. loop="0".
+     */
+    public static void gauge(String name, String help, String labels, Value value) {
+        gauges.add(new Gauge(PREFIX + name, help, labels, value));
+    }
+
+    /** A game started: all its players are connected and ready. */
+    public static void gameStarted() {
+        started.incrementAndGet();
+    }
+
+    /** A game that had started ended, for reason as given to GameLog.gameOverMessage. */
+    public static void gameEnded(String reason) {
+        ended.incrementAndGet();
+        String r = reasonLabel(reason);
+        AtomicLong n = endReasons.get(r);
+        if (n == null) {
+            AtomicLong created = new AtomicLong();
+            n = endReasons.putIfAbsent(r, created);
+            if (n == null)
+                n = created;
+        }
+        n.incrementAndGet();
+
+        long second = (System.nanoTime() - startTime) / 1000000000L;
+        int i = (int) (second % RATE_WINDOW_SECONDS);
+        synchronized (rateSeconds) {
+            if (rateSeconds[i] != second) {
+                rateSeconds[i] = second;
+                rateCounts[i] = 0;
+            }
+            rateCounts[i]++;
+        }
+    }
+
+    /** "normal" for a normal end, otherwise the kind of reason, e.g. "illegal_move" or "disconnection". */
+    public static String reasonLabel(String reason) {
+        if (reason == null || reason.isEmpty())
+            return "normal";
+        String r = reason;
+        int colon = r.indexOf(':');
+        if (colon >= 0)
+            r = r.substring(0, colon);
+        if (r.startsWith("DISCONNECTION"))
+            r = "DISCONNECTION";
+        return r.trim().toLowerCase().replace(' ', '_');
+    }
+
+    /** Games ended per second, over the last RATE_WINDOW_SECONDS or since the start if shorter. */
+    public static double getGamesPerSecond() {
+        long now = (System.nanoTime() - startTime) / 1000000000L;
+        long games = 0;
+        synchronized (rateSeconds) {
+            for (int i = 0; i < RATE_WINDOW_SECONDS; i++)
+                if (now - rateSeconds[i] < RATE_WINDOW_SECONDS && rateCounts[i] > 0)
+                    games += rateCounts[i];
+        }
+        return (double) games / Math.max(1, Math.min(now + 1, RATE_WINDOW_SECONDS));
+    }
+
+    public static long getActiveGames() {
+        return started.get() - ended.get();
+    }
+
+    /**
+     * Start serving on localhost:port, unless already started.
+     *
+     * @throws IOException if the port can't be bound
+     */
+    public static synchronized void start(int port) throws IOException {
+        if (http != null)
+            return;
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                reply(ex, "text/plain; version=0.0.4; charset=utf-8", prometheus());
+            }
+        });
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                if (!ex.getRequestURI().getPath().equals("/")) {
+                    ex.sendResponseHeaders(404, -1);
+                    ex.close();
+                    return;
+                }
+                reply(ex, "text/plain; charset=utf-8", status());
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+
+        // The dispatcher thread inherits the daemon flag of the thread
+        // starting it: it must not keep the JVM up once the games are over
+        Thread starter = new Thread(new Runnable() {
+            public void run() {
+                server.start();
+            }
+        }, "metrics-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        http = server;
+        System.out.println("Metrics on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/metrics");
+    }
+
+    /** Stop serving, if started. */
+    public static synchronized void stop() {
+        if (http != null) {
+            http.stop(0);
+            http = null;
+        }
+    }
+
+    private static void reply(HttpExchange ex, String type, String body) throws IOException {
+        if (!ex.getRequestMethod().equals("GET") && !ex.getRequestMethod().equals("HEAD")) {
+            ex.sendResponseHeaders(405, -1);
+            ex.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", type);
+        boolean head = ex.getRequestMethod().equals("HEAD");
+        ex.sendResponseHeaders(200, head ? -1 : bytes.length);
+        if (!head) {
+            OutputStream out = ex.getResponseBody();
+            out.write(bytes);
+        }
+        ex.close();
+    }
+
+    /** All the metrics, in the Prometheus text format. */
+    public static String prometheus() {
+        Writer w = new Writer();
+
+        w.sample("games_started_total", "counter", "Games started.", null, started.get());
+        w.sample("games_active", "gauge", "Games started and not ended.", null, getActiveGames());
+        for (Map.Entry<String, AtomicLong> e : endReasons.entrySet())
+            w.sample("games_ended_total", "counter", "Games ended, by reason.", label("reason", e.getKey()),
+                    e.getValue().get());
+        w.sample("games_per_second", "gauge", "Games ended per second over the last minute.", null,
+                getGamesPerSecond());
+
+        for (Gauge g : gauges)
+            w.raw(g.name, "gauge", g.help, g.labels, Long.toString(g.value.get()));
+
+        // A metric's samples must be contiguous, so players are the inner loop
+        Map<String, LatencyStats.Player> players = LatencyStats.getTournament();
+        String help = "Time from PLAY to the move, by player.";
+        for (Map.Entry<String, LatencyStats.Player> e : players.entrySet()) {
+            String player = label("player", e.getKey());
+            LatencyHistogram h = e.getValue().getLatencies();
+            for (double q : QUANTILES)
+                w.sample("move_latency_seconds", "summary", help, player + ",quantile=\"" + q + "\"",
+                        h.getValueAtPercentile(q * 100) / 1e6);
+            w.sample("move_latency_seconds_sum", null, null, player, h.getSum() / 1e6);
+            w.sample("move_latency_seconds_count", null, null, player, h.getCount());
+        }
+        for (Map.Entry<String, LatencyStats.Player> e : players.entrySet())
+            w.sample("move_latency_max_seconds", "gauge", "Slowest move, by player.", label("player", e.getKey()),
+                    e.getValue().getLatencies().getMax() / 1e6);
+        for (Map.Entry<String, LatencyStats.Player> e : players.entrySet())
+            w.sample("moves_near_limit_total", "counter", "Moves that took more than "
+                    + (int) (LatencyStats.NEAR_LIMIT * 100) + "% of their time, by player.",
+                    label("player", e.getKey()), e.getValue().getNearLimit());
+        for (Map.Entry<String, LatencyStats.Player> e : players.entrySet())
+            w.sample("move_timeouts_total", "counter", "Moves that timed out, by player.", label("player", e.getKey()),
+                    e.getValue().getTimeouts());
+        for (Map.Entry<String, LatencyStats.Player> e : players.entrySet())
+            w.sample("move_substitutions_total", "counter", "Random moves played for late moves, by player.",
+                    label("player", e.getKey()), e.getValue().getSubstitutions());
+        for (Map.Entry<String, LatencyStats.Player> e : players.entrySet())
+            w.sample("time_losses_total", "counter", "Games lost on time, by player.", label("player", e.getKey()),
+                    e.getValue().getTimeLosses());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        w.sample("jvm_heap_used_bytes", "gauge", "Heap in use.", null, heap.getUsed());
+        w.sample("jvm_heap_committed_bytes", "gauge", "Heap committed.", null, heap.getCommitted());
+        w.sample("jvm_heap_max_bytes", "gauge", "Largest heap possible, -1 if unbounded.", null, heap.getMax());
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc : gcs)
+            w.sample("jvm_gc_collections_total", "counter", "Collections, by collector.", label("gc", gc.getName()),
+                    gc.getCollectionCount());
+        for (GarbageCollectorMXBean gc : gcs)
+            w.sample("jvm_gc_seconds_total", "counter", "Time spent collecting, by collector.",
+                    label("gc", gc.getName()), gc.getCollectionTime() / 1e3);
+        w.sample("jvm_threads", "gauge", "Live threads.", null, ManagementFactory.getThreadMXBean().getThreadCount());
+        w.sample("uptime_seconds", "gauge", "Time since the metrics started.", null,
+                (System.nanoTime() - startTime) / 1e9);
+        return w.toString();
+    }
+
+    /** A short summary for people. */
+    public static String status() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Server ").append(Server.VERSION).append(", up ").append((System.nanoTime() - startTime) / 1000000000L)
+                .append(" s\n");
+        sb.append(String.format("Games: %d active, %d started, %d ended, %.2f/s over the last minute%n",
+                getActiveGames(), started.get(), ended.get(), getGamesPerSecond()));
+        for (Map.Entry<String, AtomicLong> e : endReasons.entrySet())
+            sb.append("  ended ").append(e.getKey()).append(": ").append(e.getValue().get()).append('\n');
+        for (Gauge g : gauges)
+            sb.append(g.name.substring(PREFIX.length())).append(g.labels == null ? "" : "{" + g.labels + "}")
+                    .append(": ").append(g.value.get()).append('\n');
+        for (Map.Entry<String, LatencyStats.Player> e : LatencyStats.getTournament().entrySet()) {
+            LatencyStats.Player p = e.getValue();
+            sb.append(e.getKey()).append(": ").append(p.getGames()).append(" games, ").append(p.getLatencies())
+                    .append(", ").append(p.getTimeouts()).append(" timeouts, ").append(p.getTimeLosses())
+                    .append(" time losses\n");
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        sb.append("Heap: ").append(heap.getUsed() >> 20).append(" MB used of ").append(heap.getCommitted() >> 20)
+                .append(" MB\n");
+        return sb.toString();
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    /** Writes samples, with the HELP and TYPE lines before the first sample of each metric. */
+    private static final class Writer {
+        private final StringBuilder sb = new StringBuilder();
+        private final Set<String> described = new HashSet<String>();
+
+        void sample(String name, String type, String help, String labels, long value) {
+            raw(PREFIX + name, type, help, labels, Long.toString(value));
+        }
+
+        void sample(String name, String type, String help, String labels, double value) {
+            raw(PREFIX + name, type, help, labels, Double.toString(value));
+        }
+
+        void raw(String name, String type, String help, String labels, String value) {
+            if (type != null && described.add(name)) {
+                sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+                sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            }
+            sb.append(name);
+            if (labels != null)
+                sb.append('{').append(labels).append('}');
+            sb.append(' ').append(value).append('\n');
+        }
+
+        public String toString() {
+            return sb.toString();
+        }
+    }
+}
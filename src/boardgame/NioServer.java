@@ -0,0 +1,631 @@
+package boardgame;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Boardgame server hosting any number of concurrent games on a few event loop
+ * threads, each multiplexing its connections with a java.nio Selector. It
+ * speaks the same START/PLAY/move/GAMEOVER protocol as Server, so the usual
+ * Client connects to it unchanged, and writes the same log and outcome files
+ * through GameLog. There is no GUI.
+ *
+ * Connections are seated in the order they are accepted: the first connection
+ * of a game plays the first colour, and a game starts once all of its seats
+ * are taken and every player has sent START. Each game belongs to one event
+ * loop, chosen round-robin, and its state is only ever touched by that loop's
+ * thread, so nothing here needs locking. Other threads hand work to a loop
+ * through its task queue.
+ *
+ * Timeouts follow Server: a move arriving after the timeout is replaced by a
+ * random move, and a player who hasn't moved by the end of the cushion loses.
+ * They are scheduled on the shared HashedWheelTimer, which hands them back to
+ * the game's loop when they fire.
+ *
+ * Start it with java boardgame.Server -nio [-loops n].
+ */
+public class NioServer implements Runnable {
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private final String boardClass;
+    private final int port;
+    private final int timeout;
+    private final int firstMoveTimeout;
+    private final boolean quiet;
+    private final File logDir;
+    private final EventLoop[] loops;
+
+    private volatile boolean running = false;
+    private String hostname = "localhost";
+    private ServerSocketChannel serverChannel;
+
+    // Owned by the thread of loops[0], which also accepts connections
+    private Game pendingGame = null;
+    private int pendingSeats = 0;
+    private int nextLoop = 0;
+
+    /**
+     * @param boardClass name of the Board subclass to play
+     * @param loops number of event loop threads
+     */
+    public NioServer(String boardClass, int port, int timeout, int firstMoveTimeout, boolean quiet, File logDir,
+            int loops) {
+        this.boardClass = boardClass;
+        this.port = port;
+        this.timeout = timeout;
+        this.firstMoveTimeout = firstMoveTimeout;
+        this.quiet = quiet;
+        this.logDir = logDir;
+        this.loops = new EventLoop[Math.max(loops, 1)];
+    }
+
+    /** Accept and play games until shutdown() is called. */
+    public void run() {
+        if (!logDir.isDirectory() && !logDir.mkdirs()) {
+            System.err.println("Failed to create log directory.");
+            return;
+        }
+
+        try {
+            hostname = InetAddress.getLocalHost().getCanonicalHostName();
+            for (int i = 0; i < loops.length; i++)
+                loops[i] = new EventLoop();
+
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            System.err.println("Failed to start server:");
+            e.printStackTrace();
+            return;
+        }
+
+        for (int i = 0; i < loops.length; i++) {
+            final EventLoop loop = loops[i];
+            MetricsServer.gauge("event_loop_tasks", "Tasks waiting for an event loop.", "loop=\"" + i + "\"",
+                    new MetricsServer.Value() {
+                        public long get() {
+                            return loop.tasks.size();
+                        }
+                    });
+        }
+
+        running = true;
+        System.out.println("Server started with " + loops.length + " event loop(s). Waiting for incoming connections on "
+                + hostname + ":" + port + " ...");
+        for (int i = 1; i < loops.length; i++)
+            new Thread(loops[i], "nio-loop-" + i).start();
+        loops[0].run();
+
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /** Stop all event loops; games in progress are abandoned. */
+    public void shutdown() {
+        running = false;
+        for (int i = 0; i < loops.length; i++)
+            if (loops[i] != null)
+                loops[i].selector.wakeup();
+    }
+
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    /** Accept all pending connections. Runs on loops[0]. */
+    private void acceptConnections() {
+        SocketChannel ch;
+        try {
+            while ((ch = serverChannel.accept()) != null) {
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                seat(ch);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to accept connection: " + e);
+        }
+    }
+
+    /** Give a connection the next free seat, opening a new game if needed. Runs on loops[0]. */
+    private void seat(final SocketChannel ch) {
+        if (pendingGame == null) {
+            try {
+                Class<?> cl = Class.forName(boardClass);
+                Board b = (Board) cl.getConstructor().newInstance();
+                pendingGame = new Game(b, loops[nextLoop]);
+            } catch (Exception e) {
+                System.err.println("Failed to create board: " + e);
+                closeQuietly(ch);
+                return;
+            }
+            nextLoop = (nextLoop + 1) % loops.length;
+            pendingSeats = 0;
+        }
+
+        final Game g = pendingGame;
+        final int seat = pendingSeats++;
+        if (pendingSeats == g.players.length)
+            pendingGame = null;
+
+        g.loop.execute(new Runnable() {
+            public void run() {
+                g.join(ch, seat);
+            }
+        });
+    }
+
+    private static void closeQuietly(SocketChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /** One selector thread with its task queue. */
+    private class EventLoop implements Runnable {
+        final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /** Run task on this loop's thread. Safe to call from any thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Selector failed: " + e);
+                    break;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        acceptConnections();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    if (key.isReadable())
+                        c.read();
+                    if (key.isValid() && key.isWritable())
+                        c.flush();
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /** One game. Only touched by the thread of its event loop. */
+    private class Game {
+        final Board board;
+        final EventLoop loop;
+        final Connection[] players;
+        boolean started = false;
+        boolean ended = false;
+        int timerGeneration = 0;
+        HashedWheelTimer.Timeout timeoutTask = null;
+        HashedWheelTimer.Timeout killTimeoutTask = null;
+        GameLog log = null;
+        final LatencyStats latency;
+
+        Game(Board board, EventLoop loop) {
+            this.board = board;
+            this.loop = loop;
+            this.players = new Connection[board.getNumberOfPlayers()];
+            this.latency = new LatencyStats(board.getNumberOfPlayers());
+        }
+
+        void join(SocketChannel ch, int seat) {
+            if (ended) {
+                // The game was cancelled while filling up, try another one
+                loops[0].execute(new Runnable() {
+                    public void run() {
+                        seat(ch);
+                    }
+                });
+                return;
+            }
+            try {
+                Connection c = new Connection(ch, this, seat);
+                c.key = ch.register(loop.selector, SelectionKey.OP_READ, c);
+                players[seat] = c;
+                System.out.println("Accepted connection from " + c.hostName + ": " + board.getNameForID(seat));
+            } catch (IOException e) {
+                System.err.println("Failed to register connection: " + e);
+                closeQuietly(ch);
+            }
+        }
+
+        void receive(Connection c, String inputLine) {
+            if (ended)
+                return;
+
+            if (c.timedOutMove != null) {
+                System.out.println("Player " + c.seat + " timeout - Ignoring move from player: " + inputLine);
+
+                // Move did not come in time. Using the random move chosen by timeOut() instead.
+                inputLine = c.timedOutMove;
+                c.timedOutMove = null;
+                System.out.println("Player " + c.seat + " timeout - Playing random move: " + inputLine);
+                latency.substituted(c.seat);
+            }
+
+            if (started && c.seat != board.getTurnPlayer()) {
+                System.err.println("It is currently: " + board.getNameForID(board.getTurnPlayer()) + "'s turn. "
+                        + "Ignoring out of turn message from " + board.getNameForID(c.seat) + ": " + inputLine);
+            } else if (!started && inputLine.startsWith("START")) {
+                c.name = inputLine.substring(5).trim();
+                c.ready = true;
+                for (int i = 0; i < players.length; i++)
+                    if (players[i] == null || !players[i].ready)
+                        return;
+                start();
+            } else if (!started) {
+                System.err.println("Ignoring message before the game started from " + board.getNameForID(c.seat)
+                        + ": " + inputLine);
+            } else {
+                playMove(inputLine, c.seat, c.name);
+            }
+        }
+
+        private void start() {
+            try {
+                log = GameLog.create(logDir, Server.archive_logs);
+
+                String[] p = new String[players.length];
+                for (int i = 0; i < players.length; i++)
+                    p[i] = board.getNameForID(i) + ", '" + players[i].name + "', running on " + players[i].hostName;
+                log.writeHeader(Server.VERSION, hostname, port, board, timeout, firstMoveTimeout, null, p);
+
+                for (int i = 0; i < players.length; i++) {
+                    String msg = "START " + board.getNameForID(i) + " " + players[i].name;
+                    log(msg);
+                    players[i].send(msg);
+                }
+                started = true;
+                MetricsServer.gameStarted();
+                requestMove();
+            } catch (Exception e) {
+                System.err.println("Exception starting game.");
+                e.printStackTrace();
+                endGame("SERVER ERROR");
+            }
+        }
+
+        private void playMove(String inputLine, int playerID, String playerName) {
+            Move m;
+            try {
+                m = board.parseMove(inputLine);
+            } catch (Exception e) {
+                System.err.println("Ignoring unparseable move from " + playerName + ": " + inputLine);
+                return;
+            }
+
+            latency.moveReceived(playerID);
+            cancelTimeout();
+
+            try {
+                Move ms[];
+                Object o = board.filterMove(m);
+                if (o instanceof Move) {
+                    Move myArray[] = { (Move) o };
+                    ms = myArray;
+                } else {
+                    ms = (Move[]) o;
+                }
+
+                for (int i = 0; i < ms.length; i++) {
+                    m = ms[i];
+                    board.move(m);
+                    broadcast(m);
+                }
+
+                if (board.getWinner() != Board.NOBODY) {
+                    endGame("");
+                } else {
+                    requestMove();
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error executing move: " + m.toPrettyString());
+                e.printStackTrace();
+                forceLoser(playerID);
+                endGame("ILLEGAL MOVE: " + m.toPrettyString());
+            }
+        }
+
+        /** Send the PLAY message and set the timeouts, or let the board move. */
+        private void requestMove() {
+            int player_id = board.getTurnPlayer();
+            if (player_id == Board.BOARD) {
+                playMove(board.getBoardMove().toTransportable(), Board.BOARD, "theBoard");
+                return;
+            }
+            if (player_id < 0 || player_id >= players.length)
+                throw new IllegalStateException("Invalid player ID: " + player_id);
+
+            players[player_id].send("PLAY " + board.getNameForID(player_id));
+
+            int to = board.getTurnNumber() == 0 ? firstMoveTimeout : timeout;
+            int cushion = board.getTurnNumber() == 0 ? Server.FIRST_MOVE_TIMEOUT_CUSHION
+                    : Server.DEFAULT_TIMEOUT_CUSHION;
+            latency.moveRequested(player_id, to);
+            timeoutTask = HashedWheelTimer.shared().schedule(onLoop(player_id, false), to);
+            killTimeoutTask = HashedWheelTimer.shared().schedule(onLoop(player_id, true), to + cushion);
+        }
+
+        /** A timer task that runs the timeout on this game's loop, unless it is stale by then. */
+        private Runnable onLoop(final int seat, final boolean kill) {
+            final int generation = timerGeneration;
+            final Runnable fire = new Runnable() {
+                public void run() {
+                    if (ended || generation != timerGeneration)
+                        return;
+                    if (kill)
+                        killTimeOut(seat);
+                    else
+                        timeOut(seat);
+                }
+            };
+            return new Runnable() {
+                public void run() {
+                    loop.execute(fire);
+                }
+            };
+        }
+
+        private void cancelTimeout() {
+            timerGeneration++;
+            if (timeoutTask != null)
+                timeoutTask.cancel();
+            if (killTimeoutTask != null)
+                killTimeoutTask.cancel();
+            timeoutTask = null;
+            killTimeoutTask = null;
+        }
+
+        /** The player is late: its move will be replaced by a random one. */
+        void timeOut(int seat) {
+            Move random_move = board.getRandomMove();
+            random_move.setPlayerID(seat);
+            random_move.setFromBoard(false);
+            players[seat].timedOutMove = random_move.toTransportable();
+            latency.timedOut(seat);
+        }
+
+        /** The player is later than the cushion allows: it loses. */
+        void killTimeOut(int seat) {
+            latency.lostOnTime(seat);
+            forceLoser(seat);
+            endGame("TIMEOUT");
+        }
+
+        void connectionError(Connection c, IOException e) {
+            if (ended)
+                return;
+            System.err.println("Connection error for " + board.getNameForID(c.seat) + " : " + e);
+            forceLoser(c.seat);
+            endGame("DISCONNECTION " + board.getNameForID(c.seat));
+        }
+
+        private void forceLoser(int c) {
+            if (c == Board.BOARD)
+                board.forceWinner(Board.DRAW);
+            else
+                board.forceWinner((c + 1) % 2);
+        }
+
+        private void endGame(String reason) {
+            if (ended)
+                return;
+            ended = true;
+            cancelTimeout();
+            if (started)
+                MetricsServer.gameEnded(reason);
+
+            String msg = GameLog.gameOverMessage(reason, board);
+            broadcast(msg);
+
+            for (int i = 0; i < players.length; i++)
+                if (players[i] != null)
+                    players[i].closeWhenFlushed();
+
+            if (log != null) {
+                log.close();
+
+                String[] names = new String[players.length];
+                int[] ids = new int[players.length];
+                for (int i = 0; i < players.length; i++) {
+                    if (players[i] != null) {
+                        names[i] = players[i].name;
+                        ids[i] = i;
+                    }
+                }
+                log.appendOutcome(names, ids, board, msg, reason);
+                latency.gameEnded(logDir, log.getGameID(), names);
+            }
+        }
+
+        private void log(String str) {
+            if (!quiet)
+                LogWriter.shared().console("% " + str);
+            if (log != null)
+                log.println(str);
+        }
+
+        private void broadcast(String str) {
+            log(str);
+            for (int i = 0; i < players.length; i++)
+                if (players[i] != null)
+                    players[i].send(str);
+        }
+
+        /** Send move m to the players identified by m.getReceivers() */
+        private void broadcast(Move m) {
+            String str = m.toTransportable();
+            if (m.doLog())
+                log(str);
+
+            int[] rec = m.getReceivers();
+            for (int p = 0; p < players.length; p++) {
+                if (players[p] == null)
+                    continue;
+                boolean send = rec == null;
+                for (int i = 0; rec != null && i < rec.length; i++)
+                    send |= rec[i] == p;
+                if (send)
+                    players[p].send(str);
+            }
+        }
+    }
+
+    /** The non-blocking end of one client connection. */
+    private static class Connection {
+        final SocketChannel channel;
+        final Game game;
+        final int seat;
+        final String hostName;
+        SelectionKey key;
+
+        String name;
+        boolean ready = false;
+        String timedOutMove = null;
+
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        private boolean closing = false;
+        private boolean closed = false;
+
+        Connection(SocketChannel channel, Game game, int seat) throws IOException {
+            this.channel = channel;
+            this.game = game;
+            this.seat = seat;
+            this.hostName = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        }
+
+        /** Read what is available and pass complete lines to the game. */
+        void read() {
+            int n;
+            try {
+                n = channel.read(in);
+            } catch (IOException e) {
+                lost(e);
+                return;
+            }
+            if (n < 0) {
+                lost(new EOFException("Connection closed by client"));
+                return;
+            }
+
+            in.flip();
+            while (in.hasRemaining() && !closed) {
+                byte b = in.get();
+                if (b == '\n') {
+                    int len = line.length();
+                    if (len > 0 && line.charAt(len - 1) == '\r')
+                        line.setLength(len - 1);
+                    String s = line.toString();
+                    line.setLength(0);
+                    if (!s.isEmpty())
+                        game.receive(this, s);
+                } else if (line.length() >= MAX_LINE_LENGTH) {
+                    lost(new IOException("Line too long"));
+                } else {
+                    line.append((char) (b & 0xff));
+                }
+            }
+            in.clear();
+        }
+
+        void send(String msg) {
+            if (closed || closing)
+                return;
+            if (Server.DBGNET)
+                System.out.println(game.board.getNameForID(seat) + "< " + msg);
+            out.add(ByteBuffer.wrap((msg + "\n").getBytes(StandardCharsets.US_ASCII)));
+            flush();
+        }
+
+        /** Write as much of the queued output as the socket takes. */
+        void flush() {
+            if (closed)
+                return;
+            try {
+                while (!out.isEmpty()) {
+                    ByteBuffer b = out.peek();
+                    channel.write(b);
+                    if (b.hasRemaining())
+                        break;
+                    out.poll();
+                }
+            } catch (IOException e) {
+                lost(e);
+                return;
+            }
+
+            if (out.isEmpty() && closing)
+                close();
+            else
+                key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        void closeWhenFlushed() {
+            closing = true;
+            if (out.isEmpty())
+                close();
+        }
+
+        private void lost(IOException e) {
+            if (closed)
+                return;
+            close();
+            game.connectionError(this, e);
+        }
+
+        private void close() {
+            if (closed)
+                return;
+            closed = true;
+            if (key != null)
+                key.cancel();
+            closeQuietly(channel);
+        }
+    }
+}
@@ -2,17 +2,14 @@ package boardgame;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
 import java.awt.EventQueue;
 
 /**
@@ -32,12 +29,17 @@ import java.awt.EventQueue;
  * types of threads: - A) The thread executing the run() method - B) The
  * ClientHandler threads (started by the run() method) - C) The GUI Thread
  *
- * The entry points for these threads are synchronized on the Server object's
+ * The entry points for these threads are guarded by the Server object's
  * lock, except for the run() method. This is because the thread would not
  * release the lock while waiting for connections. For this reason it is unsafe
  * to manipulate the Server object while the run() method may be executing, with
  * the exception of the killServer() method.
  *
+ * The lock is a ReentrantLock rather than the object's monitor, so that with
+ * -Dboardgame.virtualThreads=true the ClientHandlers can run on virtual threads
+ * and write to their sockets while holding it without pinning a carrier thread
+ * (see Threads). The same goes for the ClientHandlers' own locks.
+ *
  * This could probably be fixed by using yet another thread to accept the
  * connections.
  *
@@ -45,14 +47,14 @@ import java.awt.EventQueue;
  * facility, so that they are invoked by the AWT event dispatch thread.
  */
 public class Server implements Runnable {
-    protected static final String VERSION = "0.08";
+    public static final String VERSION = "0.08";
     protected static final int DEFAULT_PORT = 8123;
 
     public static final int DEFAULT_TIMEOUT = 20000;
-    private static final int DEFAULT_TIMEOUT_CUSHION = 1000;
+    public static final int DEFAULT_TIMEOUT_CUSHION = 1000;
 
     public static final int FIRST_MOVE_TIMEOUT = 30000;
-    private static final int FIRST_MOVE_TIMEOUT_CUSHION = 1000;
+    public static final int FIRST_MOVE_TIMEOUT_CUSHION = 1000;
 
     protected static final String DEFAULT_BOARDCLASS = "pentago_twist.PentagoBoard";
 
@@ -61,9 +63,10 @@ public class Server implements Runnable {
     protected static final int MAX_SERVERS = 10;
 
     public static String log_dir = "logs";
-    protected static final String OUTCOME_FILE = "outcomes.txt";
-    protected static final String LOG_PREFIX = "game";
-    protected static final String LOG_SUFFIX = ".log";
+    public static boolean archive_logs = false;
+    protected static final String OUTCOME_FILE = GameLog.OUTCOME_FILE;
+    protected static final String LOG_PREFIX = GameLog.LOG_PREFIX;
+    protected static final String LOG_SUFFIX = GameLog.LOG_SUFFIX;
 
     // Command line parameters
     private static int cmdArgPort = DEFAULT_PORT;
@@ -81,15 +84,13 @@ public class Server implements Runnable {
     final private ClientHandler players[];
     // A fake client handler for the board, if it wants to play moves
     private ClientHandler boardClientHandler = new ClientHandler(Board.BOARD, this);
-    private Timer timer = new Timer();
-
-
-
-
-
-
-    private TimerTask timeoutTask;
-    private TimerTask killTimeoutTask;
+    // Guards the entry points, see the note on synchronization above
+    private final ReentrantLock lock = new ReentrantLock();
+    private HashedWheelTimer.Timeout timeoutTask;
+    private HashedWheelTimer.Timeout killTimeoutTask;
+    // Incremented whenever the timeouts are cancelled, so a timeout that
+    // fired just before can tell it is stale
+    private int timerGeneration = 0;
     private String hostname = "localhost";
     private ServerSocket svrSock;
 
@@ -103,9 +104,10 @@ public class Server implements Runnable {
 
     // Logging stuff
     private File logDir = null;
-    private PrintStream logOut = null;
-    private String logfilename;
+    private GameLog logOut = null;
     private int gameID = -1;
+    // How long the players take to move, see LatencyStats
+    private final LatencyStats latency;
     // This is a history, if the game wasn't started from scratch
     private Move[] history = null;
     private boolean playingHistory = false;
@@ -116,7 +118,13 @@ public class Server implements Runnable {
                 + "        '-ng' indicates not to show a GUI.\n"
                 + "        '-q' indicates not to dump log to console.\n" + "        '-t n' sets timeout. (default="
                 + DEFAULT_TIMEOUT + ")\n" + "        '-ft n' sets timeout for the first move. (default="
-                + FIRST_MOVE_TIMEOUT + ")\n" + "        '-k' indicates to start a new server once a game is running"
+                + FIRST_MOVE_TIMEOUT + ")\n" + "        '-k' indicates to start a new server once a game is running\n"
+                + "        '-nio' hosts any number of games on event loop threads, without a GUI\n"
+                + "        '-loops n' sets the number of event loop threads of -nio. (default=1)\n"
+                + "        '-l dir' sets the log directory. (default=" + log_dir + ")\n"
+                + "        '-archive' appends the logs to the compressed archive of the log directory\n"
+                + "        '-metrics port' serves metrics on http://localhost:port/metrics\n"
+                + "  With -D" + Threads.VIRTUAL_PROPERTY + "=true on JDK 21+, connections run on virtual threads.\n"
                 + "  e.g.\n" + "    java boardgame.Server -p " + DEFAULT_PORT + " -t " + DEFAULT_TIMEOUT + "\n"
                 + "  launches a server with a GUI and the default parameters.\n");
     }
@@ -125,6 +133,9 @@ public class Server implements Runnable {
         String argClass = DEFAULT_BOARDCLASS;
         boolean argGui = true;
         boolean argKeep = false;
+        boolean argNio = false;
+        int argLoops = 1;
+        int argMetrics = -1;
         Server svr = null;
         Vector<Server> servers = new Vector<Server>();
         try {
@@ -143,6 +154,14 @@ public class Server implements Runnable {
                     argKeep = true;
                 else if (args[i].equals("-l"))
                     log_dir = args[++i];
+                else if (args[i].equals("-nio"))
+                    argNio = true;
+                else if (args[i].equals("-loops"))
+                    argLoops = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-archive"))
+                    archive_logs = true;
+                else if (args[i].equals("-metrics"))
+                    argMetrics = Integer.parseInt(args[++i]);
                 else {
                     printUsage();
                     return;
@@ -152,20 +171,31 @@ public class Server implements Runnable {
             printUsage();
             return;
         }
+        if (argMetrics >= 0) {
+            try {
+                MetricsServer.start(argMetrics);
+            } catch (IOException e) {
+                System.err.println("Failed to serve metrics on port " + argMetrics + ": " + e);
+                return;
+            }
+        }
+        if (argNio) {
+            new NioServer(argClass, cmdArgPort, cmdArgTimeout, cmdArgFirstTimeout, cmdArgQuiet, new File(log_dir),
+                    argLoops).run();
+            return;
+        }
+
         // Store the comand line parameters
         ServerSocket ss = null;
         do { // Keep launching servers
             try {
-                // If we have too many servers running, wait for one to finish
-                while (servers.size() >= MAX_SERVERS) {
-                    for (int i = 0; i < servers.size(); i++) {
-                        Server s = (Server) servers.get(i);
-                        synchronized (s) {
-                            if (s.gameEnded)
-                                servers.removeElementAt(i);
-                        }
-                    }
+                // Forget the servers whose game has ended, and if we have too
+                // many running, wait for one to finish. Virtual threads are
+                // cheap enough not to need a cap.
+                pruneEnded(servers);
+                while (!Threads.isVirtual() && servers.size() >= MAX_SERVERS) {
                     Thread.sleep(500); // Wait half a second
+                    pruneEnded(servers);
                 }
 
                 // Get the board instance
@@ -207,6 +237,13 @@ public class Server implements Runnable {
             }
     }
 
+    /** Remove the servers whose game has ended from servers. */
+    private static void pruneEnded(Vector<Server> servers) {
+        for (int i = servers.size() - 1; i >= 0; i--)
+            if (servers.get(i).isGameEnded())
+                servers.removeElementAt(i);
+    }
+
     /**
      * Create a server which accepts two connections from the given socket.
      */
@@ -231,25 +268,50 @@ public class Server implements Runnable {
         if (createGUI)
             this.gui = new ServerGUI(this);
         players = new ClientHandler[b.getNumberOfPlayers()];
+        latency = new LatencyStats(b.getNumberOfPlayers());
     }
 
     public Board getBoard() {
         return board;
     }
 
+    boolean isGameEnded() {
+        lock.lock();
+        try {
+            return gameEnded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     // Allow the GUI to provide a history.
-    synchronized void setHistory(Move[] moves) {
-        this.history = moves;
+    void setHistory(Move[] moves) {
+        lock.lock();
+        try {
+            this.history = moves;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // Allow the GUI to set itself for this server
-    synchronized void setGUI(ServerGUI g) {
-        this.gui = g;
+    void setGUI(ServerGUI g) {
+        lock.lock();
+        try {
+            this.gui = g;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Lets the GUI end the game */
-    synchronized void killServer() {
-        endGame("USER CANCEL");
+    void killServer() {
+        lock.lock();
+        try {
+            endGame("USER CANCEL");
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -293,12 +355,15 @@ public class Server implements Runnable {
         try {
             hostname = InetAddress.getLocalHost().getCanonicalHostName();
             ServerSocket ss;
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (svrSock == null) {
                     svrSock = new ServerSocket(port);
                     ownSocket = true;
                 }
                 ss = svrSock;
+            } finally {
+                lock.unlock();
             }
             System.out.println("Server started. Waiting for incoming connections on " + hostname + ":" + port + " ...");
             int accepted = 0;
@@ -310,7 +375,7 @@ public class Server implements Runnable {
                 Socket client = ss.accept();
                 players[accepted] = new ClientHandler(client, accepted, this);
 
-                new Thread(players[accepted]).start();
+                Threads.start(players[accepted], "client-handler-" + accepted);
 
                 System.out.println("Accepted connection from " + client.getInetAddress().getHostName() + ": "
                         + board.getNameForID(players[accepted].getPlayerID()));
@@ -329,14 +394,27 @@ public class Server implements Runnable {
                 } catch (Exception e) {
                 }
             // Tell any other threads we're done accepting connections
-            synchronized (this) {
+            lock.lock();
+            try {
                 svrSock = null;
+            } finally {
+                lock.unlock();
             }
         }
     }
 
     /** receives messages from the client sockets */
-    private synchronized void processMessage(String inputLine, ClientHandler h) {
+    private void processMessage(String inputLine, ClientHandler h) {
+        lock.lock();
+        try {
+            handleMessage(inputLine, h);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called with the lock held */
+    private void handleMessage(String inputLine, ClientHandler h) {
         if (DBGNET)
             System.out.println(board.getNameForID(h.getPlayerID()) + "> " + inputLine);
         if (gameEnded)
@@ -379,6 +457,7 @@ public class Server implements Runnable {
 
                 // Game is started
                 gameStarted = true;
+                MetricsServer.gameStarted();
 
                 // If we're not starting from scratch, play through the move history
                 if (history != null) {
@@ -418,6 +497,8 @@ public class Server implements Runnable {
                 return;
             }
 
+            if (!playingHistory)
+                latency.moveReceived(h.getPlayerID());
             cancelTimeout();
 
             try {
@@ -438,7 +519,7 @@ public class Server implements Runnable {
                     m = ms[i];
                     board.move(m);
                     if (gui != null)
-                        new RUpdated(board, m);// gui.boardUpdated( m );
+                        new RUpdated(m);// gui.boardUpdated( m );
                     broadcast(m);
                 }
 
@@ -461,64 +542,68 @@ public class Server implements Runnable {
     }
 
     private void initLogFile() throws Exception {
-        // Find an unused filename
-        File[] files = logDir.listFiles();
-        if (files == null)
-            throw new IOException("Log directory doesn't seem to exist.");
-
-        int max = 0, plen = LOG_PREFIX.length(), slen = LOG_SUFFIX.length();
-        for (int i = 0; i < files.length; i++) {
-            if (files[i].getName().startsWith(LOG_PREFIX) && files[i].getName().endsWith(LOG_SUFFIX)) {
-
-                int v = Integer.parseInt(files[i].getName().substring(plen, files[i].getName().length() - slen));
-                if (v > max)
-                    max = v;
-            }
-        }
-
-        gameID = max + 1;
-        String name = "000000" + Integer.toString(gameID);
-        logfilename = LOG_PREFIX + name.substring(name.length() - 5) + LOG_SUFFIX;
-
-        // Open the log and print some header stuff
-        File logFile = new File(logDir, logfilename);
-        logOut = new PrintStream(new FileOutputStream(logFile));
-        logOut.println("# Server version " + VERSION + " running on " + hostname + ":" + port);
-        logOut.println("# Game ID: " + gameID);
-        logOut.println("# Board class: " + board.getClass().getName());
-        logOut.println("# Timeout: " + timeout);
-        logOut.println("# First Move Timeout: " + first_move_timeout);
-        logOut.println("# Date: " + (new Date()).toString());
-
-        if (history != null)
-            logOut.println("# Starting at move " + (history.length + 1));
+        logOut = GameLog.create(logDir, archive_logs);
+        gameID = logOut.getGameID();
 
+        String[] p = new String[players.length];
         for (int i = 0; i < players.length; i++) {
-            logOut.println("# Player " + (i + 1) + ": " + board.getNameForID(players[i].getPlayerID()) + ", '"
-                    + players[i].getName() + "', running on " + players[i].getHostName());
+            p[i] = board.getNameForID(players[i].getPlayerID()) + ", '" + players[i].getName() + "', running on "
+                    + players[i].getHostName();
         }
+        logOut.writeHeader(VERSION, hostname, port, board, timeout, first_move_timeout, history, p);
     }
 
     /** Callback for socket error in ClientHandler. */
-    private synchronized void connectionError(ClientHandler h, IOException e) {
-        System.err.println("Connection error for " + board.getNameForID(h.getPlayerID()) + " : " + e);
-        forceLoser(h.getPlayerID());
-        endGame("DISCONNECTION " + board.getNameForID(h.getPlayerID()));
+    private void connectionError(ClientHandler h, IOException e) {
+        lock.lock();
+        try {
+            System.err.println("Connection error for " + board.getNameForID(h.getPlayerID()) + " : " + e);
+            forceLoser(h.getPlayerID());
+            endGame("DISCONNECTION " + board.getNameForID(h.getPlayerID()));
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Callback for timeout timer. Play a random move. */
-    private synchronized void timeOut(int player_id) {
-        Move random_move = board.getRandomMove();
-        random_move.setPlayerID(player_id);
-        random_move.setFromBoard(false);
+    private void timeOut(int player_id, int generation) {
+        lock.lock();
+        try {
+            if (gameEnded || generation != timerGeneration)
+                return;
+            Move random_move = board.getRandomMove();
+            random_move.setPlayerID(player_id);
+            random_move.setFromBoard(false);
+
+            players[player_id].setMove(random_move.toTransportable());
+            latency.timedOut(player_id);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        players[player_id].setMove(random_move.toTransportable());
+    /** Callback for ClientHandler, when it plays the random move of a timeout. */
+    private void moveSubstituted(ClientHandler h) {
+        lock.lock();
+        try {
+            latency.substituted(h.getPlayerID());
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Callback for kill timeout timer. End the game. */
-    private synchronized void killTimeOut(int player_id) {
-        forceLoser(player_id);
-        endGame("TIMEOUT");
+    private void killTimeOut(int player_id, int generation) {
+        lock.lock();
+        try {
+            if (gameEnded || generation != timerGeneration)
+                return;
+            latency.lostOnTime(player_id);
+            forceLoser(player_id);
+            endGame("TIMEOUT");
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void endGame(String reason) {
@@ -526,47 +611,27 @@ public class Server implements Runnable {
             return;
 
         gameEnded = true;
+        if (gameStarted)
+            MetricsServer.gameEnded(reason);
 
         // Maybe we're still waiting for connections. Closing the
         // server socket will cause an exception in that thread.
-        synchronized (this) {
+        lock.lock();
+        try {
             if (svrSock != null)
                 try {
                     svrSock.close();
                 } catch (IOException e) {
                 }
+        } finally {
+            lock.unlock();
         }
 
-        // Make sure we get rid of the timer
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
-        }
-
-        // Log reason for ending the game
-        String msg = "GAMEOVER ";
-
-        if (!reason.isEmpty()) {
-            msg += reason + " ";
-        }
+        // Make sure no timeout fires after the end
+        cancelTimeout();
 
-        // Log winner
-        switch (board.getWinner()) {
-            case Board.DRAW:
-                msg += "DRAW";
-                break;
-            case Board.NOBODY:
-                msg += "UNDECIDED";
-                break;
-            case Board.CANCELLED0:
-                msg += "CANCELLED 0";
-                break;
-            case Board.CANCELLED1:
-                msg += "CANCELLED 1";
-                break;
-            default:
-                msg += "WINNER " + board.getWinner();
-        }
+        // Log reason for ending the game and the winner
+        String msg = GameLog.gameOverMessage(reason, board);
 
         if (gui != null)
             new REnded(msg); // gui.gameEnded(msg);
@@ -580,38 +645,19 @@ public class Server implements Runnable {
 
         // Close the log file
         if (logOut != null) {
-            logOut.println("# Game ended: " + (new Date()).toString());
             logOut.close();
 
             // Append the outcome to the outcome file
-            try {
-                PrintStream out = new PrintStream(new FileOutputStream(new File(log_dir, OUTCOME_FILE), true));
-                String delim = ",";
-                out.print(Integer.toString(gameID) + delim);
-
-                int win = -1;
-                for (int i = 0; i < players.length; i++) {
-                    if (players[i] == null)
-                        out.print("NOBODY" + delim);
-                    else {
-                        out.print(players[i].getName() + delim);
-
-                        if (board.getWinner() == players[i].getPlayerID()) {
-                            win = i;
-                        }
-                    }
+            String[] names = new String[players.length];
+            int[] ids = new int[players.length];
+            for (int i = 0; i < players.length; i++) {
+                if (players[i] != null) {
+                    names[i] = players[i].getName();
+                    ids[i] = players[i].getPlayerID();
                 }
-
-                out.print((win > -1 ? players[win].getPlayerID() : msg) + delim);
-                out.print((win > -1 ? players[win].getName() : "NOBODY") + delim);
-                out.print(Integer.toString(board.getTurnNumber()) + delim);
-                out.print(logfilename + delim);
-                out.println(reason);
-                out.close();
-            } catch (Exception e) {
-                System.err.println("Failed to append outcome to '" + OUTCOME_FILE + "': ");
-                e.printStackTrace();
             }
+            logOut.appendOutcome(names, ids, board, msg, reason);
+            latency.gameEnded(logDir, gameID, names);
         }
     }
 
@@ -630,8 +676,10 @@ public class Server implements Runnable {
 
                     if (board.getTurnNumber() == 0) {
                         resetTimer(first_move_timeout, FIRST_MOVE_TIMEOUT_CUSHION, i);
+                        latency.moveRequested(player_id, first_move_timeout);
                     } else {
                         resetTimer(timeout, DEFAULT_TIMEOUT_CUSHION, i);
+                        latency.moveRequested(player_id, timeout);
                     }
 
                     return;
@@ -646,36 +694,43 @@ public class Server implements Runnable {
         cancelTimeout();
 
         final int f_player_id = player_id;
+        final int f_generation = timerGeneration;
 
-        timeoutTask = new TimerTask() {
+        // Both run on a thread of the timer shared by all games, not on its
+        // worker: killTimeOut() ends the game, writing to the clients, which
+        // may block on a stuck one
+        timeoutTask = HashedWheelTimer.shared().schedule(new Runnable() {
             public void run() {
-                timeOut(f_player_id);
+                timeOut(f_player_id, f_generation);
             }
-        };
+        }, timeout);
 
-        killTimeoutTask = new TimerTask() {
+        killTimeoutTask = HashedWheelTimer.shared().schedule(new Runnable() {
             public void run() {
-                killTimeOut(f_player_id);
+                killTimeOut(f_player_id, f_generation);
             }
-        };
-
-        timer.schedule(timeoutTask, timeout);
-        timer.schedule(killTimeoutTask, timeout + kill_cushion);
+        }, timeout + kill_cushion);
     }
 
     // So the GUI can cancel the timeout
-    synchronized void cancelTimeout() {
-        if (timeoutTask != null)
-            timeoutTask.cancel();
-        if (killTimeoutTask != null)
-            killTimeoutTask.cancel();
-        timeoutTask = null;
-        killTimeoutTask = null;
+    void cancelTimeout() {
+        lock.lock();
+        try {
+            timerGeneration++;
+            if (timeoutTask != null)
+                timeoutTask.cancel();
+            if (killTimeoutTask != null)
+                killTimeoutTask.cancel();
+            timeoutTask = null;
+            killTimeoutTask = null;
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void log(String str) {
         if (!quiet)
-            System.out.println("% " + str);
+            LogWriter.shared().console("% " + str);
         if (logOut != null)
             logOut.println(str);
     }
@@ -760,18 +815,17 @@ public class Server implements Runnable {
         }
     }
 
+    // The GUI replays the move on its own copy of the board, see BoardHistory
     private class RUpdated implements Runnable {
-        Board b;
         Move m;
 
-        public RUpdated(Board bb, Move mm) {
-            b = (Board) bb.clone();
+        public RUpdated(Move mm) {
             m = mm;
             EventQueue.invokeLater(this);
         }
 
         public void run() {
-            gui.boardUpdated(b, m);
+            gui.boardUpdated(m);
         }
     }
 
@@ -794,7 +848,8 @@ public class Server implements Runnable {
         private Socket sock;
         private BufferedReader sockIn;
         private PrintStream sockOut;
-        private boolean closed = false; // Shared var: synchronize on this object
+        private boolean closed = false; // Shared var: guarded by lock
+        private final ReentrantLock lock = new ReentrantLock();
         private boolean ready = false;
 
         private volatile String move;
@@ -839,20 +894,40 @@ public class Server implements Runnable {
             return sock.getInetAddress().getCanonicalHostName();
         }
 
-        public synchronized void setMove(String move) {
-            this.move = move;
+        public void setMove(String move) {
+            lock.lock();
+            try {
+                this.move = move;
+            } finally {
+                lock.unlock();
+            }
         }
 
-        public synchronized String getMove() {
-            return move;
+        public String getMove() {
+            lock.lock();
+            try {
+                return move;
+            } finally {
+                lock.unlock();
+            }
         }
 
-        public synchronized boolean moveIsSet() {
-            return move != null;
+        public boolean moveIsSet() {
+            lock.lock();
+            try {
+                return move != null;
+            } finally {
+                lock.unlock();
+            }
         }
 
-        public synchronized void clearMove() {
-            move = null;
+        public void clearMove() {
+            lock.lock();
+            try {
+                move = null;
+            } finally {
+                lock.unlock();
+            }
         }
 
         /** Set this player's ready flag and name */
@@ -871,9 +946,12 @@ public class Server implements Runnable {
                 while (true) {
                     // Check if the connection has been closed, and get out of
                     // here if that's the case
-                    synchronized (this) {
+                    lock.lock();
+                    try {
                         if (closed)
                             break;
+                    } finally {
+                        lock.unlock();
                     }
                     // Blocking read
                     inputLine = sockIn.readLine();
@@ -885,6 +963,7 @@ public class Server implements Runnable {
                         // Random move is set by the timeOut method of the Server.
                         inputLine = getMove();
                         System.out.println("Player " + colour + " timeout - Playing random move: " + inputLine);
+                        server.moveSubstituted(this);
                     } else if (inputLine == null) {
                         continue;
                     }
@@ -895,12 +974,18 @@ public class Server implements Runnable {
             } catch (IOException e) {
                 // Most likely because the socket was closed by a
                 // closeConnection() call
-                synchronized (this) {
-                    // But if not, we lost the connection
-                    if (!closed) {
-                        server.connectionError(this, e);
-                        closeConnection();
-                    }
+                boolean lost;
+                lock.lock();
+                try {
+                    lost = !closed;
+                } finally {
+                    lock.unlock();
+                }
+                // But if not, we lost the connection. The server's lock is taken
+                // without holding ours, as the server takes them in the other order.
+                if (lost) {
+                    server.connectionError(this, e);
+                    closeConnection();
                 }
             } finally {
                 closeConnection();
@@ -908,12 +993,17 @@ public class Server implements Runnable {
         }
 
         /** Send a string to this client. */
-        public synchronized void send(String msg) {
-            if (!closed) {
-                if (Server.DBGNET)
-                    System.out.println(server.board.getNameForID(getPlayerID()) + "< " + msg);
+        public void send(String msg) {
+            lock.lock();
+            try {
+                if (!closed) {
+                    if (Server.DBGNET)
+                        System.out.println(server.board.getNameForID(getPlayerID()) + "< " + msg);
 
-                sockOut.println(msg);
+                    sockOut.println(msg);
+                }
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -921,15 +1011,20 @@ public class Server implements Runnable {
          * Close the connection to the client and signal the thread for this connection
          * to exit.
          */
-        public synchronized void closeConnection() {
-            if (!closed) {
-                closed = true;
-                try {
-                    sock.close();
-                } catch (IOException e) {
-                    System.err.println("Failed to close client socket:");
-                    e.printStackTrace();
+        public void closeConnection() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        sock.close();
+                    } catch (IOException e) {
+                        System.err.println("Failed to close client socket:");
+                        e.printStackTrace();
+                    }
                 }
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -43,13 +43,15 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
 
     private Board board; // Most recently updated board
     private int currentBoard = -1; // Displayed board index
+    // The moves of the list, with a null for the start and the outcome
     private Vector moveHistory = new Vector();
-    private Vector boardHistory = new Vector();
+    // The boards of the game, rebuilt from its moves when displayed
+    private BoardHistory boardHistory = null;
     private String outcome = null; // The outcome message from the server
 
     // Menu actions
     private AbstractAction firstAction, backAction, fwdAction, lastAction;
-    private AbstractAction openAction, closeAction;
+    private AbstractAction openAction, browseAction, closeAction;
     private AbstractAction playAsAction;
     private AbstractAction killServerAction;
     private AbstractAction clientActions[];
@@ -73,20 +75,29 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
     private HumanPlayer theHumanPlayer = null;
 
     public static void printUsage() {
-        System.err.println("Usage: java ServerGUI [filename]\n" + "  Where 'filename' is the log file to load.");
+        System.err.println("Usage: java ServerGUI [filename | archiveDir gameID | -browse [logDir]]\n"
+                + "  Where 'filename' is the log file to load,\n"
+                + "        'archiveDir gameID' is a game of a log archive to load,\n"
+                + "        '-browse [logDir]' opens the log browser on logDir, by default " + Server.log_dir + ".");
     }
 
     public static void main(String[] args) {
         ServerGUI g = new ServerGUI();
-        if (args.length > 0)
+        boolean browse = args.length > 0 && args[0].equals("-browse");
+        if (args.length > 0 && !browse)
             try {
-                g.loadLogFile(args[0]);
+                if (args.length > 1)
+                    g.loadArchivedLog(new File(args[0]), Integer.parseInt(args[1]));
+                else
+                    g.loadLogFile(args[0]);
             } catch (Exception e) {
                 printUsage();
                 return;
             }
         g.pack();
         g.setVisible(true);
+        if (browse)
+            g.browseLogs(new File(args.length > 1 ? args[1] : Server.log_dir));
     }
 
     protected ServerGUI(Server svr) {
@@ -134,7 +145,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
 
         lastAction = new AbstractAction("Last move", new ImageIcon("image/last.png")) {
             public void actionPerformed(ActionEvent arg0) {
-                setCurrentBoard(boardHistory.size() - 1);
+                setCurrentBoard(moveHistory.size() - 1);
             }
         };
 
@@ -144,18 +155,30 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
                 chooser.setCurrentDirectory(new File(Server.log_dir));
                 chooser.setFileFilter(new FileFilter() {
                     public boolean accept(File arg0) {
-                        return arg0.isDirectory() || arg0.getName().endsWith(".log");
+                        return arg0.isDirectory() || arg0.getName().endsWith(".log")
+                                || arg0.getName().equals(LogArchive.INDEX_FILE);
                     }
 
                     public String getDescription() {
-                        return "Board game log files";
+                        return "Board game log files and archives";
                     }
                 });
                 int returnVal = chooser.showOpenDialog(theFrame);
                 if (returnVal == JFileChooser.APPROVE_OPTION) {
                     try {
-                        clearData();
-                        loadLogFile(chooser.getSelectedFile().getAbsolutePath());
+                        File file = chooser.getSelectedFile();
+                        if (file.getName().equals(LogArchive.INDEX_FILE)) {
+                            // An archive: ask which of its games to load
+                            String id = JOptionPane.showInputDialog(theFrame, "Game ID:", "Open archived game",
+                                    JOptionPane.QUESTION_MESSAGE);
+                            if (id == null)
+                                return;
+                            clearData();
+                            loadArchivedLog(file.getParentFile(), Integer.parseInt(id.trim()));
+                        } else {
+                            clearData();
+                            loadLogFile(file.getAbsolutePath());
+                        }
                         closeAction.setEnabled(true);
                         killServerAction.setEnabled(false);
                     } catch (Exception e) {
@@ -166,6 +189,18 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
             }
         };
 
+        browseAction = new AbstractAction("Browse logs...") {
+            public void actionPerformed(ActionEvent ev) {
+                JFileChooser chooser = new JFileChooser();
+                chooser.setCurrentDirectory(new File(Server.log_dir).getAbsoluteFile().getParentFile());
+                chooser.setSelectedFile(new File(Server.log_dir).getAbsoluteFile());
+                chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                chooser.setDialogTitle("Log directory");
+                if (chooser.showOpenDialog(theFrame) == JFileChooser.APPROVE_OPTION)
+                    browseLogs(chooser.getSelectedFile());
+            }
+        };
+
         closeAction = new AbstractAction("Close log") {
             public void actionPerformed(ActionEvent ev) {
                 clearData();
@@ -225,7 +260,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
         fromHereAction = new AbstractAction("Launch server from current position") {
             public void actionPerformed(ActionEvent arg0) {
                 try {
-                    Board bd = (Board) boardHistory.get(currentBoard);
+                    Board bd = boardAt(currentBoard);
                     int currentMove = currentBoard;
                     // The current move might be the special 'null' at the
                     // end of the list used to display the outcome
@@ -266,6 +301,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
         JMenuBar menuBar = new JMenuBar();
         JMenu fileMenu = new JMenu("File");
         fileMenu.add(openAction);
+        fileMenu.add(browseAction);
         fileMenu.add(closeAction);
         menuBar.add(fileMenu);
         JMenu histMenu = new JMenu("History");
@@ -318,7 +354,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
 
         // If a move was requested, but we're changing from the
         // last board, cancel the request
-        if (userMoveRequested && index != boardHistory.size() - 1) {
+        if (userMoveRequested && index != moveHistory.size() - 1) {
             boardPanel.cancelMoveRequest();
             userMoveRequested = false;
         }
@@ -329,33 +365,39 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
                 boardPanel.setCurrentBoard(null);
                 fromHereAction.setEnabled(false);
             } else {
-                Board b = (Board) boardHistory.get(index);
-                // Might be the last board, in which case there is no
-                // matching board in the list
-                if (b == null)
-                    b = (Board) boardHistory.get(boardHistory.size() - 1);
+                Board b = boardAt(index);
                 boardPanel.setCurrentBoard(b);
                 fromHereAction.setEnabled(
                         b != null && b.getWinner() == Board.NOBODY && b.getTurnNumber() >= 0 && server == null);
             }
             backAction.setEnabled(index > 0);
             firstAction.setEnabled(index > 0);
-            fwdAction.setEnabled(index < boardHistory.size() - 1);
-            lastAction.setEnabled(index < boardHistory.size() - 1);
+            fwdAction.setEnabled(index < moveHistory.size() - 1);
+            lastAction.setEnabled(index < moveHistory.size() - 1);
         }
 
         // If we need a move, and this is the last board, request it
-        if (userMoveNeeded && index == boardHistory.size() - 1 && !userMoveRequested) {
+        if (userMoveNeeded && index == moveHistory.size() - 1 && !userMoveRequested) {
             boardPanel.requestMove(this);
             userMoveRequested = true;
         }
     }
 
+    /**
+     * The board displayed for entry index of the move list, built from the
+     * history. The outcome entry shows the last board. Null if there is none.
+     */
+    private Board boardAt(int index) {
+        if (boardHistory == null || index < 0)
+            return null;
+        return boardHistory.get(Math.min(index, boardHistory.size() - 1));
+    }
+
     /** Clears all the move/board data */
     private void clearData() {
         // How many moves in the list
         int max = moveHistory.size() - 1;
-        this.boardHistory.clear();
+        this.boardHistory = null;
         this.moveHistory.clear();
         // Update the list view
         if (max >= 0)
@@ -371,8 +413,48 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
      * Load a log file and feed the moves to the GUI, as if the server were running.
      */
     private void loadLogFile(String file) throws Exception {
+        loadLog(new BufferedReader(new FileReader(file)));
+    }
+
+    /** Open the log browser on dir, loading the games chosen in it. */
+    private void browseLogs(File dir) {
+        LogBrowser browser = new LogBrowser(this, dir, new LogBrowser.Listener() {
+            public void openGame(File dir, int gameID) {
+                if (!openAction.isEnabled())
+                    return; // A game is being played
+                try {
+                    BufferedReader in = GameLog.openLog(dir, gameID);
+                    if (in == null)
+                        throw new IllegalArgumentException("No log of game " + gameID + " in " + dir);
+                    loadLog(in);
+                    closeAction.setEnabled(true);
+                    killServerAction.setEnabled(false);
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(theFrame, e, "Load Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+        browser.setVisible(true);
+    }
+
+    /**
+     * Load a game from a log archive, without extracting it to a file.
+     */
+    private void loadArchivedLog(File archiveDir, int gameID) throws Exception {
+        BufferedReader in;
+        try (LogArchive.Reader archive = new LogArchive.Reader(archiveDir)) {
+            in = archive.open(gameID);
+        }
+        if (in == null)
+            throw new IllegalArgumentException("Game " + gameID + " is not in the archive " + archiveDir);
+        loadLog(in);
+    }
+
+    /**
+     * Read a log and feed the moves to the GUI, as if the server were running.
+     */
+    private void loadLog(BufferedReader in) throws Exception {
         try {
-            BufferedReader in = new BufferedReader(new FileReader(file));
             this.clearData();
             // Find the board class line
             String line;
@@ -400,7 +482,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
                     name = name.substring(name.indexOf(' ') + 1).trim();
                     players[pcount++] = name;
                     if (pcount >= players.length)
-                        this.gameStarted((Board) b.clone(), gameID, players);
+                        this.gameStarted(b, gameID, players);
                 } else if (line.startsWith("GAMEOVER")) {
                     gameOver = true;
                 } else if (line.startsWith("WINNER") || line.startsWith("DRAW") || line.startsWith("UNDECIDED")) {
@@ -411,9 +493,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
                 } else {
                     if (pcount < players.length)
                         throw new IllegalArgumentException("Missing 'START' message(s).");
-                    Move m = b.parseMove(line);
-                    b.move(m);
-                    boardUpdated((Board) b.clone(), m);
+                    boardUpdated(board.parseMove(line));
                 }
             }
             in.close();
@@ -447,8 +527,10 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
             title.append(players[i] + (i < players.length - 1 ? " vs. " : ""));
 
         this.setTitle(title.toString());
-        this.board = b;
-        boardUpdated(b, null);
+        this.boardHistory = new BoardHistory(b);
+        this.board = boardHistory.getLast();
+        moveHistory.add(null);
+        moveListModel.addedMove();
         setCurrentBoard(0);
         enableLaunchActions(false);
         enableServerActions(false);
@@ -458,18 +540,22 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
         statusLabel.setText("Game in progress, " + board.getNameForID(board.getTurnPlayer()) + " to play.");
     }
 
-    /** Called by server on update */
-    void boardUpdated(Board b, Move m) {
+    /**
+     * Called by server on update, with a move it played on its board. The
+     * move is replayed on the last board of the history, or with a null move
+     * the outcome is added to the list.
+     */
+    void boardUpdated(Move m) {
+        if (m != null)
+            boardHistory.add(m);
         moveHistory.add(m);
         this.moveListModel.addedMove();
-        board = b;
-        boardHistory.add(b);
 
         // If displaying the last board, update to the current
-        if (currentBoard == boardHistory.size() - 2)
-            setCurrentBoard(boardHistory.size() - 1);
+        if (currentBoard == moveHistory.size() - 2)
+            setCurrentBoard(moveHistory.size() - 1);
 
-        if (board != null) // Might be calling from gameEnded...
+        if (m != null)
             statusLabel.setText("Game in progress, " + board.getNameForID(board.getTurnPlayer()) + " to play.");
     }
 
@@ -483,7 +569,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
         }
 
         this.outcome = str;
-        boardUpdated(board, null);
+        boardUpdated(null);
         server = null;
         openAction.setEnabled(true);
         closeAction.setEnabled(true);
@@ -508,9 +594,7 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
             serverActions[i].setEnabled(arg);
 
         if (currentBoard >= 0) {
-            Board b = (Board) boardHistory.get(currentBoard);
-            if (b == null)
-                b = (Board) boardHistory.get(boardHistory.size() - 1);
+            Board b = boardAt(currentBoard);
             fromHereAction
                     .setEnabled(b != null && b.getWinner() == Board.NOBODY && b.getTurnNumber() > 0 && server == null);
         }
@@ -521,8 +605,8 @@ public class ServerGUI extends JFrame implements BoardPanel.BoardPanelListener {
         // Indicate that we should get a move from the user
         this.userMoveNeeded = true;
         // Move to the last board
-        this.setCurrentBoard(boardHistory.size() - 1);
-        Board bb = (Board) boardHistory.get(currentBoard);
+        this.setCurrentBoard(moveHistory.size() - 1);
+        Board bb = boardHistory.getLast();
         statusLabel.setText("Waiting for user to play as " + bb.getNameForID(bb.getTurnPlayer()) + "...");
     }
 
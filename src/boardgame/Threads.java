@@ -0,0 +1,75 @@
+package boardgame;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads of the server and client.
+ *
+ * Started with -Dboardgame.virtualThreads=true on a JDK with virtual threads
+ * (21 or later), every thread created here is a virtual thread; otherwise, or
+ * on an older JDK, they are platform threads as before. The virtual thread
+ * API is looked up through reflection so that the code still builds for Java
+ * 8. See the virtual-server and virtual-student targets of build.xml.
+ *
+ * Code that runs on these threads must not block while holding a monitor,
+ * since that pins the carrier thread: use a java.util.concurrent lock instead
+ * of synchronized around socket or file IO.
+ */
+public class Threads {
+    public static final String VIRTUAL_PROPERTY = "boardgame.virtualThreads";
+
+    private static final ThreadFactory VIRTUAL = lookupVirtualFactory();
+
+    private Threads() {
+    }
+
+    private static ThreadFactory lookupVirtualFactory() {
+        if (!Boolean.getBoolean(VIRTUAL_PROPERTY))
+            return null;
+        try {
+            // Thread.ofVirtual().name("virtual-", 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Method name = ofVirtual.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "virtual-", 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            System.err.println("Virtual threads are not available on this JVM (" + System.getProperty("java.version")
+                    + "), using platform threads.");
+            return null;
+        }
+    }
+
+    /** Whether this process creates virtual threads. */
+    public static boolean isVirtual() {
+        return VIRTUAL != null;
+    }
+
+    /** Create, but don't start, a thread running r. */
+    public static Thread newThread(Runnable r, String name) {
+        Thread t = VIRTUAL != null ? VIRTUAL.newThread(r) : new Thread(r);
+        if (name != null)
+            t.setName(name);
+        return t;
+    }
+
+    /** Start a thread running r. */
+    public static Thread start(Runnable r, String name) {
+        Thread t = newThread(r, name);
+        t.start();
+        return t;
+    }
+
+    /** An executor running each task on a new virtual thread, or null in platform mode. */
+    public static Executor virtualExecutor() {
+        if (VIRTUAL == null)
+            return null;
+        return new Executor() {
+            public void execute(Runnable r) {
+                VIRTUAL.newThread(r).start();
+            }
+        };
+    }
+}
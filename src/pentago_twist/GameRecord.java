@@ -0,0 +1,221 @@
+package pentago_twist;
+
+import boardgame.Board;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * One finished Pentago-Twist game, as stored by GameRecordWriter: its ID,
+ * players, result and moves, without the comments of the text log.
+ *
+ * A move is stored as its code, ((x * 6 + y) * 4 + quadrant) * 2 + twist, one
+ * of NUM_MOVE_CODES = 288 values, so it takes 9 bits. The player of each move
+ * isn't stored, since the players alternate from PentagoBoardState's first
+ * player.
+ */
+public class GameRecord {
+    public static final int NUM_MOVE_CODES = PentagoBoardState.BOARD_SIZE * PentagoBoardState.BOARD_SIZE * 8;
+    public static final int MAX_MOVES = 2 * PentagoBoardState.MAX_TURNS;
+
+    private static final String BOARD_CLASS = PentagoBoard.class.getName();
+    private static final PentagoBoard NAMES = new PentagoBoard(); // Player names
+    private static final int FIRST_PLAYER = new PentagoBoardState().firstPlayer();
+    // How the result starts in a GAMEOVER message
+    private static final String[] RESULTS = { "WINNER ", "DRAW", "UNDECIDED", "CANCELLED " };
+
+    private final int gameID;
+    private final String[] players;
+    private final int winner;
+    private final String reason;
+    private final short[] moves;
+
+    /**
+     * @param players names of the players, in order of ID
+     * @param winner as Board.getWinner(), or Board.NOBODY if unfinished
+     * @param reason the reason in the GAMEOVER message, e.g. "TIMEOUT", or ""
+     * @param moves codes of the moves, see encode()
+     */
+    public GameRecord(int gameID, String[] players, int winner, String reason, short[] moves) {
+        if (players.length != 2)
+            throw new IllegalArgumentException("A game has two players.");
+        if (moves.length > MAX_MOVES)
+            throw new IllegalArgumentException("A game has at most " + MAX_MOVES + " moves.");
+        this.gameID = gameID;
+        this.players = players.clone();
+        this.winner = winner;
+        this.reason = reason;
+        this.moves = moves.clone();
+    }
+
+    public int getGameID() {
+        return gameID;
+    }
+
+    public String getPlayer(int id) {
+        return players[id];
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public int getNumberOfMoves() {
+        return moves.length;
+    }
+
+    /** Code of move i, see encode(). */
+    public int getMoveCode(int i) {
+        return moves[i];
+    }
+
+    /** Move i, with the ID of the player who played it. */
+    public PentagoMove getMove(int i) {
+        return decode(moves[i], playerOf(i));
+    }
+
+    /** ID of the player of move i. */
+    public static int playerOf(int i) {
+        return (FIRST_PLAYER + i) % 2;
+    }
+
+    public static int encode(PentagoMove m) {
+        PentagoCoord c = m.getMoveCoord();
+        return ((c.getX() * PentagoBoardState.BOARD_SIZE + c.getY()) * 4 + m.getASwap()) * 2 + m.getBSwap();
+    }
+
+    public static PentagoMove decode(int code, int playerID) {
+        if (code < 0 || code >= NUM_MOVE_CODES)
+            throw new IllegalArgumentException("Not a move code: " + code);
+        int cell = code >> 3;
+        return new PentagoMove(cell / PentagoBoardState.BOARD_SIZE, cell % PentagoBoardState.BOARD_SIZE,
+                (code >> 1) & 3, code & 1, playerID);
+    }
+
+    /** The final position, replaying the moves from the start. */
+    public PentagoBoardState replay() {
+        PentagoBoardState pbs = new PentagoBoardState();
+        for (int i = 0; i < moves.length; i++)
+            pbs.processMove(getMove(i));
+        return pbs;
+    }
+
+    /** The GAMEOVER message of the game, as GameLog would log it. */
+    public String gameOverMessage() {
+        String msg = "GAMEOVER ";
+        if (!reason.isEmpty())
+            msg += reason + " ";
+        switch (winner) {
+            case Board.DRAW:
+                return msg + "DRAW";
+            case Board.NOBODY:
+                return msg + "UNDECIDED";
+            case Board.CANCELLED0:
+                return msg + "CANCELLED 0";
+            case Board.CANCELLED1:
+                return msg + "CANCELLED 1";
+            default:
+                return msg + "WINNER " + winner;
+        }
+    }
+
+    /**
+     * Write the game as a text log, which ServerGUI can load. The header only
+     * has the lines that the record keeps.
+     */
+    public void writeLog(PrintStream out) {
+        out.println("# Game ID: " + gameID);
+        out.println("# Board class: " + BOARD_CLASS);
+        for (int i = 0; i < players.length; i++)
+            out.println("START " + NAMES.getNameForID(i) + " " + players[i]);
+        for (int i = 0; i < moves.length; i++)
+            out.println(getMove(i).toTransportable());
+        out.println(gameOverMessage());
+    }
+
+    /**
+     * Parse the text log of a game.
+     *
+     * @throws IllegalArgumentException if it isn't a complete Pentago-Twist log
+     */
+    public static GameRecord readLog(BufferedReader in) throws IOException {
+        int gameID = -1;
+        String[] players = new String[2];
+        short[] moves = new short[MAX_MOVES];
+        int n = 0;
+        String gameOver = null;
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("#")) {
+                if (line.startsWith("# Game ID:"))
+                    gameID = Integer.parseInt(line.substring(10).trim());
+                else if (line.startsWith("# Board class:") && !line.substring(14).trim().equals(BOARD_CLASS))
+                    throw new IllegalArgumentException("Not a Pentago-Twist log: " + line);
+            } else if (line.startsWith("START")) {
+                // START <colour> <name>
+                String[] parts = line.split(" ", 3);
+                int id = -1;
+                try {
+                    id = NAMES.getIDForName(parts[1]);
+                } catch (RuntimeException e) {
+                }
+                if (id < 0 || id > 1 || parts.length < 3)
+                    throw new IllegalArgumentException("Bad START line: " + line);
+                players[id] = parts[2];
+            } else if (line.startsWith("GAMEOVER")) {
+                gameOver = line;
+            } else if (gameOver == null) {
+                if (n == MAX_MOVES)
+                    throw new IllegalArgumentException("Too many moves.");
+                PentagoMove m = new PentagoMove(line);
+                if (m.getPlayerID() != playerOf(n))
+                    throw new IllegalArgumentException("Move " + (n + 1) + " is not by player " + playerOf(n));
+                moves[n++] = (short) encode(m);
+            }
+        }
+        if (gameID < 0 || players[0] == null || players[1] == null || gameOver == null)
+            throw new IllegalArgumentException("Incomplete log.");
+
+        short[] played = new short[n];
+        System.arraycopy(moves, 0, played, 0, n);
+        return new GameRecord(gameID, players, parseWinner(gameOver), parseReason(gameOver), played);
+    }
+
+    /** Where the result starts in a GAMEOVER message. */
+    private static int resultStart(String msg) {
+        int best = -1;
+        for (int i = 0; i < RESULTS.length; i++) {
+            int k = msg.lastIndexOf(RESULTS[i]);
+            if (k > best)
+                best = k;
+        }
+        if (best < 0)
+            throw new IllegalArgumentException("No result in: " + msg);
+        return best;
+    }
+
+    static int parseWinner(String msg) {
+        String result = msg.substring(resultStart(msg));
+        if (result.startsWith("WINNER "))
+            return Integer.parseInt(result.substring(7).trim());
+        if (result.startsWith("DRAW"))
+            return Board.DRAW;
+        if (result.startsWith("UNDECIDED"))
+            return Board.NOBODY;
+        return result.endsWith("0") ? Board.CANCELLED0 : Board.CANCELLED1;
+    }
+
+    static String parseReason(String msg) {
+        int start = "GAMEOVER".length();
+        int end = resultStart(msg);
+        return end > start ? msg.substring(start, end).trim() : "";
+    }
+}
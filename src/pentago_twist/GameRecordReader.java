@@ -0,0 +1,103 @@
+package pentago_twist;
+
+import boardgame.Board;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the GameRecords of a file written by GameRecordWriter, in order.
+ */
+public class GameRecordReader implements Closeable {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<String>();
+    private final byte[] packed = new byte[(GameRecord.MAX_MOVES * 9 + 7) / 8 + 1];
+
+    public GameRecordReader(InputStream is) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(is, 1 << 16));
+        if (in.readInt() != GameRecordWriter.MAGIC)
+            throw new IOException("Not a game record file.");
+        int version = in.readInt();
+        if (version != GameRecordWriter.VERSION)
+            throw new IOException("Unsupported game record version " + version + ".");
+    }
+
+    /** The next record, or null at the end of the file. */
+    public GameRecord next() throws IOException {
+        int first = in.read();
+        if (first < 0)
+            return null;
+        try {
+            int gameID = readVarint(first);
+            String[] players = { readString(), readString() };
+            String reason = readString();
+            int winner = winnerOf(in.readUnsignedByte());
+
+            int n = in.readUnsignedByte();
+            if (n > GameRecord.MAX_MOVES)
+                throw new IOException("Corrupt game record " + gameID + ": " + n + " moves.");
+            in.readFully(packed, 0, (n * 9 + 7) / 8);
+            packed[(n * 9 + 7) / 8] = 0;
+            short[] moves = new short[n];
+            for (int i = 0, bit = 0; i < n; i++, bit += 9) {
+                int k = bit >> 3, shift = bit & 7;
+                int v = ((packed[k] & 0xff) << 8) | (packed[k + 1] & 0xff);
+                moves[i] = (short) ((v >> (7 - shift)) & 0x1ff);
+            }
+            return new GameRecord(gameID, players, winner, reason, moves);
+        } catch (EOFException e) {
+            throw new IOException("Truncated game record file.");
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    static int winnerOf(int result) throws IOException {
+        switch (result) {
+            case 0:
+            case 1:
+                return result;
+            case GameRecordWriter.RESULT_DRAW:
+                return Board.DRAW;
+            case GameRecordWriter.RESULT_UNDECIDED:
+                return Board.NOBODY;
+            case GameRecordWriter.RESULT_CANCELLED0:
+                return Board.CANCELLED0;
+            case GameRecordWriter.RESULT_CANCELLED1:
+                return Board.CANCELLED1;
+            default:
+                throw new IOException("Corrupt game record: result " + result + ".");
+        }
+    }
+
+    private String readString() throws IOException {
+        int ref = readVarint(in.readUnsignedByte());
+        if (ref == 0) {
+            String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+        if (ref > strings.size())
+            throw new IOException("Corrupt game record: string " + ref + ".");
+        return strings.get(ref - 1);
+    }
+
+    private int readVarint(int b) throws IOException {
+        int v = b & 0x7f;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 28)
+                throw new IOException("Corrupt game record: varint too long.");
+            b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+        }
+        return v;
+    }
+}
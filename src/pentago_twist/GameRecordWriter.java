@@ -0,0 +1,118 @@
+package pentago_twist;
+
+import boardgame.Board;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes GameRecords in the compact binary format, one file holding any
+ * number of games. A full game takes about 50 bytes, against about 1 KB for
+ * its text log.
+ *
+ * File: MAGIC, VERSION (ints), then records of
+ * <pre>
+ *   game ID            varint
+ *   player 0, player 1 string reference
+ *   reason             string reference
+ *   result             byte, see RESULT_*
+ *   number of moves    byte
+ *   moves              9 bits each, most significant bit first, padded to a byte
+ * </pre>
+ * A string reference is a varint: 0 followed by the string in modified UTF-8
+ * the first time the string is used in the file, and its index + 1 in order
+ * of first use afterwards. A varint is 7 bits per byte, least significant
+ * first, with the top bit set on all but the last byte.
+ */
+public class GameRecordWriter implements Closeable {
+    public static final int MAGIC = 0x50475231; // "PGR1"
+    public static final int VERSION = 1;
+    public static final String SUFFIX = ".pgr";
+
+    // Result byte: the winner's ID, or one of these
+    static final int RESULT_DRAW = 2;
+    static final int RESULT_UNDECIDED = 3;
+    static final int RESULT_CANCELLED0 = 4;
+    static final int RESULT_CANCELLED1 = 5;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final byte[] packed = new byte[(GameRecord.MAX_MOVES * 9 + 7) / 8];
+
+    public GameRecordWriter(OutputStream os) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public void write(GameRecord r) throws IOException {
+        writeVarint(r.getGameID());
+        writeString(r.getPlayer(0));
+        writeString(r.getPlayer(1));
+        writeString(r.getReason());
+        out.writeByte(resultOf(r.getWinner()));
+
+        int n = r.getNumberOfMoves();
+        out.writeByte(n);
+        int bytes = (n * 9 + 7) / 8;
+        Arrays.fill(packed, 0, bytes, (byte) 0);
+        for (int i = 0, bit = 0; i < n; i++, bit += 9) {
+            // A code straddles two bytes
+            int code = r.getMoveCode(i);
+            int k = bit >> 3, shift = bit & 7;
+            int v = code << (7 - shift); // The 9 bits, aligned in 16
+            packed[k] |= (byte) (v >> 8);
+            packed[k + 1] |= (byte) v;
+        }
+        out.write(packed, 0, bytes);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    static int resultOf(int winner) {
+        switch (winner) {
+            case 0:
+            case 1:
+                return winner;
+            case Board.DRAW:
+                return RESULT_DRAW;
+            case Board.CANCELLED0:
+                return RESULT_CANCELLED0;
+            case Board.CANCELLED1:
+                return RESULT_CANCELLED1;
+            default:
+                return RESULT_UNDECIDED;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeVarint(index + 1);
+        } else {
+            strings.put(s, strings.size());
+            writeVarint(0);
+            out.writeUTF(s);
+        }
+    }
+
+    private void writeVarint(int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+}
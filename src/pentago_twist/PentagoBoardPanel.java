@@ -12,8 +12,8 @@ import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
 import boardgame.BoardPanel;
-import java.util.ArrayList;
 
 /**
  * @author mgrenander
@@ -31,41 +31,18 @@ public class PentagoBoardPanel extends BoardPanel implements MouseListener, Mous
     private static final int PIECE_SIZE = 75;
     private static final int SQUARE_SIZE = (int) (PIECE_SIZE * 1.25); // Squares 25% bigger than pieces.
 
-    final class GUIPiece {
-        private Piece pieceType;
-        int xPos;
-        int yPos;
-        PentagoCoord coord;
-
-        // Construct a piece!
-        GUIPiece(Piece pieceType, int xPos, int yPos, PentagoCoord coord) {
-            this.pieceType = pieceType;
-            this.xPos = xPos;
-            this.yPos = yPos;
-            this.coord = coord;
-        }
-
-        void draw(Graphics g) {
-            draw(g, xPos, yPos);
-        }
+    private static final int BOARD_PIXELS = BOARD_DIM * SQUARE_SIZE;
+    private static final int QUAD_DIM = BOARD_DIM / 2;
+    private static final int QUAD_PIXELS = BOARD_PIXELS / 2;
+    private static final int LINE_WIDTH = 3;
+    private static final int SPRITE_SIZE = PIECE_SIZE + 3; // Room for the antialiased border
 
-        void draw(Graphics g, int cx, int cy) {
-            int x = cx - PIECE_SIZE / 2;
-            int y = cy - PIECE_SIZE / 2;
+    // The empty board with its grid, and the pieces, rendered once as the sizes are fixed
+    private static BufferedImage boardImage, whiteSprite, blackSprite;
 
-            g.setColor(pieceType == Piece.BLACK ? BLACK_COL : WHITE_COL);
-
-            // Paint piece.
-            g.fillOval(x, y, PIECE_SIZE, PIECE_SIZE);
-            if (pieceType != Piece.BLACK) {// draw a border around whites
-                g.setColor(Color.BLACK);
-                g.drawOval(x, y, PIECE_SIZE, PIECE_SIZE);
-            }
-        }
-    }
-
-    // Stores all board pieces.
-    private ArrayList<GUIPiece> boardPieces;
+    // The pieces and highlighted quadrant the buffer shows; null to draw it all
+    private Piece[][] drawn = null;
+    private int drawnHighlight = -1;
     private BoardPanelListener listener;
     private boolean isPieceSelected;
     private PentagoCoord pieceSelection;
@@ -94,12 +71,72 @@ public class PentagoBoardPanel extends BoardPanel implements MouseListener, Mous
         listener = null;
     }
 
-    // Drawing a board.
+    @Override
+    protected void bufferReset() {
+        drawn = null;
+    }
+
+    // Drawing a board: only the quadrants that changed since the last time, e.g. the one twisted.
     @Override
     public void drawBoard(Graphics g) {
-        super.drawBoard(g); // Paints background and other
-        Graphics2D g2 = (Graphics2D)g;
+        if (boardImage == null)
+            renderImages();
+        Piece[][] board = ((PentagoBoardState) getCurrentBoard().getBoardState()).getBoard();
+        int highlight = isQuadSelected ? quadSelection : -1;
+        if (drawn == null) {
+            super.drawBoard(g); // Paints background and other
+            drawn = new Piece[BOARD_DIM][BOARD_DIM];
+            for (int q = 0; q < 4; q++)
+                drawQuadrant(g, q, board, q == highlight);
+        } else {
+            for (int q = 0; q < 4; q++)
+                if ((q == highlight) != (q == drawnHighlight) || quadrantChanged(q, board))
+                    drawQuadrant(g, q, board, q == highlight);
+        }
+        drawnHighlight = highlight;
+    }
+
+    private boolean quadrantChanged(int q, Piece[][] board) {
+        int row = (q / 2) * QUAD_DIM, col = (q % 2) * QUAD_DIM;
+        for (int i = row; i < row + QUAD_DIM; i++)
+            for (int j = col; j < col + QUAD_DIM; j++)
+                if (board[i][j] != drawn[i][j])
+                    return true;
+        return false;
+    }
+
+    private void drawQuadrant(Graphics g, int q, Piece[][] board, boolean highlighted) {
+        int x = (q % 2) * QUAD_PIXELS, y = (q / 2) * QUAD_PIXELS;
+        // The right and bottom quadrants include the outer half of the border
+        int w = QUAD_PIXELS + (q % 2) * LINE_WIDTH, h = QUAD_PIXELS + (q / 2) * LINE_WIDTH;
+        g.drawImage(boardImage, x, y, x + w, y + h, x, y, x + w, y + h, null);
+
+        int row = (q / 2) * QUAD_DIM, col = (q % 2) * QUAD_DIM;
+        for (int i = row; i < row + QUAD_DIM; i++) {
+            for (int j = col; j < col + QUAD_DIM; j++) {
+                Piece p = board[i][j];
+                if (p != Piece.EMPTY) {
+                    int px = j * SQUARE_SIZE + SQUARE_SIZE / 2 - PIECE_SIZE / 2 - 1;
+                    int py = i * SQUARE_SIZE + SQUARE_SIZE / 2 - PIECE_SIZE / 2 - 1;
+                    g.drawImage(p == Piece.BLACK ? blackSprite : whiteSprite, px, py, null);
+                }
+                drawn[i][j] = p;
+            }
+        }
+
+        if (highlighted) {
+            g.setColor(HIGHLIGHT_COLOR);
+            g.fillRect(x, y, QUAD_PIXELS, QUAD_PIXELS);
+        }
+    }
+
+    private static void renderImages() {
+        int size = BOARD_PIXELS + LINE_WIDTH;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = img.createGraphics();
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); //Makes pretty
+        g2.setColor(BACKGROUND_COLOR);
+        g2.fillRect(0, 0, size, size);
 
         //Paint board
         for (int i = 0; i < PentagoBoardState.BOARD_SIZE; i++) {
@@ -109,45 +146,39 @@ public class PentagoBoardPanel extends BoardPanel implements MouseListener, Mous
                 g2.fillRect(i*SQUARE_SIZE, j*SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE);
             }
         }
-        g2.setStroke(new BasicStroke(3));
+        g2.setStroke(new BasicStroke(LINE_WIDTH));
         g2.setColor(LINE_COLOR);
 
-        int endPos = BOARD_DIM * SQUARE_SIZE;
+        int endPos = BOARD_PIXELS;
         g2.drawLine(0, 0, endPos, 0);
         g2.drawLine(0,0, 0, endPos);
         g2.drawLine(0, endPos, endPos, endPos);
         g2.drawLine(endPos, 0, endPos, endPos);
 
-        int midPos = endPos / 2;
+        int midPos = QUAD_PIXELS;
         g2.drawLine(0, midPos, endPos, midPos);
         g2.drawLine(midPos, 0, midPos, endPos);
-        g2.setStroke(new BasicStroke(1));
+        g2.dispose();
 
-        boardPieces = new ArrayList<>();
-        updateBoardPieces();
-        for (GUIPiece gp : boardPieces) {
-            gp.draw(g2);
-        }
+        boardImage = img;
+        whiteSprite = renderPiece(Piece.WHITE);
+        blackSprite = renderPiece(Piece.BLACK);
+    }
 
-        if (isQuadSelected) {
-            g2.setColor(HIGHLIGHT_COLOR);
-            switch (quadSelection){
-                case 0:
-                    g2.fillRect(0, 0, midPos, midPos);
-                    break;
-                case 1:
-                    g2.fillRect(midPos, 0, midPos, midPos);
-                    break;
-                case 2:
-                    g2.fillRect(0, midPos, midPos, midPos);
-                    break;
-                case 3:
-                    g2.fillRect(midPos, midPos, midPos, midPos);
-                    break;
-                default:
-                    throw new IllegalStateException("Unknown error when repainting quad selection");
-            }
+    private static BufferedImage renderPiece(Piece pieceType) {
+        BufferedImage img = new BufferedImage(SPRITE_SIZE, SPRITE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = img.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setColor(pieceType == Piece.BLACK ? BLACK_COL : WHITE_COL);
+
+        // Paint piece.
+        g2.fillOval(1, 1, PIECE_SIZE, PIECE_SIZE);
+        if (pieceType != Piece.BLACK) {// draw a border around whites
+            g2.setColor(Color.BLACK);
+            g2.drawOval(1, 1, PIECE_SIZE, PIECE_SIZE);
         }
+        g2.dispose();
+        return img;
     }
 
     @Override
@@ -185,12 +216,7 @@ public class PentagoBoardPanel extends BoardPanel implements MouseListener, Mous
         int clickX = e.getX();
         int clickY = e.getY();
 
-        // Check if we clicked on an occupied square. If so this is not a real move
-        for (GUIPiece gp : boardPieces) {
-            if (clickInSquare(clickX, clickY, gp.xPos, gp.yPos)) {
-                return;
-            }
-        }
+        // Only empty squares are looked at, so a click on an occupied one is not a move
         PentagoBoardState pbs = (PentagoBoardState) getCurrentBoard().getBoardState();
         PentagoCoord dest = null;
         outer:for (int i = 0; i < PentagoBoardState.BOARD_SIZE; i++) {
@@ -252,22 +278,6 @@ public class PentagoBoardPanel extends BoardPanel implements MouseListener, Mous
         return null; // Was not a valid quad selection
     }
 
-    private void updateBoardPieces() {
-        PentagoBoardState pbs = (PentagoBoardState) getCurrentBoard().getBoardState();
-        boardPieces = new ArrayList<>();
-        for (int i = 0; i < PentagoBoardState.BOARD_SIZE; i++) {
-            for (int j = 0; j < PentagoBoardState.BOARD_SIZE; j++) {
-                Piece p = pbs.getPieceAt(i, j);
-                if (p != Piece.EMPTY) {
-                    int xPos = j * SQUARE_SIZE + SQUARE_SIZE / 2;
-                    int yPos = i * SQUARE_SIZE + SQUARE_SIZE / 2;
-                    GUIPiece gp = new GUIPiece(p, xPos, yPos, new PentagoCoord(i, j));
-                    boardPieces.add(gp);
-                }
-            }
-        }
-    }
-
     // Helpers.
     @Override
     public Color getBackground() {
@@ -261,7 +261,7 @@ public class PentagoBoardState extends BoardState {
         }
     }
 
-    private void updateWinner() {
+    void updateWinner() { // Package-private for the benchmarks
         boolean playerWin = checkVerticalWin(turnPlayer) || checkHorizontalWin(turnPlayer) || checkDiagRightWin(turnPlayer) || checkDiagLeftWin(turnPlayer);
         int otherPlayer = 1 - turnPlayer;
         boolean otherWin = checkVerticalWin(otherPlayer) || checkHorizontalWin(otherPlayer) || checkDiagRightWin(otherPlayer) || checkDiagLeftWin(otherPlayer);
@@ -27,17 +27,43 @@ public class PentagoMove extends Move {
     }
 
     public PentagoMove(String formatString) {
-        String[] components = formatString.split(" ");
-        try {
-            this.xMove = Integer.parseInt(components[0]);
-            this.yMove = Integer.parseInt(components[1]);
-            this.aSwap = Integer.parseInt(components[2]);
-            this.bSwap = Integer.parseInt(components[3]);
-            this.playerId = Integer.parseInt(components[4]);
-            this.fromBoard = false;
-        } catch(NumberFormatException e) {
-            throw new IllegalArgumentException("Received an uninterpretable string format for a TablutMove.");
+        // "x y aSwap bSwap playerId": parsed in place, since every move of
+        // every game goes through here
+        int[] fields = new int[5];
+        int pos = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                if (pos >= formatString.length() || formatString.charAt(pos) != ' ')
+                    throw uninterpretable();
+                pos++;
+            }
+            boolean negative = pos < formatString.length() && formatString.charAt(pos) == '-';
+            if (negative)
+                pos++;
+            int start = pos, value = 0;
+            while (pos < formatString.length() && pos - start < 9) {
+                int digit = formatString.charAt(pos) - '0';
+                if (digit < 0 || digit > 9)
+                    break;
+                value = value * 10 + digit;
+                pos++;
+            }
+            if (pos == start)
+                throw uninterpretable();
+            fields[i] = negative ? -value : value;
         }
+        if (pos < formatString.length() && formatString.charAt(pos) != ' ')
+            throw uninterpretable();
+        this.xMove = fields[0];
+        this.yMove = fields[1];
+        this.aSwap = fields[2];
+        this.bSwap = fields[3];
+        this.playerId = fields[4];
+        this.fromBoard = false;
+    }
+
+    private static IllegalArgumentException uninterpretable() {
+        return new IllegalArgumentException("Received an uninterpretable string format for a TablutMove.");
     }
 
     // Getters
@@ -87,6 +113,6 @@ public class PentagoMove extends Move {
 
     @Override
     public String toTransportable() {
-        return String.format("%d %d %d %d %d", xMove, yMove, aSwap, bSwap, playerId);
+        return xMove + " " + yMove + " " + aSwap + " " + bSwap + " " + playerId;
     }
 }
@@ -0,0 +1,313 @@
+package pentago_twist;
+
+import boardgame.Board;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the positions reached by every sequence of depth legal moves from a
+ * position, like chess engines' perft. The counts only depend on the rules,
+ * so they must not change when PentagoBoardState is optimised: they are a
+ * regression check as much as a benchmark of move generation and
+ * processMove.
+ *
+ * Usage: java pentago_twist.Perft [-moves "x y a b p,..." | -log file [-ply k]] [-dedupe] [-divide] [-p threads] depth
+ *
+ * Finished games are leaves: a sequence ends early when a move ends the game,
+ * and only counts if it ends at depth. Besides the leaves, each depth reports
+ * how many of them are finished games. With -dedupe, positions reached
+ * by different sequences are counted once, and expanded once. With -p, the
+ * work is split on a fork/join pool: root moves for the plain count, and each
+ * depth's positions for -dedupe. The speed reported is in nodes, moves made
+ * with processMove, per second.
+ */
+public class Perft {
+
+    /** Leaves at one depth, how many are finished games, and the moves made to get there. */
+    public static final class Count {
+        public long leaves;
+        public long finished;
+        public long nodes;
+
+        void add(Count c) {
+            nodes += c.nodes;
+            leaves += c.leaves;
+            finished += c.finished;
+        }
+
+        public String toString() {
+            return leaves + " (" + finished + " finished)";
+        }
+    }
+
+    /** Leaves of the move tree of pbs at exactly depth moves. */
+    public static Count perft(PentagoBoardState pbs, int depth) {
+        Count c = new Count();
+        perft(pbs, depth, c);
+        return c;
+    }
+
+    private static void perft(PentagoBoardState pbs, int depth, Count c) {
+        ArrayList<PentagoMove> moves = pbs.getAllLegalMoves();
+        for (PentagoMove m : moves) {
+            PentagoBoardState child = (PentagoBoardState) pbs.clone();
+            child.processMove(m);
+            c.nodes++;
+            if (depth == 1) {
+                c.leaves++;
+                if (child.getWinner() != Board.NOBODY)
+                    c.finished++;
+            } else if (child.getWinner() == Board.NOBODY) {
+                perft(child, depth - 1, c);
+            }
+        }
+    }
+
+    /** perft(), with a fork/join task per root move. */
+    public static Count perft(final PentagoBoardState pbs, final int depth, ForkJoinPool pool) {
+        if (depth <= 1)
+            return perft(pbs, depth);
+        return pool.invoke(new RecursiveTask<Count>() {
+            protected Count compute() {
+                List<RecursiveTask<Count>> tasks = new ArrayList<RecursiveTask<Count>>();
+                for (PentagoMove m : pbs.getAllLegalMoves()) {
+                    final PentagoBoardState child = (PentagoBoardState) pbs.clone();
+                    child.processMove(m);
+                    if (child.getWinner() != Board.NOBODY)
+                        continue;
+                    tasks.add(new RecursiveTask<Count>() {
+                        protected Count compute() {
+                            return perft(child, depth - 1);
+                        }
+                    });
+                }
+                invokeAll(tasks);
+                Count c = new Count();
+                c.nodes = pbs.getAllLegalMoves().size();
+                for (RecursiveTask<Count> t : tasks)
+                    c.add(t.join());
+                return c;
+            }
+        });
+    }
+
+    /** The leaves of each root move, in the order of getAllLegalMoves(). */
+    public static Map<PentagoMove, Count> divide(PentagoBoardState pbs, int depth) {
+        Map<PentagoMove, Count> counts = new LinkedHashMap<PentagoMove, Count>();
+        for (PentagoMove m : pbs.getAllLegalMoves()) {
+            PentagoBoardState child = (PentagoBoardState) pbs.clone();
+            child.processMove(m);
+            Count c = new Count();
+            if (depth == 1) {
+                c.leaves = 1;
+                c.finished = child.getWinner() != Board.NOBODY ? 1 : 0;
+            } else if (child.getWinner() == Board.NOBODY) {
+                c = perft(child, depth - 1);
+            }
+            c.nodes++;
+            counts.put(m, c);
+        }
+        return counts;
+    }
+
+    /**
+     * The distinct positions at each depth from 1 to depth, expanding each
+     * distinct unfinished position once. A whole depth is held in memory, so
+     * this only goes a few moves deeper than the plain count in the same time.
+     *
+     * @param pool splits each depth into fork/join tasks if not null
+     */
+    public static Count[] perftDedupe(PentagoBoardState pbs, int depth, ForkJoinPool pool) {
+        Count[] counts = new Count[depth];
+        List<PentagoBoardState> frontier = new ArrayList<PentagoBoardState>();
+        frontier.add(pbs);
+        for (int d = 0; d < depth; d++) {
+            Map<Long, PentagoBoardState> next;
+            counts[d] = new Count();
+            if (pool == null) {
+                next = new HashMap<Long, PentagoBoardState>();
+                counts[d].nodes = expand(frontier, 0, frontier.size(), next);
+            } else {
+                next = new ConcurrentHashMap<Long, PentagoBoardState>();
+                counts[d].nodes = pool.invoke(new Expand(frontier, 0, frontier.size(), next));
+            }
+
+            frontier = new ArrayList<PentagoBoardState>(next.size());
+            for (PentagoBoardState s : next.values()) {
+                counts[d].leaves++;
+                if (s.getWinner() != Board.NOBODY)
+                    counts[d].finished++;
+                else
+                    frontier.add(s);
+            }
+        }
+        return counts;
+    }
+
+    private static long expand(List<PentagoBoardState> frontier, int from, int to, Map<Long, PentagoBoardState> next) {
+        long nodes = 0;
+        for (int i = from; i < to; i++) {
+            PentagoBoardState pbs = frontier.get(i);
+            for (PentagoMove m : pbs.getAllLegalMoves()) {
+                PentagoBoardState child = (PentagoBoardState) pbs.clone();
+                child.processMove(m);
+                next.putIfAbsent(key(child), child);
+                nodes++;
+            }
+        }
+        return nodes;
+    }
+
+    private static final class Expand extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private static final int CHUNK = 64;
+        private final List<PentagoBoardState> frontier;
+        private final int from, to;
+        private final Map<Long, PentagoBoardState> next;
+
+        Expand(List<PentagoBoardState> frontier, int from, int to, Map<Long, PentagoBoardState> next) {
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.next = next;
+        }
+
+        protected Long compute() {
+            if (to - from <= CHUNK)
+                return expand(frontier, from, to, next);
+            int mid = (from + to) >>> 1;
+            Expand left = new Expand(frontier, from, mid, next);
+            left.fork();
+            long right = new Expand(frontier, mid, to, next).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * The board as a base 3 number, 3^36 < 2^63. It identifies the position:
+     * whose turn it is follows from the number of pieces, and the winner from
+     * the board.
+     */
+    static long key(PentagoBoardState pbs) {
+        long key = 0;
+        for (int x = 0; x < PentagoBoardState.BOARD_SIZE; x++)
+            for (int y = 0; y < PentagoBoardState.BOARD_SIZE; y++)
+                key = key * 3 + pbs.getPieceAt(x, y).ordinal();
+        return key;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java pentago_twist.Perft [-moves \"x y a b p,...\" | -log file [-ply k]] [-dedupe] [-divide] [-p threads] depth\n"
+                + "  Where '-moves' plays these moves from the empty board first.\n"
+                + "        '-log file' plays the moves of a game log first, or its first k with '-ply k'.\n"
+                + "        '-dedupe' counts each distinct position once.\n"
+                + "        '-divide' prints the count of each root move.\n"
+                + "        '-p threads' runs on a fork/join pool, with as many threads as cores if 0.");
+    }
+
+    public static void main(String[] args) {
+        String moves = null, log = null;
+        int ply = GameRecord.MAX_MOVES, threads = -1, depth = -1;
+        boolean dedupe = false, divide = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-moves")) {
+                    moves = args[++i];
+                } else if (args[i].equals("-log")) {
+                    log = args[++i];
+                } else if (args[i].equals("-ply")) {
+                    ply = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-dedupe")) {
+                    dedupe = true;
+                } else if (args[i].equals("-divide")) {
+                    divide = true;
+                } else if (args[i].equals("-p")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (i == args.length - 1) {
+                    depth = Integer.parseInt(args[i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (depth < 1)
+                throw new IllegalArgumentException("The depth must be at least 1.");
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+
+        PentagoBoardState pbs = new PentagoBoardState();
+        try {
+            if (log != null) {
+                try (BufferedReader in = new BufferedReader(new FileReader(log))) {
+                    GameRecord r = GameRecord.readLog(in);
+                    for (int i = 0; i < Math.min(ply, r.getNumberOfMoves()); i++)
+                        pbs.processMove(r.getMove(i));
+                }
+            } else if (moves != null) {
+                for (String m : moves.split(","))
+                    pbs.processMove(new PentagoMove(m.trim()));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Can't set up the position: " + e.getMessage());
+            System.exit(1);
+        }
+        if (pbs.getWinner() != Board.NOBODY) {
+            System.err.println("The game is over in that position.");
+            System.exit(1);
+        }
+        System.out.print(pbs);
+        System.out.println("Turn " + pbs.getTurnNumber() + ", player " + pbs.getTurnPlayer() + " to move");
+
+        ForkJoinPool pool = threads < 0 ? null : threads == 0 ? new ForkJoinPool() : new ForkJoinPool(threads);
+        if (pool != null)
+            System.out.println("Fork/join pool of " + pool.getParallelism() + " threads");
+
+        if (divide) {
+            long start = System.nanoTime();
+            Count total = new Count();
+            for (Map.Entry<PentagoMove, Count> e : divide(pbs, depth).entrySet()) {
+                System.out.println(e.getKey().toTransportable() + ": " + e.getValue());
+                total.add(e.getValue());
+            }
+            report(depth, total, System.nanoTime() - start);
+        } else if (dedupe) {
+            long start = System.nanoTime();
+            Count[] counts = perftDedupe(pbs, depth, pool);
+            Count total = new Count();
+            for (int d = 0; d < depth; d++) {
+                System.out.println("depth " + (d + 1) + ": " + counts[d] + " distinct");
+                total.nodes += counts[d].nodes;
+            }
+            total.leaves = counts[depth - 1].leaves;
+            total.finished = counts[depth - 1].finished;
+            report(depth, total, System.nanoTime() - start);
+        } else {
+            // Every depth up to the one asked for, like a perft suite
+            for (int d = 1; d <= depth; d++) {
+                long start = System.nanoTime();
+                Count c = pool == null ? perft(pbs, d) : perft(pbs, d, pool);
+                report(d, c, System.nanoTime() - start);
+            }
+        }
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    private static void report(int depth, Count c, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("depth %d: %s, %d nodes in %.3f s, %.0f nodes/s", depth, c, c.nodes,
+                seconds, c.nodes / Math.max(seconds, 1e-9)));
+    }
+}
@@ -0,0 +1,64 @@
+package pentago_twist;
+
+import boardgame.Board;
+import boardgame.GameLog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Realistic positions for benchmarks, taken from the games logged in a log
+ * directory. Games are always taken in order of ID, so the same logs give the
+ * same positions in the same order on every run and every machine.
+ */
+public class PositionCorpus {
+
+    /** Every complete Pentago-Twist game logged in logDir, archive included, in order of ID. */
+    public static List<GameRecord> loadGames(File logDir) throws IOException {
+        final List<GameRecord> games = new ArrayList<GameRecord>();
+        GameLog.forEachLog(logDir, new GameLog.Visitor() {
+            public void visit(int gameID, BufferedReader log) throws IOException {
+                try {
+                    games.add(GameRecord.readLog(log));
+                } catch (IllegalArgumentException e) {
+                    // Another game's log, or one cut short
+                }
+            }
+        });
+        Collections.sort(games, new Comparator<GameRecord>() {
+            public int compare(GameRecord a, GameRecord b) {
+                return Integer.compare(a.getGameID(), b.getGameID());
+            }
+        });
+        return games;
+    }
+
+    /**
+     * The positions after minPly to maxPly moves of each game, game by game,
+     * leaving out finished positions and games too short to reach minPly. The
+     * empty board, the same in every game, is never included.
+     */
+    public static List<PentagoBoardState> positions(List<GameRecord> games, int minPly, int maxPly) {
+        List<PentagoBoardState> positions = new ArrayList<PentagoBoardState>();
+        for (GameRecord g : games) {
+            PentagoBoardState pbs = new PentagoBoardState();
+            int last = Math.min(maxPly, g.getNumberOfMoves());
+            for (int i = 0; i < last && pbs.getWinner() == Board.NOBODY; i++) {
+                pbs.processMove(g.getMove(i));
+                if (i + 1 >= minPly && pbs.getWinner() == Board.NOBODY)
+                    positions.add((PentagoBoardState) pbs.clone());
+            }
+        }
+        return positions;
+    }
+
+    /** All unfinished positions of the games logged in logDir, see positions(). */
+    public static List<PentagoBoardState> load(File logDir) throws IOException {
+        return positions(loadGames(logDir), 1, GameRecord.MAX_MOVES);
+    }
+}
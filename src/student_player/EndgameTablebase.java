@@ -0,0 +1,66 @@
+package student_player;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Endgame tablebase built offline by TablebaseBuilder. Every stored position is solved
+ * exactly: the score is 1, 0 or -1 (win, draw, loss for the player to move) and the move is
+ * one achieving it. Like the opening book, the file is mapped on first use and a missing
+ * file makes every probe miss.
+ */
+public class EndgameTablebase {
+    public static final String DEFAULT_PATH = "data" + File.separator + "endgame.tb";
+    public static final int WIN = 1;
+    public static final int DRAW = 0;
+    public static final int LOSS = -1;
+
+    private static PositionBook table;
+    private static boolean loaded = false;
+
+    private EndgameTablebase(){
+    }
+
+    /**
+     * @return the tablebase at DEFAULT_PATH, or null if there is none
+     */
+    public static synchronized PositionBook get(){
+        if (!loaded){
+            loaded = true;
+            File file = new File(DEFAULT_PATH);
+            if (file.isFile()){
+                try {
+                    table = PositionBook.open(file);
+                } catch (IOException e){
+                    System.err.println("Failed to open endgame tablebase: " + e.getMessage());
+                }
+            }
+        }
+        return table;
+    } // get
+
+    /**
+     * @param pbs: board state
+     * @return the solved entry for pbs, with its move in the frame of pbs, or null if absent
+     */
+    public static PositionBook.Entry probe(PentagoBoardState pbs){
+        PositionBook positions = get();
+        return positions == null ? null : positions.probe(pbs);
+    } // probe
+
+    /**
+     * Like PositionBook.bestMove, checks the stored move is legal here: a hash collision or a table
+     * built by older code must not make the player send an illegal move
+     * @param pbs: board state
+     * @return the stored move if it wins or draws and is legal in pbs, or null
+     */
+    public static PentagoMove bestMove(PentagoBoardState pbs){
+        PositionBook.Entry known = probe(pbs);
+        if (known == null || known.getScore() < DRAW){
+            return null;
+        }
+        PentagoMove move = MyTools.decodeMove(known.getMoveCode(), pbs.getTurnPlayer());
+        return pbs.isLegal(move) ? move : null;
+    } // bestMove
+} // EndgameTablebase
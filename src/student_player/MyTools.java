@@ -1,4 +1,5 @@
 package student_player;
+import boardgame.Board;
 import pentago_twist.PentagoMove;
 import pentago_twist.PentagoBoardState;
 import pentago_twist.PentagoCoord;
@@ -13,10 +14,16 @@ public class MyTools {
     public static int QUADRUPLET_WEIGHT = 1000;
     public static int QUINTUPLET_WEIGHT = 100000;
     public static int WIN_COST = 100000;
+    public static final int TERMINAL_SCORE = 100 * WIN_COST;
     public static final int SIM_TIME_LIMIT = 800;
     public static final int MOVE_TIME_LIMIT = 1888;
     public static int DEPTH = 2;
     public static final int INCREASE_DEPTH = 10;
+    public static final int NUM_MOVE_CODES = PentagoBoardState.BOARD_SIZE * PentagoBoardState.BOARD_SIZE * 8;
+    public static final int MAX_GAME_MOVES = 2 * PentagoBoardState.MAX_TURNS;
+    public static final double RAVE_EQUIVALENCE = 300;
+    // Random choices of the searches run without a TimeManager
+    private static final Random RANDOM = new Random();
     private static final UnaryOperator<PentagoCoord> getNextHorizontal = c -> new PentagoCoord(c.getX(), c.getY()+1);
     private static final UnaryOperator<PentagoCoord> getNextVertical = c -> new PentagoCoord(c.getX()+1, c.getY());
     private static final UnaryOperator<PentagoCoord> getNextDiagRight = c -> new PentagoCoord(c.getX()+1, c.getY()+1);
@@ -31,42 +38,106 @@ public class MyTools {
     /**
      * Function to find the best move using alpha-beta pruning or negamax, after running
      * MonteCarlo simulations to filter the legalMoves ArrayList so that it contains good
-     * moves
+     * moves. Uses the default time budget for pbs
      * @param pbs: board state
      * @param studentTurn: tells us if student has the white or black pieces
      * @return the best move
      */
     public static PentagoMove findBestMove(PentagoBoardState pbs, int studentTurn){
-        boolean isMaxPlayer = studentTurn == 0;
-        HashMap<PentagoMove, Double> moveRankings = new HashMap<>();
-        PentagoMove bestMove;
-        long start = System.currentTimeMillis();
+        TimeManager timeManager = new TimeManager();
+        timeManager.startMove(pbs.getTurnNumber());
+        return findBestMove(pbs, studentTurn, DEPTH, timeManager);
+    } // findBestMove
+
+    /**
+     * Function to find the best move using alpha-beta pruning, after running MonteCarlo
+     * simulations to filter the legalMoves ArrayList so that it contains good moves.
+     * Alpha-beta deepens iteratively up to maxDepth, searching the best moves of the previous
+     * iteration first, and stops when the time manager says so. The depth is a parameter
+     * rather than DEPTH so that players searching on several threads don't race on it
+     * @param pbs: board state
+     * @param studentTurn: tells us if student has the white or black pieces
+     * @param maxDepth: deepest alpha-beta iteration
+     * @param timeManager: clock of the current move, whose statistics the search fills in
+     * @return the best move
+     */
+    public static PentagoMove findBestMove(PentagoBoardState pbs, int studentTurn, int maxDepth, TimeManager timeManager){
+        PentagoMove move = searchBestMove(pbs, studentTurn, maxDepth, timeManager);
+        timeManager.getStats().endStage();
+        return move;
+    } // findBestMove
 
-        ArrayList<PentagoMove> bestLegalMoves = removeObviousLosses(studentTurn, pbs);
-        bestLegalMoves = monteCarloSimulations(pbs, studentTurn, bestLegalMoves);
+    private static PentagoMove searchBestMove(PentagoBoardState pbs, int studentTurn, int maxDepth, TimeManager timeManager){
+        int sign = studentTurn == PentagoBoardState.WHITE ? 1 : -1;
+        SearchStats stats = timeManager.getStats();
 
+        stats.startStage(SearchStats.Stage.OBVIOUS_LOSSES);
+        ArrayList<PentagoMove> bestLegalMoves = removeObviousLosses(studentTurn, pbs, timeManager.getRandom());
+        if (bestLegalMoves.isEmpty()){ // every move loses right away
+            return pbs.getAllLegalMoves().get(0);
+        }
+        if (bestLegalMoves.size() > 1){
+            stats.startStage(SearchStats.Stage.MONTE_CARLO);
+            bestLegalMoves = monteCarloSimulations(pbs, studentTurn, bestLegalMoves, timeManager);
+        }
         if (bestLegalMoves.size() == 1){
             return bestLegalMoves.get(0);
         }
 
-        for (PentagoMove move: bestLegalMoves){
-            if (System.currentTimeMillis() - start > MOVE_TIME_LIMIT){
+        stats.startStage(SearchStats.Stage.ALPHA_BETA);
+        PentagoMove bestMove = bestLegalMoves.get(0);
+        long previousIteration = 0;
+        for (int depth = 0; depth <= maxDepth; depth++){
+            long iterationStart = timeManager.clock();
+            // Ties are then sorted in the order the moves were searched
+            HashMap<PentagoMove, Double> moveRankings = new LinkedHashMap<>();
+            PentagoMove iterationBest = null;
+            int iterationBestScore = Integer.MIN_VALUE;
+
+            for (PentagoMove move: bestLegalMoves){
+                PentagoBoardState cloneState = cloneBoard(pbs);
+                cloneState.processMove(move);
+                boolean whiteToMove = cloneState.getTurnPlayer() == PentagoBoardState.WHITE;
+                int score = sign * alphaBeta(studentTurn, cloneState, depth, Integer.MIN_VALUE, Integer.MAX_VALUE, whiteToMove, timeManager);
+                if (timeManager.hardExpired()){
+                    break;
+                }
+                moveRankings.put(move, (double) score);
+                if (iterationBest == null || score > iterationBestScore){
+                    iterationBest = move;
+                    iterationBestScore = score;
+                }
+            }
+
+            if (timeManager.hardExpired()){
+                // The previous best is searched first, so a partial iteration can still be
+                // trusted once it has been scored
+                if (moveRankings.containsKey(bestLegalMoves.get(0))){
+                    bestMove = iterationBest;
+                }
                 break;
             }
 
-            PentagoBoardState cloneState = cloneBoard(pbs);
-            cloneState.processMove(move);
-            double ab = alphaBeta(studentTurn, cloneState, DEPTH, Integer.MIN_VALUE, Integer.MAX_VALUE, isMaxPlayer);
-            moveRankings.put(move, (double)ab);
+            bestMove = iterationBest;
+            timeManager.reportBest(bestMove);
+            timeManager.getStats().completeDepth(depth);
+            moveRankings = sortByScore(moveRankings);
+            bestLegalMoves = new ArrayList<>(moveRankings.keySet());
+            Collections.reverse(bestLegalMoves);
+
+            long iteration = timeManager.clock() - iterationStart;
+            double growth = previousIteration > 0 ? Math.max((double) iteration / previousIteration, 2.0) : bestLegalMoves.size();
+            previousIteration = Math.max(iteration, 1);
+            // Depth 1 is the least that sees the opponent's immediate wins, so only the hard
+            // limit may stop the search before it
+            if (depth >= 1 && timeManager.shouldStop(iteration, growth)){
+                break;
+            }
         }
-
-        moveRankings = sortByScore(moveRankings);
-        int bestIndex = Math.max(moveRankings.keySet().size() - 1, 0);
-        bestMove = (PentagoMove) moveRankings.keySet().toArray()[bestIndex];
         return bestMove;
 
 
-    } // findBestMove
+    } // searchBestMove
 
     /**
      * Alpha-Beta pruning algorithm
@@ -79,11 +150,44 @@ public class MyTools {
      * @return alpha-beta bestValue
      */
     public static int alphaBeta(int studentTurn, PentagoBoardState pbs, int depth, int alpha, int beta, boolean isMaxPlayer){
+        return alphaBeta(studentTurn, pbs, depth, alpha, beta, isMaxPlayer, null);
+    } // alphaBeta
+
+    /**
+     * Alpha-Beta pruning algorithm that gives up once the hard time limit has passed, in which
+     * case the value returned is meaningless and the caller must check the time manager
+     * @param studentTurn: white or black pieces
+     * @param pbs: board state
+     * @param depth: to what depth alpha-beta will search before return cost
+     * @param alpha: alpha value
+     * @param beta: beta value
+     * @param isMaxPlayer: if the player to move in pbs is white
+     * @param timeManager: clock of the current move, or null for no limit
+     * @return alpha-beta bestValue
+     */
+    public static int alphaBeta(int studentTurn, PentagoBoardState pbs, int depth, int alpha, int beta, boolean isMaxPlayer, TimeManager timeManager){
+        SearchStats stats = timeManager == null ? null : timeManager.getStats();
+        if (stats != null){
+            stats.addNodes(1);
+        }
+        if (pbs.getWinner() != Board.NOBODY){
+            if (stats != null){
+                stats.addEvaluation();
+            }
+            return getTerminalEvaluation(pbs, depth);
+        }
         if (depth == 0 || pbs.gameOver()){
+            if (stats != null){
+                stats.addEvaluation();
+            }
             return getEvaluation(pbs);
         }
+        if (timeManager != null && timeManager.pollHardExpired()){
+            return 0;
+        }
 
         int eval;
+        int searched = 0;
         ArrayList<PentagoMove> legalMoves = pbs.getAllLegalMoves();
 
         if (isMaxPlayer){
@@ -91,10 +195,14 @@ public class MyTools {
             for (PentagoMove move : legalMoves){
                 PentagoBoardState cloneState = cloneBoard(pbs);
                 cloneState.processMove(move);
-                eval = alphaBeta(studentTurn, cloneState, depth -1, alpha, beta, false);
+                eval = alphaBeta(studentTurn, cloneState, depth -1, alpha, beta, false, timeManager);
+                searched++;
                 maxEval = Math.max(maxEval, eval);
                 alpha = Math.max(alpha, maxEval);
                 if (beta <= alpha){
+                    if (stats != null){
+                        stats.addCutoff(searched == 1);
+                    }
                     break;
                 }
             }
@@ -104,10 +212,14 @@ public class MyTools {
             for (PentagoMove move : legalMoves){
                 PentagoBoardState cloneState = cloneBoard(pbs);
                 cloneState.processMove(move);
-                eval = alphaBeta(studentTurn, cloneState, depth - 1, alpha, beta, true);
+                eval = alphaBeta(studentTurn, cloneState, depth - 1, alpha, beta, true, timeManager);
+                searched++;
                 minEval = Math.min(minEval, eval);
                 beta = Math.min(beta, minEval);
                 if (beta <= alpha){
+                    if (stats != null){
+                        stats.addCutoff(searched == 1);
+                    }
                     break;
                 }
             }
@@ -155,8 +267,19 @@ public class MyTools {
      * @return list of moves with direct loss removed
      */
     public static ArrayList<PentagoMove> removeObviousLosses(int playerTurn, PentagoBoardState pbs){
+        return removeObviousLosses(playerTurn, pbs, RANDOM);
+    } // removeObviousLosses
+
+    /**
+     * Same as above, shuffling the moves with the given source of randomness
+     * @param playerTurn: (0 = white, 1 = black)
+     * @param pbs: board state
+     * @param random: shuffles the moves
+     * @return list of moves with direct loss removed
+     */
+    public static ArrayList<PentagoMove> removeObviousLosses(int playerTurn, PentagoBoardState pbs, Random random){
         ArrayList<PentagoMove> legalMoves = pbs.getAllLegalMoves();
-        Collections.shuffle(legalMoves);
+        Collections.shuffle(legalMoves, random);
         ArrayList<PentagoMove> bestLegalMoves = new ArrayList<>();
 
         for (PentagoMove move : legalMoves){
@@ -181,15 +304,55 @@ public class MyTools {
 
     /**
      * Monte Carlo simulations to assign UCT values to states;
-     * After simulation, we select topK states, sort them by score, and return to alphabeta
+     * After simulation, we select topK states, sort them by score, and return to alphabeta.
+     * Every playout also feeds All-Moves-As-First statistics for the root, so a move that
+     * has barely been tried still gets a value from the playouts that contained it
      * @param pbs: board state
      * @param studentTurn: (0 = white, 1 = black)
      * @param moves: possible moves from pbs
      * @return list of k good moves sorted by uct value
      */
     public static ArrayList<PentagoMove> monteCarloSimulations(PentagoBoardState pbs, int studentTurn, ArrayList<PentagoMove> moves){
-        long start = System.currentTimeMillis();
-        HashMap<PentagoMove, Tuple> moveRankings = new HashMap<>();
+        return monteCarloSimulations(pbs, studentTurn, moves, TimeManager.now() + SIM_TIME_LIMIT);
+    } // monteCarloSimulations
+
+    /**
+     * Same as above, simulating until the given deadline instead of for SIM_TIME_LIMIT
+     * @param pbs: board state
+     * @param studentTurn: (0 = white, 1 = black)
+     * @param moves: possible moves from pbs
+     * @param deadline: time at which simulations stop, on the TimeManager.now() clock
+     * @return list of k good moves sorted by uct value
+     */
+    public static ArrayList<PentagoMove> monteCarloSimulations(PentagoBoardState pbs, int studentTurn, ArrayList<PentagoMove> moves, long deadline){
+        return monteCarloSimulations(pbs, studentTurn, moves, deadline, null);
+    } // monteCarloSimulations
+
+    /**
+     * Same as above, simulating for the Monte Carlo share of the time manager's budget and
+     * counting the playouts in its statistics
+     * @param pbs: board state
+     * @param studentTurn: (0 = white, 1 = black)
+     * @param moves: possible moves from pbs
+     * @param timeManager: clock of the current move
+     * @return list of k good moves sorted by uct value
+     */
+    public static ArrayList<PentagoMove> monteCarloSimulations(PentagoBoardState pbs, int studentTurn, ArrayList<PentagoMove> moves, TimeManager timeManager){
+        return monteCarloSimulations(pbs, studentTurn, moves, timeManager.monteCarloDeadline(), timeManager);
+    } // monteCarloSimulations
+
+    /**
+     * @param deadline: time at which simulations stop, on the clock of timeManager, or on
+     *                the TimeManager.now() clock without one
+     * @param timeManager: clock of the current move, or null
+     */
+    private static ArrayList<PentagoMove> monteCarloSimulations(PentagoBoardState pbs, int studentTurn, ArrayList<PentagoMove> moves, long deadline, TimeManager timeManager){
+        SearchStats stats = timeManager == null ? null : timeManager.getStats();
+        Random random = timeManager == null ? RANDOM : timeManager.getRandom();
+        // In the order of moves, so that ties between moves are broken the same way every time
+        HashMap<PentagoMove, Tuple> moveRankings = new LinkedHashMap<>();
+        Rave rootRave = new Rave();
+        int[] codes = new int[MAX_GAME_MOVES];
         boolean simDone = false;
         double simCounter = 1.0;
 
@@ -198,23 +361,12 @@ public class MyTools {
                 moveRankings.put(move, new Tuple<>(0.0, 0.0));
             }
 
-            PentagoBoardState cloneState = cloneBoard(pbs);
-            cloneState.processMove(move);
-
             // simulate with random moves until we reach end of game
             // i.e., default policy
-            while(!cloneState.gameOver()){
-                cloneState.processMove((PentagoMove) cloneState.getRandomMove());
-            }
-            boolean isWin = checkGameResult(cloneState, studentTurn) > 0;
+            double result = simulateFromRoot(pbs, move, studentTurn, codes, rootRave, stats, random);
             double wins = (double) moveRankings.get(move).x;
             double visits = (double) moveRankings.get(move).y;
-
-            if (isWin){
-                moveRankings.put(move, new Tuple<>(wins+1, visits+1));
-            } else{
-                moveRankings.put(move, new Tuple<>(wins, visits+1));
-            }
+            moveRankings.put(move, new Tuple<>(wins + result, visits+1));
         } // for-loop
         // before, we had random simulations, from here we investigate which simulations would
         // be beneficial
@@ -225,14 +377,15 @@ public class MyTools {
         while(true){
             simCounter++;
             for (PentagoMove move: moveRankings.keySet()){
-                if (System.currentTimeMillis() - start > SIM_TIME_LIMIT){
+                if ((timeManager == null ? TimeManager.now() : timeManager.clock()) > deadline){
                     simDone = true;
                     break;
                 }
 
                 Tuple moveStats = moveRankings.get(move);
-                double uct = (  ((double) moveStats.x) / ((double) moveStats.y) ) +
-                        (Math.sqrt(2 * Math.log(simCounter)) / ((double) moveStats.y));
+                double visits = (double) moveStats.y;
+                double value = UCT.raveValue((double) moveStats.x, visits, rootRave, moveCode(move));
+                double uct = value + (Math.sqrt(2 * Math.log(simCounter)) / visits);
 
                 if (uct > bestUCT){
                     bestUCT = uct;
@@ -243,38 +396,54 @@ public class MyTools {
             if (simDone){
                 break;
             }
-            PentagoBoardState cloneState = cloneBoard(pbs);
-            cloneState.processMove(chosenMove);
             // simulate with random moves until we reach game's end
-            while(!cloneState.gameOver()){
-                cloneState.processMove((PentagoMove) cloneState.getRandomMove());
-            }
-
-            boolean isWin = checkGameResult(cloneState, studentTurn) > 0;
+            double result = simulateFromRoot(pbs, chosenMove, studentTurn, codes, rootRave, stats, random);
             double wins = (double) moveRankings.get(chosenMove).x;
             double visits = (double) moveRankings.get(chosenMove).y;
+            moveRankings.put(chosenMove, new Tuple<>(wins + result, visits+1));
 
-            if (isWin){
-                moveRankings.put(chosenMove, new Tuple<>(wins+1, visits+1));
-            }else{
-                moveRankings.put(chosenMove, new Tuple<>(wins, visits+1));
-            }
             // reset before next iteration of while loop
             chosenMove = null;
             bestUCT = -1;
         } // while loop
 
-        HashMap<PentagoMove, Double> movesAndStats = new HashMap<>();
+        HashMap<PentagoMove, Double> movesAndStats = new LinkedHashMap<>();
         for (PentagoMove move: moveRankings.keySet()){
             double wins = (double) moveRankings.get(move).x;
             double visits = (double) moveRankings.get(move).y;
-            movesAndStats.put(move, wins/visits);
+            movesAndStats.put(move, UCT.raveValue(wins, visits, rootRave, moveCode(move)));
         }
         movesAndStats = sortByScore(movesAndStats);
         ArrayList<PentagoMove> topKMoves = topKSample(movesAndStats,50, Integer.MIN_VALUE/2);
         return topKMoves;
     } // monteCarloSimulations
 
+    /**
+     * Plays move from pbs followed by a random playout, and credits the root's AMAF statistics
+     * with every move the student played along the way
+     * @param pbs: root board state (left untouched)
+     * @param move: root move to simulate
+     * @param studentTurn: (0 = white, 1 = black)
+     * @param codes: scratch buffer for the played move codes
+     * @param rootRave: root AMAF statistics
+     * @param stats: where the playout is counted, or null
+     * @param random: picks the playout's moves
+     * @return 1 for a student win, 0.5 for a draw, 0 for a loss, as playoutResult scores it
+     */
+    private static double simulateFromRoot(PentagoBoardState pbs, PentagoMove move, int studentTurn, int[] codes, Rave rootRave, SearchStats stats, Random random){
+        PentagoBoardState cloneState = cloneBoard(pbs);
+        cloneState.processMove(move);
+        codes[0] = moveCode(move);
+        int length = randomPlayout(cloneState, codes, 1, random);
+        if (stats != null){
+            stats.addPlayout(length);
+        }
+
+        double result = playoutResult(cloneState, studentTurn);
+        rootRave.update(codes, 0, length, result);
+        return result;
+    } // simulateFromRoot
+
     //////////////////////////// SAMPLING METHODS ////////////////////////////
 
     /**
@@ -497,6 +666,24 @@ public class MyTools {
         return cost;
     } //getEvaluation
 
+    /**
+     * Evaluation of a finished game, beyond anything getEvaluation returns so that the search
+     * never trades a won or lost game for a better looking position; wins found with more
+     * depth left (sooner) are worth more
+     * @param pbs: finished board state
+     * @param depth: remaining search depth
+     * @return white-positive score
+     */
+    public static int getTerminalEvaluation(PentagoBoardState pbs, int depth){
+        int winner = pbs.getWinner();
+        if (winner == PentagoBoardState.WHITE){
+            return TERMINAL_SCORE + depth;
+        } else if (winner == PentagoBoardState.BLACK){
+            return -TERMINAL_SCORE - depth;
+        }
+        return 0;
+    } // getTerminalEvaluation
+
     //////////////////////////// "THEORY" METHODS ////////////////////////////
 
     /**
@@ -706,14 +893,94 @@ public class MyTools {
         return (PentagoBoardState) pbs.clone();
     } // sortByScore
 
+    /**
+     * Packs a move into a single code in [0, NUM_MOVE_CODES): the placement cell (x*6 + y)
+     * in the high bits, followed by the quadrant (2 bits) and the rotate/flip bit
+     * @param move: Pentago move
+     * @return packed move code
+     */
+    public static int moveCode(PentagoMove move){
+        PentagoCoord coord = move.getMoveCoord();
+        int cell = coord.getX() * PentagoBoardState.BOARD_SIZE + coord.getY();
+        return (cell << 3) | (move.getASwap() << 1) | move.getBSwap();
+    } // moveCode
+
+    /**
+     * Inverse of moveCode
+     * @param code: packed move code
+     * @param playerId: player making the move
+     * @return the move
+     */
+    public static PentagoMove decodeMove(int code, int playerId){
+        int cell = code >> 3;
+        return new PentagoMove(cell / PentagoBoardState.BOARD_SIZE, cell % PentagoBoardState.BOARD_SIZE,
+                (code >> 1) & 3, code & 1, playerId);
+    } // decodeMove
+
+    /**
+     * Maps a move code onto the board turned by 180 degrees: the cell goes to 35 - cell and the
+     * quadrant to 3 - quadrant, while both twists commute with the half turn. This is its own inverse
+     * @param code: packed move code
+     * @return packed move code on the rotated board
+     */
+    public static int rotateMoveCode(int code){
+        int cell = code >> 3;
+        int quadrant = (code >> 1) & 3;
+        return ((NUM_MOVE_CODES / 8 - 1 - cell) << 3) | ((3 - quadrant) << 1) | (code & 1);
+    } // rotateMoveCode
+
+    /**
+     * Plays random moves until the game has a winner or is drawn, recording the code of every move played.
+     * gameOver() is already true before black's last ply of a full board, whose draw is only recorded by that ply
+     * @param pbs: board state, modified in place
+     * @param codes: where the move codes are written
+     * @param offset: index of the first free slot in codes
+     * @return index one past the last code written
+     */
+    public static int randomPlayout(PentagoBoardState pbs, int[] codes, int offset){
+        return randomPlayout(pbs, codes, offset, RANDOM);
+    } // randomPlayout
+
+    /**
+     * Same as above, picking the moves with the given source of randomness rather than the
+     * board's own, which is seeded from the clock
+     * @param pbs: board state, modified in place
+     * @param codes: where the move codes are written
+     * @param offset: index of the first free slot in codes
+     * @param random: picks the moves
+     * @return index one past the last code written
+     */
+    public static int randomPlayout(PentagoBoardState pbs, int[] codes, int offset, Random random){
+        while (pbs.getWinner() == Board.NOBODY){
+            ArrayList<PentagoMove> moves = pbs.getAllLegalMoves();
+            PentagoMove move = moves.get(random.nextInt(moves.size()));
+            pbs.processMove(move);
+            codes[offset++] = moveCode(move);
+        }
+        return offset;
+    } // randomPlayout
+
+    /**
+     * Score of a finished game for the given player: 1 for a win, 0.5 for a draw, 0 for a loss
+     * @param pbs: finished board state
+     * @param playerTurn: (0 = white, 1 = black)
+     * @return playout result
+     */
+    public static double playoutResult(PentagoBoardState pbs, int playerTurn){
+        int winner = pbs.getWinner();
+        if (winner == playerTurn){
+            return 1.0;
+        }
+        return winner == Board.DRAW ? 0.5 : 0.0;
+    } // playoutResult
+
     private static int getRandomNumberInRange(int min, int max) {
 
         if (min >= max) {
             throw new IllegalArgumentException("max must be greater than min");
         }
 
-        Random r = new Random();
-        return r.nextInt((max - min) + 1) + min;
+        return RANDOM.nextInt((max - min) + 1) + min;
     }
 
 
@@ -737,7 +1004,7 @@ public class MyTools {
 
     ////////////////////////////////////// PRIVATE MONTECARLO CLASS //////////////////////////////////////
     static class MonteCarlo {
-        private static final int WIN_SCORE = 10;
+        private static final int STABILITY_CHECK_INTERVAL = 500;
         private int depth;
         private int opponent;
 
@@ -761,15 +1028,24 @@ public class MyTools {
             this.opponent = opponent;
         }
 
-        private int getTimeForThisDepth(){
-            return (2000);
+        public PentagoMove findBestMCMove(PentagoBoardState pbs, int playerTurn){
+            TimeManager timeManager = new TimeManager();
+            timeManager.startMove(pbs.getTurnNumber());
+            return findBestMCMove(pbs, playerTurn, timeManager);
         }
 
-        public PentagoMove findBestMCMove(PentagoBoardState pbs, int playerTurn){
-            long start = System.currentTimeMillis();
-            long end = start + 60 * getTimeForThisDepth();
+        /**
+         * Runs MCTS until the soft time limit, or earlier once the most visited root child has
+         * stayed the same for a while, and never past the hard time limit
+         * @param pbs: board state
+         * @param playerTurn: (0 = white, 1 = black)
+         * @param timeManager: clock of the current move
+         * @return the most visited root move
+         */
+        public PentagoMove findBestMCMove(PentagoBoardState pbs, int playerTurn, TimeManager timeManager){
             PentagoBoardState board = cloneBoard(pbs);
-            PentagoMove bestMove = null;
+            SearchStats stats = timeManager.getStats();
+            stats.startStage(SearchStats.Stage.MCTS);
             int gamesFinished = 0;
             int opponent = playerTurn == 0 ? 1 : 0;
             State rootState = new State(board);
@@ -779,36 +1055,42 @@ public class MyTools {
             Node rootNode = new Node(rootState);
             rootNode.setState(rootState);
             Tree tree = new Tree(rootNode);
-            while(System.currentTimeMillis() < end){
+            int[] codes = new int[MAX_GAME_MOVES];
+            while(!timeManager.hardExpired()){
 
                 // Select
                 Node goodNode = selectGoodNode(rootNode);
                 // Expand
                 if (!goodNode.getState().getPbs().gameOver()){
                     expandNode(goodNode);
+                    stats.addTreeNodes(goodNode.getChildren().size());
                 }
                 // Simulate
                 Node nodeToVisit = goodNode;
                 if (goodNode.getChildren().size() > 0 ){
-                    nodeToVisit = goodNode.getRandomChild();
+                    nodeToVisit = goodNode.getRandomChild(timeManager.getRandom());
                 }
-                int result = simulatePlay(nodeToVisit);
+                int treeMoves = pathCodes(nodeToVisit, codes);
+                PentagoBoardState playout = cloneBoard(nodeToVisit.getState().getPbs());
+                int length = randomPlayout(playout, codes, treeMoves, timeManager.getRandom());
+                stats.addPlayout(length - treeMoves);
                 gamesFinished++;
                 // Update
-                backProp(nodeToVisit, result);
+                backProp(nodeToVisit, playout, codes, treeMoves, length);
+
+                if (gamesFinished % STABILITY_CHECK_INTERVAL == 0){
+                    timeManager.reportBest(rootNode.getBestChild().getState().getMove());
+                    if (timeManager.shouldStop(0, 0)){
+                        break;
+                    }
+                }
             }
+            stats.endStage();
             System.out.println("Games simulated : " + gamesFinished);
             Node bestNode = rootNode.getBestChild();
-            for (PentagoMove move : board.getAllLegalMoves()){
-                PentagoBoardState tempBoard = cloneBoard(board);
-                tempBoard.processMove(move);
-                if (tempBoard.equals(bestNode.getState().getPbs())){
-                    bestMove = move;
-                }
-            }
 
             tree.setRoot(bestNode);
-            return bestMove;
+            return bestNode.getState().getMove();
 
         } // findBestMCMove
 
@@ -823,10 +1105,12 @@ public class MyTools {
 
         public static void expandNode(Node node){
             ArrayList<PentagoMove> possibleMoves = node.getState().getLegalMoves();
+            node.getState().setRave(new Rave());
             for (PentagoMove move : possibleMoves){
                 PentagoBoardState newPbs = cloneBoard(node.getState().getPbs());
                 newPbs.processMove(move);
                 State newState = new State(newPbs);
+                newState.setMove(move);
                 Node newNode = new Node(newState);
                 newNode.setParent(node);
                 newNode.getState().setPlayerTurn(node.getState().getPlayerTurn());
@@ -834,31 +1118,58 @@ public class MyTools {
             }
         } // expandNode
 
-        public static void backProp(Node node, int playerTurn){
+        /**
+         * Writes the codes of the moves leading from the root to node, in playing order
+         * @param node: tree node
+         * @param codes: destination buffer
+         * @return number of codes written, i.e. the depth of node
+         */
+        private static int pathCodes(Node node, int[] codes){
+            int depth = 0;
+            for (Node n = node; n.getParent() != null; n = n.getParent()){
+                depth++;
+            }
+            int i = depth;
+            for (Node n = node; n.getParent() != null; n = n.getParent()){
+                codes[--i] = moveCode(n.getState().getMove());
+            }
+            return depth;
+        } // pathCodes
+
+        /**
+         * Back-propagates a playout result from node up to the root. Each node is credited from
+         * the point of view of the player who moved into it, and the AMAF statistics of every
+         * node on the path are credited with all later moves of the player to move there
+         * @param node: node the playout started from
+         * @param finished: finished board state of the playout
+         * @param codes: moves from the root to the end of the playout
+         * @param depth: depth of node, i.e. index of the first playout move in codes
+         * @param length: total number of codes
+         */
+        public static void backProp(Node node, PentagoBoardState finished, int[] codes, int depth, int length){
             Node tempNode = node;
-            while (node!= null){
-                tempNode.getState().incrementVisits();
-                if (tempNode.getState().getPlayerTurn() == playerTurn){
-                    tempNode.getState().addScore(WIN_SCORE);
+            int index = depth;
+            while (tempNode != null){
+                State state = tempNode.getState();
+                int toMove = state.getPbs().getTurnPlayer();
+                state.incrementVisits();
+                state.addScore(playoutResult(finished, 1 - toMove));
+                if (state.getRave() != null){
+                    state.getRave().update(codes, index, length, playoutResult(finished, toMove));
                 }
                 tempNode = tempNode.getParent();
+                index--;
             }
         } // backProp
 
         public static int simulatePlay(Node node){
-            Node tempNode = new Node(node);
-            State tempState = tempNode.getState();
-            int winOrLoss = checkGameResult(tempState.getPbs(), tempState.getPlayerTurn());
-            int turnNumber = tempState.getPbs().getTurnNumber();
-            boolean gameOutcome = tempState.getPbs().gameOver();
-
-            while(!gameOutcome){
-                PentagoMove move = (PentagoMove) tempState.getPbs().getRandomMove();
-                tempState.getPbs().processMove(move);
-                gameOutcome = tempState.getPbs().gameOver();
+            PentagoBoardState pbs = cloneBoard(node.getState().getPbs());
+            while(!pbs.gameOver()){
+                PentagoMove move = (PentagoMove) pbs.getRandomMove();
+                pbs.processMove(move);
             }
 
-            int gameResult = checkGameResult(tempState.getPbs(), tempState.getPlayerTurn());
+            int gameResult = checkGameResult(pbs, node.getState().getPlayerTurn());
             return gameResult;
         }
 
@@ -872,16 +1183,102 @@ public class MyTools {
                 return Integer.MAX_VALUE;
             }
 
-            return (winRate / (double) nodeVisits) * (Math.sqrt(2 * Math.log(sims)/ (double) nodeVisits));
+            return (winRate / (double) nodeVisits) + (Math.sqrt(2 * Math.log(sims)/ (double) nodeVisits));
+        }
+
+        /**
+         * Blends a move's own win rate with its AMAF estimate. The AMAF weight starts at 1 and
+         * fades as the move collects real visits, RAVE_EQUIVALENCE being the number of visits
+         * at which both estimates count equally
+         * @param wins: wins of the move itself
+         * @param visits: visits of the move itself
+         * @param rave: AMAF statistics of the parent, may be null
+         * @param code: packed move code
+         * @return blended value in [0, 1]
+         */
+        public static double raveValue(double wins, double visits, Rave rave, int code){
+            double winRate = visits > 0 ? wins / visits : 0.5;
+            if (rave == null || rave.placementVisits(code) == 0){
+                return winRate;
+            }
+            double beta = Math.sqrt(RAVE_EQUIVALENCE / (3 * visits + RAVE_EQUIVALENCE));
+            return (1 - beta) * winRate + beta * rave.placementValue(code);
+        }
+
+        public static double uctRaveValue(int sims, State child, Rave rave){
+            int nodeVisits = child.getVisits();
+            int code = moveCode(child.getMove());
+            if (nodeVisits == 0 && (rave == null || rave.placementVisits(code) == 0)){
+                return Integer.MAX_VALUE;
+            }
+            double exploration = Math.sqrt(2 * Math.log(Math.max(sims, 1)) / Math.max(nodeVisits, 1));
+            return raveValue(child.getWinRate(), nodeVisits, rave, code) + exploration;
         }
 
         public static Node findBestUCTNode(Node node){
             int parentVisit = node.getState().getVisits();
+            Rave rave = node.getState().getRave();
             return Collections.max(node.getChildren(), Comparator.comparing(c ->
-                uctValue(parentVisit, c.getState().getWinRate(), c.getState().getVisits())));
+                uctRaveValue(parentVisit, c.getState(), rave)));
         }
     } // UCT
 
+    ////////////////////////////////////// PRIVATE RAVE CLASS //////////////////////////////////////
+
+    /**
+     * All-Moves-As-First statistics of one decision point, indexed by packed move code.
+     * Every move the player to move makes later in a playout is credited as if it had been
+     * played right away. Codes are kept exact, but estimates pool the 8 codes sharing a
+     * placement, since where a marble lands transfers much better than the twist after it
+     */
+    static class Rave {
+        private final int[] visits = new int[NUM_MOVE_CODES];
+        private final double[] wins = new double[NUM_MOVE_CODES];
+
+        /**
+         * Credits codes[from], codes[from+2], ... i.e. every move of the player to move at this
+         * point; a code seen twice in the same playout is only credited once
+         * @param codes: played move codes
+         * @param from: index of the first move made from this point
+         * @param to: index one past the last move
+         * @param result: playout result for the player to move at this point
+         */
+        public void update(int[] codes, int from, int to, double result){
+            for (int i = from; i < to; i += 2){
+                int code = codes[i];
+                boolean seen = false;
+                for (int j = from; j < i; j += 2){
+                    if (codes[j] == code){
+                        seen = true;
+                        break;
+                    }
+                }
+                if (!seen){
+                    visits[code]++;
+                    wins[code] += result;
+                }
+            }
+        }
+
+        public int placementVisits(int code){
+            int total = 0;
+            for (int c = code & ~7; c < (code | 7) + 1; c++){
+                total += visits[c];
+            }
+            return total;
+        }
+
+        public double placementValue(int code){
+            int total = 0;
+            double won = 0;
+            for (int c = code & ~7; c < (code | 7) + 1; c++){
+                total += visits[c];
+                won += wins[c];
+            }
+            return total == 0 ? 0.5 : won / total;
+        }
+    } // Rave
+
     ////////////////////////////////////// PRIVATE TREE CLASS //////////////////////////////////////
     static class Tree{
         Node root;
@@ -957,9 +1354,9 @@ public class MyTools {
             this.children = children;
         }
 
-        public Node getRandomChild(){
+        public Node getRandomChild(Random random){
             int numChildren = this.children.size();
-            int randomChild = (int) (Math.random() * numChildren);
+            int randomChild = random.nextInt(numChildren);
             return this.children.get(randomChild);
         }
 
@@ -977,6 +1374,8 @@ public class MyTools {
         private int visits;
         private double winRate;
         private ArrayList<PentagoMove> legalMoves;
+        private PentagoMove move;
+        private Rave rave;
 
 
         public State(PentagoBoardState pbs){
@@ -1024,6 +1423,22 @@ public class MyTools {
             this.legalMoves = legalMoves;
         }
 
+        public PentagoMove getMove(){
+            return this.move;
+        }
+
+        public void setMove(PentagoMove move){
+            this.move = move;
+        }
+
+        public Rave getRave(){
+            return this.rave;
+        }
+
+        public void setRave(Rave rave){
+            this.rave = rave;
+        }
+
         public void incrementVisits(){
             this.visits++;
         }
@@ -0,0 +1,47 @@
+package student_player;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opening book built offline by OpeningBookBuilder. The file is only mapped the first time
+ * the player asks for a move; if it is missing, every lookup misses and the player falls back
+ * to its opening heuristics.
+ */
+public class OpeningBook {
+    public static final String DEFAULT_PATH = "data" + File.separator + "opening.book";
+
+    private static PositionBook book;
+    private static boolean loaded = false;
+
+    private OpeningBook(){
+    }
+
+    /**
+     * @return the book at DEFAULT_PATH, or null if there is none
+     */
+    public static synchronized PositionBook get(){
+        if (!loaded){
+            loaded = true;
+            File file = new File(DEFAULT_PATH);
+            if (file.isFile()){
+                try {
+                    book = PositionBook.open(file);
+                } catch (IOException e){
+                    System.err.println("Failed to open opening book: " + e.getMessage());
+                }
+            }
+        }
+        return book;
+    } // get
+
+    /**
+     * @param pbs: board state
+     * @return the book move for pbs, or null if the position is not in the book
+     */
+    public static PentagoMove lookup(PentagoBoardState pbs){
+        PositionBook positions = get();
+        return positions == null ? null : positions.bestMove(pbs);
+    } // lookup
+} // OpeningBook
@@ -0,0 +1,164 @@
+package student_player;
+import boardgame.Board;
+import pentago_twist.PentagoBoard;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline builder for the opening book.
+ *
+ * Starting from the empty board, every position is searched (obvious losses removed, the
+ * Monte Carlo filter, then alpha-beta to the requested depth over the survivors) and its best
+ * move is stored. The best `width` moves of each position are then played to form the next
+ * ply, with positions deduplicated by canonical hash, until `plies` plies have been covered.
+ * The positions of one ply are searched in parallel.
+ *
+ * Usage: java -cp bin student_player.OpeningBookBuilder [-o file] [-plies n] [-width n] [-depth n] [-threads n]
+ */
+public class OpeningBookBuilder {
+    private static final int DEFAULT_PLIES = 6;
+    private static final int DEFAULT_WIDTH = 4;
+    private static final int DEFAULT_DEPTH = 2;
+
+    private static void printUsage() {
+        System.err.println("Usage: java student_player.OpeningBookBuilder [-o file] [-plies n] [-width n] [-depth n] [-threads n]\n"
+                + "  Where '-o file' is the book to write (default=" + OpeningBook.DEFAULT_PATH + ")\n"
+                + "        '-plies n' is the number of plies covered (default=" + DEFAULT_PLIES + ")\n"
+                + "        '-width n' is the number of moves expanded per position (default=" + DEFAULT_WIDTH + ")\n"
+                + "        '-depth n' is the alpha-beta depth after each candidate move (default=" + DEFAULT_DEPTH + ")\n"
+                + "        '-threads n' is the number of search threads (default=number of cores)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String output = OpeningBook.DEFAULT_PATH;
+        int plies = DEFAULT_PLIES;
+        int width = DEFAULT_WIDTH;
+        int depth = DEFAULT_DEPTH;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++){
+                if (args[i].equals("-o"))
+                    output = args[++i];
+                else if (args[i].equals("-plies"))
+                    plies = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-width"))
+                    width = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-depth"))
+                    depth = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-threads"))
+                    threads = Integer.parseInt(args[++i]);
+                else {
+                    printUsage();
+                    return;
+                }
+            }
+        } catch (Exception e){
+            printUsage();
+            return;
+        }
+
+        HashMap<Long, PositionBook.Entry> entries = new HashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<PentagoBoardState> frontier = new ArrayList<>();
+            frontier.add((PentagoBoardState) new PentagoBoard().getBoardState());
+            HashSet<Long> seen = new HashSet<>();
+            seen.add(Zobrist.canonicalHash(frontier.get(0)));
+
+            for (int ply = 0; ply < plies && !frontier.isEmpty(); ply++){
+                long start = System.currentTimeMillis();
+                final int searchDepth = depth;
+                List<Future<List<ScoredMove>>> searches = new ArrayList<>();
+                for (final PentagoBoardState pbs : frontier){
+                    searches.add(pool.submit(() -> rankMoves(pbs, searchDepth)));
+                }
+
+                List<PentagoBoardState> next = new ArrayList<>();
+                for (int i = 0; i < frontier.size(); i++){
+                    PentagoBoardState pbs = frontier.get(i);
+                    List<ScoredMove> ranked = searches.get(i).get();
+                    if (ranked.isEmpty()){
+                        continue;
+                    }
+                    PositionBook.Entry entry = PositionBook.canonicalEntry(pbs, ranked.get(0).move, ranked.get(0).score);
+                    entries.put(entry.getHash(), entry);
+
+                    for (int k = 0; k < Math.min(width, ranked.size()); k++){
+                        PentagoBoardState child = MyTools.cloneBoard(pbs);
+                        child.processMove(ranked.get(k).move);
+                        if (child.getWinner() == Board.NOBODY && seen.add(Zobrist.canonicalHash(child))){
+                            next.add(child);
+                        }
+                    }
+                }
+                System.out.println("Ply " + ply + ": " + frontier.size() + " positions searched in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                frontier = next;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        PositionBook.write(new File(output), entries.values());
+        System.out.println("Wrote " + entries.size() + " positions to " + output);
+    } // main
+
+    /**
+     * Searches a position and ranks its candidate moves from the point of view of the player to move
+     * @param pbs: board state
+     * @param depth: alpha-beta depth after each candidate move
+     * @return candidate moves, best first
+     */
+    public static List<ScoredMove> rankMoves(PentagoBoardState pbs, int depth){
+        int player = pbs.getTurnPlayer();
+        int sign = player == PentagoBoardState.WHITE ? 1 : -1;
+        ArrayList<PentagoMove> candidates = MyTools.removeObviousLosses(player, pbs);
+        if (candidates.size() > 1){
+            candidates = MyTools.monteCarloSimulations(pbs, player, candidates);
+        }
+
+        List<ScoredMove> ranked = new ArrayList<>();
+        for (PentagoMove move : candidates){
+            PentagoBoardState child = MyTools.cloneBoard(pbs);
+            child.processMove(move);
+            int score;
+            if (child.getWinner() == Board.DRAW){
+                score = 0;
+            } else if (child.getWinner() != Board.NOBODY){
+                score = MyTools.checkGameResult(child, player);
+            } else{
+                boolean whiteToMove = child.getTurnPlayer() == PentagoBoardState.WHITE;
+                score = sign * MyTools.alphaBeta(player, child, depth, Integer.MIN_VALUE, Integer.MAX_VALUE, whiteToMove);
+            }
+            ranked.add(new ScoredMove(move, score));
+        }
+        Collections.sort(ranked, new Comparator<ScoredMove>() {
+            @Override
+            public int compare(ScoredMove m1, ScoredMove m2) {
+                return Integer.compare(m2.score, m1.score);
+            }
+        });
+        return ranked;
+    } // rankMoves
+
+    ////////////////////////////////////// SCORED MOVE CLASS //////////////////////////////////////
+    public static class ScoredMove {
+        public final PentagoMove move;
+        public final int score;
+
+        public ScoredMove(PentagoMove move, int score){
+            this.move = move;
+            this.score = score;
+        }
+    } // ScoredMove
+} // OpeningBookBuilder
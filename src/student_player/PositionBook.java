@@ -0,0 +1,222 @@
+package student_player;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Read-only table of solved or searched positions, stored as a sorted binary file and
+ * memory-mapped on open, so that loading costs nothing and a lookup is a binary search.
+ *
+ * File layout (big endian):
+ *   header:  int magic, int version, int number of records
+ *   records: long canonical hash, short move code, short score; sorted by hash
+ *
+ * Hashes are Zobrist.canonicalHash values and moves are stored in the frame of the canonical
+ * position; probe() maps them back onto the board that was asked about.
+ */
+public class PositionBook {
+    public static final int MAGIC = 0x50544B42;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 12;
+    public static final int RECORD_BYTES = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    private PositionBook(MappedByteBuffer buffer, int size){
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * Maps a book file into memory
+     * @param file: book file
+     * @return the book
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static PositionBook open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC){
+                throw new IOException("Not a position book: " + file);
+            }
+            if (buffer.getInt(4) != VERSION){
+                throw new IOException("Unsupported position book version " + buffer.getInt(4) + ": " + file);
+            }
+            int size = buffer.getInt(8);
+            if ((long) HEADER_BYTES + (long) size * RECORD_BYTES > buffer.capacity()){
+                throw new IOException("Truncated position book: " + file);
+            }
+            return new PositionBook(buffer, size);
+        }
+    } // open
+
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Binary search for a canonical hash
+     * @param hash: canonical hash
+     * @return record index, or -1 if absent
+     */
+    public int find(long hash){
+        int low = 0;
+        int high = size - 1;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            long midHash = hashAt(mid);
+            if (midHash < hash){
+                low = mid + 1;
+            } else if (midHash > hash){
+                high = mid - 1;
+            } else{
+                return mid;
+            }
+        }
+        return -1;
+    } // find
+
+    public long hashAt(int index){
+        return buffer.getLong(HEADER_BYTES + index * RECORD_BYTES);
+    }
+
+    public int moveCodeAt(int index){
+        return buffer.getShort(HEADER_BYTES + index * RECORD_BYTES + 8);
+    }
+
+    public int scoreAt(int index){
+        return buffer.getShort(HEADER_BYTES + index * RECORD_BYTES + 10);
+    }
+
+    /**
+     * Looks up a position
+     * @param pbs: board state
+     * @return its entry, with the move code in the frame of pbs, or null if absent
+     */
+    public Entry probe(PentagoBoardState pbs){
+        long hash = Zobrist.hash(pbs);
+        long rotated = Zobrist.rotatedHash(pbs);
+        int index = find(Math.min(hash, rotated));
+        if (index < 0){
+            return null;
+        }
+        int code = moveCodeAt(index);
+        if (rotated < hash){
+            code = MyTools.rotateMoveCode(code);
+        }
+        return new Entry(hashAt(index), code, scoreAt(index));
+    } // probe
+
+    /**
+     * Looks up the stored move of a position
+     * @param pbs: board state
+     * @return the move for the player to move, or null if the position is absent
+     */
+    public PentagoMove bestMove(PentagoBoardState pbs){
+        Entry entry = probe(pbs);
+        if (entry == null){
+            return null;
+        }
+        PentagoMove move = MyTools.decodeMove(entry.getMoveCode(), pbs.getTurnPlayer());
+        return pbs.isLegal(move) ? move : null;
+    } // bestMove
+
+    /**
+     * Builds the entry for a position from a move expressed in the frame of pbs
+     * @param pbs: board state
+     * @param move: move in the frame of pbs
+     * @param score: score to store
+     * @return entry keyed by the canonical hash with the move in the canonical frame
+     */
+    public static Entry canonicalEntry(PentagoBoardState pbs, PentagoMove move, int score){
+        long hash = Zobrist.hash(pbs);
+        long rotated = Zobrist.rotatedHash(pbs);
+        int code = MyTools.moveCode(move);
+        if (rotated < hash){
+            code = MyTools.rotateMoveCode(code);
+        }
+        return new Entry(Math.min(hash, rotated), code, score);
+    } // canonicalEntry
+
+    /**
+     * Writes a book file. Entries are sorted by hash; if a hash appears more than once, the
+     * first entry for it wins
+     * @param file: destination
+     * @param entries: entries to write
+     * @throws IOException on write errors
+     */
+    public static void write(File file, Collection<Entry> entries) throws IOException {
+        ArrayList<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return Long.compare(e1.getHash(), e2.getHash());
+            }
+        });
+        ArrayList<Entry> unique = new ArrayList<>(sorted.size());
+        for (Entry entry : sorted){
+            if (unique.isEmpty() || unique.get(unique.size() - 1).getHash() != entry.getHash()){
+                unique.add(entry);
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(unique.size());
+            for (Entry entry : unique){
+                out.writeLong(entry.getHash());
+                out.writeShort(entry.getMoveCode());
+                out.writeShort(clampScore(entry.getScore()));
+            }
+        }
+        if (file.exists() && !file.delete()){
+            throw new IOException("Cannot replace " + file);
+        }
+        if (!tmp.renameTo(file)){
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    } // write
+
+    public static int clampScore(int score){
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, score));
+    }
+
+    ////////////////////////////////////// ENTRY CLASS //////////////////////////////////////
+    public static class Entry {
+        private final long hash;
+        private final int moveCode;
+        private final int score;
+
+        public Entry(long hash, int moveCode, int score){
+            this.hash = hash;
+            this.moveCode = moveCode;
+            this.score = score;
+        }
+
+        public long getHash(){
+            return this.hash;
+        }
+
+        public int getMoveCode(){
+            return this.moveCode;
+        }
+
+        public int getScore(){
+            return this.score;
+        }
+    } // Entry
+} // PositionBook
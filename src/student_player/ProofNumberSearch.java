@@ -0,0 +1,308 @@
+package student_player;
+import boardgame.Board;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Depth-first proof-number (df-pn) solver for late-game positions.
+ *
+ * Proof and disproof numbers are kept in phi/delta form: phi is the proof number from the
+ * point of view of the player to move and delta its disproof number, so every node combines
+ * its children the same way (phi = min child delta, delta = sum of child phi). The numbers
+ * live in a fixed-size transposition table indexed by Zobrist hash; an overwritten entry is
+ * simply searched again. Marbles are never removed, so the game graph has no cycles and
+ * plain df-pn is sound.
+ *
+ * A solve runs at most two proofs from the root: first "the player to move wins", then,
+ * if that is disproved, "the player to move does not lose". Together they give a win, draw
+ * or loss. Whenever the time budget runs out first the result is UNKNOWN and the caller
+ * should fall back to heuristic search.
+ */
+public class ProofNumberSearch {
+    public static final int INFINITY = Integer.MAX_VALUE / 4;
+    private static final int DEFAULT_TABLE_BITS = 20;
+    private static final int TIME_CHECK_INTERVAL = 64;
+
+    public enum Outcome { WIN, DRAW, LOSS, UNKNOWN }
+
+    // Transposition table
+    private final long[] keys;
+    private final int[] phis;
+    private final int[] deltas;
+    private final int mask;
+
+    // Current proof
+    private int attacker;
+    private boolean drawIsSuccess;
+    private long deadline;
+    private boolean aborted;
+    private long nodes;
+    private long tableProbes;
+    private long tableHits;
+    private PentagoMove rootMove;
+
+    public ProofNumberSearch(){
+        this(DEFAULT_TABLE_BITS);
+    }
+
+    /**
+     * @param tableBits: log2 of the number of transposition table entries
+     */
+    public ProofNumberSearch(int tableBits){
+        int size = 1 << tableBits;
+        this.keys = new long[size];
+        this.phis = new int[size];
+        this.deltas = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Tries to solve a position for the player to move within the given time
+     * @param pbs: board state (left untouched)
+     * @param timeLimit: time budget in milliseconds
+     * @return the outcome, with a move achieving it for WIN and DRAW
+     */
+    public Result solve(PentagoBoardState pbs, long timeLimit){
+        deadline = System.currentTimeMillis() + timeLimit;
+        attacker = pbs.getTurnPlayer();
+        aborted = false;
+        nodes = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        if (isFinished(pbs)){
+            return result(Outcome.UNKNOWN, null);
+        }
+
+        if (prove(pbs, false)){
+            return result(Outcome.WIN, rootMove);
+        }
+        if (aborted){
+            return result(Outcome.UNKNOWN, null);
+        }
+        if (prove(pbs, true)){
+            return result(Outcome.DRAW, rootMove);
+        }
+        return result(aborted ? Outcome.UNKNOWN : Outcome.LOSS, null);
+    } // solve
+
+    private Result result(Outcome outcome, PentagoMove move){
+        return new Result(outcome, move, nodes, tableProbes, tableHits);
+    }
+
+    /**
+     * Runs one proof from the root
+     * @param pbs: root board state
+     * @param drawIsSuccess: whether a draw counts as success for the player to move
+     * @return true if the proof succeeded, in which case rootMove holds a proving move
+     */
+    private boolean prove(PentagoBoardState pbs, boolean drawIsSuccess){
+        this.drawIsSuccess = drawIsSuccess;
+        this.rootMove = null;
+        Arrays.fill(keys, 0L);
+        long key = tableKey(Zobrist.hash(pbs));
+        mid(pbs, key, INFINITY, INFINITY, true);
+        return !aborted && lookupPhi(key) == 0;
+    } // prove
+
+    /**
+     * Multiple iterative deepening step of df-pn: searches pbs until its phi reaches thPhi or
+     * its delta reaches thDelta
+     * @param pbs: board state
+     * @param key: table key of pbs
+     * @param thPhi: proof number threshold
+     * @param thDelta: disproof number threshold
+     * @param isRoot: whether pbs is the root of the proof
+     */
+    private void mid(PentagoBoardState pbs, long key, int thPhi, int thDelta, boolean isRoot){
+        nodes++;
+        if (nodes % TIME_CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline){
+            aborted = true;
+        }
+        if (aborted){
+            return;
+        }
+        if (isFinished(pbs)){
+            storeTerminal(pbs, key);
+            return;
+        }
+
+        ArrayList<PentagoMove> moves = pbs.getAllLegalMoves();
+        int numMoves = moves.size();
+        PentagoBoardState[] children = new PentagoBoardState[numMoves];
+        long[] childKeys = new long[numMoves];
+        for (int i = 0; i < numMoves; i++){
+            PentagoBoardState child = MyTools.cloneBoard(pbs);
+            child.processMove(moves.get(i));
+            children[i] = child;
+            childKeys[i] = tableKey(Zobrist.hash(child));
+            if (isFinished(child)){
+                storeTerminal(child, childKeys[i]);
+            }
+        }
+
+        while (true){
+            int phi = INFINITY;
+            int secondDelta = INFINITY;
+            long delta = 0;
+            int best = 0;
+            for (int i = 0; i < numMoves; i++){
+                int childDelta = lookupDelta(childKeys[i]);
+                if (childDelta < phi){
+                    secondDelta = phi;
+                    phi = childDelta;
+                    best = i;
+                } else if (childDelta < secondDelta){
+                    secondDelta = childDelta;
+                }
+                delta += lookupPhi(childKeys[i]);
+            }
+            delta = Math.min(delta, INFINITY);
+            store(key, phi, (int) delta);
+
+            if (isRoot && phi == 0){
+                rootMove = moves.get(best);
+            }
+            if (phi >= thPhi || delta >= thDelta || aborted){
+                return;
+            }
+
+            long childThPhi = (long) thDelta + lookupPhi(childKeys[best]) - delta;
+            int childThDelta = (int) Math.min(thPhi, (long) secondDelta + 1);
+            mid(children[best], childKeys[best], (int) Math.min(childThPhi, INFINITY), childThDelta, false);
+        }
+    } // mid
+
+    /**
+     * Whether the game is decided, using the same test as the server. gameOver() already turns
+     * true after the 35th ply, while the server still asks black for the last move
+     * @param pbs: board state
+     * @return true if pbs has a winner or is a draw
+     */
+    private static boolean isFinished(PentagoBoardState pbs){
+        return pbs.getWinner() != Board.NOBODY;
+    } // isFinished
+
+    /**
+     * Stores the exact phi/delta of a finished game from the point of view of its player to move
+     * @param pbs: finished board state
+     * @param key: table key of pbs
+     */
+    private void storeTerminal(PentagoBoardState pbs, long key){
+        int winner = pbs.getWinner();
+        boolean attackerSucceeds = winner == attacker || (drawIsSuccess && winner == Board.DRAW);
+        boolean toMoveSucceeds = (pbs.getTurnPlayer() == attacker) == attackerSucceeds;
+        if (toMoveSucceeds){
+            store(key, 0, INFINITY);
+        } else{
+            store(key, INFINITY, 0);
+        }
+    } // storeTerminal
+
+    //////////////////////////// TRANSPOSITION TABLE ////////////////////////////
+
+    // 0 marks an empty slot, so keys are never 0
+    private static long tableKey(long hash){
+        return hash == 0L ? 1L : hash;
+    }
+
+    // Entries live in buckets of two slots; the first slot holds the most recent store
+    private int bucket(long key){
+        return (int) (key ^ (key >>> 32)) & mask & ~1;
+    }
+
+    private int find(long key){
+        int i = bucket(key);
+        if (keys[i] == key){
+            return i;
+        }
+        return keys[i + 1] == key ? i + 1 : -1;
+    }
+
+    private void store(long key, int phi, int delta){
+        int i = bucket(key);
+        if (keys[i] != key && keys[i + 1] != key){
+            // Keep the previous occupant around, which stops a parent and the child it is
+            // searching from evicting each other
+            keys[i + 1] = keys[i];
+            phis[i + 1] = phis[i];
+            deltas[i + 1] = deltas[i];
+        } else if (keys[i] != key){
+            i++;
+        }
+        keys[i] = key;
+        phis[i] = phi;
+        deltas[i] = delta;
+    }
+
+    private int lookupPhi(long key){
+        int i = probe(key);
+        return i >= 0 ? phis[i] : 1;
+    }
+
+    private int lookupDelta(long key){
+        int i = probe(key);
+        return i >= 0 ? deltas[i] : 1;
+    }
+
+    // find() for lookups, counted in the statistics
+    private int probe(long key){
+        int i = find(key);
+        tableProbes++;
+        if (i >= 0){
+            tableHits++;
+        }
+        return i;
+    }
+
+    ////////////////////////////////////// RESULT CLASS //////////////////////////////////////
+    public static class Result {
+        private final Outcome outcome;
+        private final PentagoMove move;
+        private final long nodes;
+        private final long tableProbes;
+        private final long tableHits;
+
+        public Result(Outcome outcome, PentagoMove move, long nodes){
+            this(outcome, move, nodes, 0, 0);
+        }
+
+        public Result(Outcome outcome, PentagoMove move, long nodes, long tableProbes, long tableHits){
+            this.outcome = outcome;
+            this.move = move;
+            this.nodes = nodes;
+            this.tableProbes = tableProbes;
+            this.tableHits = tableHits;
+        }
+
+        public Outcome getOutcome(){
+            return this.outcome;
+        }
+
+        /**
+         * @return a move achieving the outcome, or null for LOSS and UNKNOWN
+         */
+        public PentagoMove getMove(){
+            return this.move;
+        }
+
+        public long getNodes(){
+            return this.nodes;
+        }
+
+        /**
+         * @return transposition table lookups
+         */
+        public long getTableProbes(){
+            return this.tableProbes;
+        }
+
+        /**
+         * @return transposition table lookups that found their entry
+         */
+        public long getTableHits(){
+            return this.tableHits;
+        }
+    } // Result
+} // ProofNumberSearch
@@ -0,0 +1,188 @@
+package student_player;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import pentago_twist.PositionCorpus;
+import student_player.MyTools.MonteCarlo;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Search benchmark over a fixed suite of positions: the position after the first `ply` moves
+ * of each logged game, in order of game ID.
+ *
+ * Each position is searched by findBestMove (or MCTS with -engine mcts) on its own clock,
+ * with either a node budget or a time budget. The search's random choices are reseeded with
+ * -seed before each position, so under a node budget a position is searched the same way on
+ * every run and every machine, whichever positions come before it. The bench prints the best
+ * move, depth reached, nodes and nodes per second of each position, then the totals, the
+ * average time to reach each depth, and, given the best moves of an earlier run with -ref,
+ * how many best moves agree with it. Total nodes under a node budget are the signature to
+ * compare between commits; nodes per second to compare between machines.
+ *
+ * Usage: java -cp bin student_player.SearchBench [-logs dir] [-ply k] [-n positions] [-engine ab|mcts] [-nodes n | -t ms] [-depth d] [-seed n] [-save file] [-ref file]
+ */
+public class SearchBench {
+    public static final String ALPHA_BETA = "ab";
+    public static final String MCTS = "mcts";
+    private static final int DEFAULT_PLY = 10;
+    private static final long DEFAULT_NODES = 200000;
+    private static final int DEFAULT_DEPTH = 4;
+    private static final long DEFAULT_SEED = 1;
+
+    private static void printUsage() {
+        System.err.println("Usage: java student_player.SearchBench [-logs dir] [-ply k] [-n positions] [-engine " + ALPHA_BETA + "|" + MCTS
+                + "] [-nodes n | -t ms] [-depth d] [-seed n] [-save file] [-ref file]\n"
+                + "  Where '-logs dir' is where the games of the suite are logged (default=logs)\n"
+                + "        '-ply k' is the number of moves played in each position (default=" + DEFAULT_PLY + ")\n"
+                + "        '-n positions' limits the suite to its first positions\n"
+                + "        '-engine' is the search to run (default=" + ALPHA_BETA + ")\n"
+                + "        '-nodes n' is the node budget of each position (default=" + DEFAULT_NODES + ")\n"
+                + "        '-t ms' gives each position a time budget instead, like a move with that timeout\n"
+                + "        '-depth d' is the deepest alpha-beta iteration (default=" + DEFAULT_DEPTH + ")\n"
+                + "        '-seed n' seeds the random choices of the search in each position (default=" + DEFAULT_SEED + ")\n"
+                + "        '-save file' writes the best moves, to use with -ref later\n"
+                + "        '-ref file' compares the best moves with those of an earlier run");
+    }
+
+    public static void main(String[] args) throws IOException {
+        String logDir = "logs";
+        String engine = ALPHA_BETA;
+        String save = null;
+        String ref = null;
+        int ply = DEFAULT_PLY;
+        int limit = Integer.MAX_VALUE;
+        long nodes = DEFAULT_NODES;
+        int timeout = 0;
+        int maxDepth = DEFAULT_DEPTH;
+        long seed = DEFAULT_SEED;
+        try {
+            for (int i = 0; i < args.length; i++){
+                if (args[i].equals("-logs"))
+                    logDir = args[++i];
+                else if (args[i].equals("-ply"))
+                    ply = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-n"))
+                    limit = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-engine"))
+                    engine = args[++i];
+                else if (args[i].equals("-nodes"))
+                    nodes = Long.parseLong(args[++i]);
+                else if (args[i].equals("-t"))
+                    timeout = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-depth"))
+                    maxDepth = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-seed"))
+                    seed = Long.parseLong(args[++i]);
+                else if (args[i].equals("-save"))
+                    save = args[++i];
+                else if (args[i].equals("-ref"))
+                    ref = args[++i];
+                else
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            if (!engine.equals(ALPHA_BETA) && !engine.equals(MCTS))
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        } catch (RuntimeException e){
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+
+        List<PentagoBoardState> suite = PositionCorpus.positions(PositionCorpus.loadGames(new File(logDir)), ply, ply);
+        if (suite.size() > limit){
+            suite = suite.subList(0, limit);
+        }
+        if (suite.isEmpty()){
+            System.err.println("No game in " + logDir + " is still going after " + ply + " moves.");
+            System.exit(1);
+        }
+        List<String> reference = ref == null ? null : readMoves(ref);
+
+        // A timeout applies to the first move as well, whatever the position's turn
+        TimeManager timeManager = timeout > 0 ? new TimeManager(timeout, timeout) : new TimeManager();
+        if (timeout <= 0){
+            timeManager.setNodeBudget(nodes);
+        }
+        System.out.println(suite.size() + " positions after " + ply + " moves, " + engine + ", "
+                + (timeout > 0 ? timeout + " ms" : nodes + " nodes") + " each");
+
+        List<String> bestMoves = new ArrayList<>();
+        long totalNodes = 0;
+        long totalMs = 0;
+        int depthSum = 0;
+        int agreed = 0;
+        long[] timeToDepth = new long[SearchStats.MAX_DEPTH + 1];
+        int[] reachedDepth = new int[SearchStats.MAX_DEPTH + 1];
+        for (int i = 0; i < suite.size(); i++){
+            PentagoBoardState pbs = suite.get(i);
+            int turn = pbs.getTurnPlayer();
+            timeManager.startMove(pbs.getTurnNumber());
+            timeManager.getRandom().setSeed(seed);
+            PentagoMove best = engine.equals(MCTS)
+                    ? new MonteCarlo().findBestMCMove(MyTools.cloneBoard(pbs), turn, timeManager)
+                    : MyTools.findBestMove(MyTools.cloneBoard(pbs), turn, maxDepth, timeManager);
+            SearchStats stats = timeManager.getStats();
+            stats.stop();
+            long ms = stats.elapsed();
+
+            String move = best.toTransportable();
+            bestMoves.add(move);
+            totalNodes += stats.getNodes();
+            totalMs += ms;
+            depthSum += Math.max(stats.getDepth(), 0);
+            for (int d = 0; d <= stats.getDepth(); d++){
+                timeToDepth[d] += stats.getTimeToDepth(d);
+                reachedDepth[d]++;
+            }
+            String agreement = "";
+            if (reference != null && i < reference.size()){
+                boolean same = reference.get(i).equals(move);
+                agreed += same ? 1 : 0;
+                agreement = same ? ", same as reference" : ", reference " + reference.get(i);
+            }
+            String reached = engine.equals(MCTS) ? stats.getPlayouts() + " playouts" : "depth " + stats.getDepth();
+            System.out.println(String.format("%3d: %s, %s, %d nodes, %d ms, %d nodes/s%s", i + 1, move, reached,
+                    stats.getNodes(), ms, stats.nodesPerSecond(), agreement));
+        }
+
+        System.out.println("Total: " + totalNodes + " nodes in " + totalMs + " ms, "
+                + (totalMs > 0 ? totalNodes * 1000 / totalMs : 0) + " nodes/s");
+        if (engine.equals(ALPHA_BETA)){
+            System.out.println(String.format("Average depth %.2f", (double) depthSum / suite.size()));
+            for (int d = 0; d <= SearchStats.MAX_DEPTH && reachedDepth[d] > 0; d++){
+                System.out.println(String.format("  depth %d reached in %d/%d positions, after %d ms on average", d,
+                        reachedDepth[d], suite.size(), timeToDepth[d] / reachedDepth[d]));
+            }
+        }
+        if (reference != null){
+            System.out.println("Best move agreement: " + agreed + "/" + Math.min(suite.size(), reference.size()));
+        }
+        if (save != null){
+            try (PrintStream out = new PrintStream(save)){
+                for (String move : bestMoves){
+                    out.println(move);
+                }
+            }
+        }
+    } // main
+
+    /**
+     * @param path: best moves saved with -save
+     * @return the moves, one per position
+     */
+    private static List<String> readMoves(String path) throws IOException {
+        List<String> moves = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))){
+            String line;
+            while ((line = in.readLine()) != null){
+                moves.add(line.trim());
+            }
+        }
+        return moves;
+    } // readMoves
+} // SearchBench
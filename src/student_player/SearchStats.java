@@ -0,0 +1,292 @@
+package student_player;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Counters of one move's search, kept by its TimeManager.
+ *
+ * A node is a position the search reached by making a move: every alpha-beta call, every
+ * move of a random playout and every MCTS tree node. Times are wall times in ms since the
+ * move started, whatever clock the TimeManager budgets with. The table counters are the
+ * solver's, as alpha-beta has no transposition table. Allocated bytes are those of the
+ * thread that started the move, where the JVM can tell (HotSpot can), and -1 elsewhere.
+ *
+ * The search fills these in as it goes; stop() freezes the clock and the allocation count
+ * once the move has been chosen. With -Dpentago.searchStats=dir, StudentPlayer appends the
+ * statistics of every move to a CSV file of its own in dir, one file per game.
+ */
+public class SearchStats {
+    public static final int MAX_DEPTH = 64;
+    public static final String CSV_HEADER = "turn,move,ms,nodes,evaluations,cutoffs,first_move_cutoffs,playouts,"
+            + "tree_size,depth,table_probes,table_hits,solver_ms,obvious_losses_ms,monte_carlo_ms,alpha_beta_ms,mcts_ms,"
+            + "allocated_bytes";
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocations();
+
+    /** Parts of a move's search, timed separately */
+    public enum Stage { SOLVER, OBVIOUS_LOSSES, MONTE_CARLO, ALPHA_BETA, MCTS }
+
+    private long start;
+    private long end;
+    private long startAllocated;
+    private long allocated;
+    private long nodes;
+    private long evaluations;
+    private long cutoffs;
+    private long firstMoveCutoffs;
+    private long playouts;
+    private long treeSize;
+    private long tableProbes;
+    private long tableHits;
+    private int depth;
+    private final long[] depthTimes = new long[MAX_DEPTH + 1];
+    private final long[] stageNanos = new long[Stage.values().length];
+    private Stage stage;
+    private long stageStart;
+
+    public SearchStats(){
+        reset();
+    }
+
+    private static com.sun.management.ThreadMXBean allocations(){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)){
+            return null;
+        }
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported()){
+            return null;
+        }
+        hotspot.setThreadAllocatedMemoryEnabled(true);
+        return hotspot;
+    } // allocations
+
+    private static long allocatedBytes(){
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Clears every counter and restarts the clock
+     */
+    public void reset(){
+        start = System.nanoTime();
+        end = 0;
+        startAllocated = allocatedBytes();
+        allocated = -1;
+        nodes = 0;
+        evaluations = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        playouts = 0;
+        treeSize = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        depth = -1;
+        Arrays.fill(stageNanos, 0);
+        stage = null;
+    } // reset
+
+    /**
+     * Ends the current stage, if any, and starts timing another one
+     * @param stage: the stage starting
+     */
+    public void startStage(Stage stage){
+        endStage();
+        this.stage = stage;
+        stageStart = System.nanoTime();
+    } // startStage
+
+    /**
+     * Ends the current stage, if any
+     */
+    public void endStage(){
+        if (stage != null){
+            stageNanos[stage.ordinal()] += System.nanoTime() - stageStart;
+            stage = null;
+        }
+    } // endStage
+
+    /**
+     * Ends the search of the move: freezes the clock and the allocation count. Must be called
+     * on the thread that started the move
+     */
+    public void stop(){
+        endStage();
+        if (end == 0){
+            end = System.nanoTime();
+            long now = allocatedBytes();
+            allocated = now >= 0 && startAllocated >= 0 ? now - startAllocated : -1;
+        }
+    } // stop
+
+    public void addNodes(long count){
+        nodes += count;
+    }
+
+    public void addEvaluation(){
+        evaluations++;
+    }
+
+    /**
+     * Counts a beta cutoff
+     * @param firstMove: whether the first move searched caused it
+     */
+    public void addCutoff(boolean firstMove){
+        cutoffs++;
+        if (firstMove){
+            firstMoveCutoffs++;
+        }
+    } // addCutoff
+
+    /**
+     * Counts a random playout
+     * @param moves: number of moves played in it
+     */
+    public void addPlayout(int moves){
+        playouts++;
+        nodes += moves;
+    } // addPlayout
+
+    /**
+     * Counts nodes added to a search tree, which are nodes searched as well
+     * @param count: number of tree nodes
+     */
+    public void addTreeNodes(int count){
+        treeSize += count;
+        nodes += count;
+    } // addTreeNodes
+
+    /**
+     * Adds the work of a solver run
+     * @param result: what the solver returned
+     */
+    public void addSolver(ProofNumberSearch.Result result){
+        nodes += result.getNodes();
+        tableProbes += result.getTableProbes();
+        tableHits += result.getTableHits();
+    } // addSolver
+
+    /**
+     * Records that an iteration of iterative deepening has finished
+     * @param depth: depth of the iteration
+     */
+    public void completeDepth(int depth){
+        if (depth > MAX_DEPTH){
+            return;
+        }
+        this.depth = depth;
+        depthTimes[depth] = elapsed();
+    } // completeDepth
+
+    public long getNodes(){
+        return nodes;
+    }
+
+    /**
+     * @return calls to the evaluation function, terminal positions included
+     */
+    public long getEvaluations(){
+        return evaluations;
+    }
+
+    public long getCutoffs(){
+        return cutoffs;
+    }
+
+    /**
+     * @return share of the cutoffs caused by the first move searched, a measure of move
+     * ordering, or 0 without cutoffs
+     */
+    public double getFirstMoveCutoffRate(){
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    public long getPlayouts(){
+        return playouts;
+    }
+
+    /**
+     * @return nodes of the MCTS tree
+     */
+    public long getTreeSize(){
+        return treeSize;
+    }
+
+    public long getTableProbes(){
+        return tableProbes;
+    }
+
+    public long getTableHits(){
+        return tableHits;
+    }
+
+    /**
+     * @return deepest completed alpha-beta iteration, or -1 if none completed
+     */
+    public int getDepth(){
+        return depth;
+    }
+
+    /**
+     * @param depth: an iteration depth up to getDepth()
+     * @return ms from the start of the move to the end of that iteration
+     */
+    public long getTimeToDepth(int depth){
+        return depthTimes[depth];
+    }
+
+    /**
+     * @param stage: a stage of the search
+     * @return ms spent in it, not counting a stage still running
+     */
+    public long getStageTime(Stage stage){
+        return stageNanos[stage.ordinal()] / 1000000;
+    }
+
+    /**
+     * @return bytes allocated by the search thread between the start of the move and stop(),
+     * or -1 if unknown or not stopped yet
+     */
+    public long getAllocatedBytes(){
+        return allocated;
+    }
+
+    /**
+     * @return ms from the start of the move to stop(), or to now if not stopped yet
+     */
+    public long elapsed(){
+        return ((end != 0 ? end : System.nanoTime()) - start) / 1000000;
+    }
+
+    /**
+     * @return nodes per second
+     */
+    public long nodesPerSecond(){
+        long micros = ((end != 0 ? end : System.nanoTime()) - start) / 1000;
+        return micros > 0 ? nodes * 1000000 / micros : 0;
+    } // nodesPerSecond
+
+    /**
+     * @param turn: turn number of the move
+     * @param move: the move chosen, as sent to the server
+     * @return the statistics as a line of CSV_HEADER
+     */
+    public String toCsv(int turn, String move){
+        StringBuilder line = new StringBuilder();
+        line.append(turn).append(',').append(move).append(',').append(elapsed()).append(',').append(nodes)
+                .append(',').append(evaluations).append(',').append(cutoffs).append(',').append(firstMoveCutoffs)
+                .append(',').append(playouts).append(',').append(treeSize).append(',').append(depth)
+                .append(',').append(tableProbes).append(',').append(tableHits);
+        for (Stage s : Stage.values()){
+            line.append(',').append(getStageTime(s));
+        }
+        return line.append(',').append(allocated).toString();
+    } // toCsv
+
+    @Override
+    public String toString(){
+        return String.format("depth %d, %d nodes (%d nodes/s), %d evaluations, %d cutoffs (%.0f%% first move), "
+                + "%d playouts, %d tree nodes in %d ms, %d bytes allocated", depth, nodes, nodesPerSecond(),
+                evaluations, cutoffs, 100 * getFirstMoveCutoffRate(), playouts, treeSize, elapsed(), allocated);
+    }
+} // SearchStats
@@ -1,13 +1,25 @@
 package student_player;
 
+import boardgame.LogWriter;
 import boardgame.Move;
 
+import pentago_twist.PentagoMove;
 import pentago_twist.PentagoPlayer;
 import pentago_twist.PentagoBoardState;
 import student_player.MyTools.MonteCarlo;
+import student_player.ProofNumberSearch.Outcome;
+
+import java.io.File;
+import java.io.IOException;
 
 /** A player file submitted by a student. */
 public class StudentPlayer extends PentagoPlayer {
+    // Directory of the per-game search statistics files, see SearchStats
+    private static final String STATS_DIR = System.getProperty("pentago.searchStats");
+
+    private ProofNumberSearch solver;
+    private SearchStats lastStats;
+    private File statsFile;
 
     /**
      * You must modify this constructor to return your student number. This is
@@ -26,37 +38,97 @@ public class StudentPlayer extends PentagoPlayer {
     public Move chooseMove(PentagoBoardState boardState) {
 
         Move myMove;
+        TimeManager timeManager = new TimeManager();
+        timeManager.startMove(boardState.getTurnNumber());
         PentagoBoardState pbs = MyTools.cloneBoard(boardState);
         int studentTurn = pbs.getTurnPlayer();
         int turnNumber = pbs.getTurnNumber();
 
-        if (turnNumber < 3){
+        // Instant move if the position was searched offline
+        PentagoMove bookMove = OpeningBook.lookup(pbs);
+
+        if (bookMove != null){
+            myMove = bookMove;
+        } else if (turnNumber < 3){
             myMove = MyTools.firstThreeMoves(pbs, studentTurn, turnNumber);
         } else if(turnNumber == 3 || turnNumber == 4){
             myMove = MyTools.fourthAndFifthMoves(pbs, studentTurn, turnNumber);
         } else {
-            MyTools.DEPTH = 2;
+            int depth = 2;
 
             if (turnNumber > MyTools.INCREASE_DEPTH){
-                MyTools.DEPTH = 3;
+                depth = 3;
             }
 
             if (turnNumber > 2*MyTools.INCREASE_DEPTH){
-                MyTools.DEPTH = 4;
+                depth = 4;
             }
 
             /* For Monte Carlo Tree Search
             MonteCarlo MC = new MonteCarlo();
-            myMove = MC.findBestMCMove(pbs, studentTurn);
+            myMove = MC.findBestMCMove(pbs, studentTurn, timeManager);
              */
 
 
-            myMove = MyTools.findBestMove(pbs, studentTurn);
+            myMove = null;
+            if (turnNumber > MyTools.INCREASE_DEPTH){
+                // Late game: look the position up, then try to solve it exactly before searching heuristically
+                myMove = EndgameTablebase.bestMove(pbs);
+            }
+            if (myMove == null && turnNumber > MyTools.INCREASE_DEPTH){
+                if (solver == null){
+                    solver = new ProofNumberSearch();
+                }
+                timeManager.getStats().startStage(SearchStats.Stage.SOLVER);
+                ProofNumberSearch.Result solved = solver.solve(pbs, timeManager.solverBudget());
+                timeManager.getStats().endStage();
+                timeManager.getStats().addSolver(solved);
+                if (solved.getOutcome() == Outcome.WIN || solved.getOutcome() == Outcome.DRAW){
+                    myMove = solved.getMove();
+                }
+            }
+
+            if (myMove == null){
+                myMove = MyTools.findBestMove(pbs, studentTurn, depth, timeManager);
+            }
 
         }
 
 
+        lastStats = timeManager.getStats();
+        lastStats.stop();
+        if (STATS_DIR != null){
+            writeStats(turnNumber, myMove);
+        }
+
         // Return your move to be processed by the server.
         return myMove;
     }
+
+    /**
+     * @return statistics of the search of the last move chosen, or null before the first
+     */
+    public SearchStats getLastSearchStats(){
+        return lastStats;
+    }
+
+    /**
+     * Appends the statistics of the last move to this game's file in STATS_DIR, creating it
+     * on the first move
+     * @param turnNumber: turn number of the move
+     * @param move: the move chosen
+     */
+    private void writeStats(int turnNumber, Move move){
+        try {
+            if (statsFile == null){
+                File dir = new File(STATS_DIR);
+                dir.mkdirs();
+                statsFile = File.createTempFile("search-", ".csv", dir);
+                LogWriter.shared().append(statsFile, SearchStats.CSV_HEADER);
+            }
+            LogWriter.shared().append(statsFile, lastStats.toCsv(turnNumber, move.toTransportable()));
+        } catch (IOException e){
+            System.err.println("Failed to create a search statistics file in " + STATS_DIR + ": " + e.getMessage());
+        }
+    } // writeStats
 }
\ No newline at end of file
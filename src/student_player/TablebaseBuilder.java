@@ -0,0 +1,313 @@
+package student_player;
+import boardgame.Board;
+import boardgame.GameLog;
+import pentago_twist.PentagoBoard;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoMove;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline builder for the endgame tablebase.
+ *
+ * Root positions with `empty` empty cells are taken from the game logs and from seeded random
+ * games, and each one is solved forward with an exact negamax over {-1, 0, 1}. The search
+ * only stops early on a win, so every position it visits gets an exact value, and all of
+ * them are stored. Positions are shared between roots through a concurrent table keyed by
+ * canonical hash, and roots are solved on one thread per core.
+ *
+ * After each root, the positions it solved are appended to `<output>.journal`. A rerun with
+ * the same arguments reloads the journal and skips the roots already solved, so a build can
+ * be interrupted at any time. The journal is deleted once the tablebase has been written.
+ *
+ * Usage: java -cp bin student_player.TablebaseBuilder [-o file] [-empty n] [-random n] [-seed n] [-logs dir] [-threads n]
+ */
+public class TablebaseBuilder {
+    private static final int DEFAULT_EMPTY = 5;
+    private static final int DEFAULT_RANDOM_ROOTS = 1000;
+    private static final long DEFAULT_SEED = 424;
+    // Bytes of a journal record: hash, move code and score
+    private static final int JOURNAL_RECORD = 12;
+
+    // canonical hash -> (move code << 2) | (score + 1)
+    private final ConcurrentHashMap<Long, Integer> solved = new ConcurrentHashMap<>();
+    private final DataOutputStream journal;
+
+    private TablebaseBuilder(DataOutputStream journal){
+        this.journal = journal;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java student_player.TablebaseBuilder [-o file] [-empty n] [-random n] [-seed n] [-logs dir] [-threads n]\n"
+                + "  Where '-o file' is the tablebase to write (default=" + EndgameTablebase.DEFAULT_PATH + ")\n"
+                + "        '-empty n' is the number of empty cells of the root positions (default=" + DEFAULT_EMPTY + ")\n"
+                + "        '-random n' is the number of random games sampled for roots (default=" + DEFAULT_RANDOM_ROOTS + ")\n"
+                + "        '-seed n' seeds the random games (default=" + DEFAULT_SEED + ")\n"
+                + "        '-logs dir' also takes roots from the game logs in dir\n"
+                + "        '-threads n' is the number of solver threads (default=number of cores)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String output = EndgameTablebase.DEFAULT_PATH;
+        int empty = DEFAULT_EMPTY;
+        int randomRoots = DEFAULT_RANDOM_ROOTS;
+        long seed = DEFAULT_SEED;
+        String logDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++){
+                if (args[i].equals("-o"))
+                    output = args[++i];
+                else if (args[i].equals("-empty"))
+                    empty = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-random"))
+                    randomRoots = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-seed"))
+                    seed = Long.parseLong(args[++i]);
+                else if (args[i].equals("-logs"))
+                    logDir = args[++i];
+                else if (args[i].equals("-threads"))
+                    threads = Integer.parseInt(args[++i]);
+                else {
+                    printUsage();
+                    return;
+                }
+            }
+        } catch (Exception e){
+            printUsage();
+            return;
+        }
+
+        List<PentagoBoardState> roots = new ArrayList<>();
+        if (logDir != null){
+            collectLogRoots(new File(logDir), empty, roots);
+        }
+        collectRandomRoots(randomRoots, seed, empty, roots);
+
+        File journalFile = new File(output + ".journal");
+        Map<Long, Integer> resumed = readJournal(journalFile);
+        TablebaseBuilder builder;
+        try (DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)))){
+            builder = new TablebaseBuilder(journal);
+            builder.solved.putAll(resumed);
+            if (!resumed.isEmpty()){
+                System.out.println("Resuming with " + resumed.size() + " positions from " + journalFile);
+            }
+            builder.solveAll(roots, threads);
+        }
+
+        List<PositionBook.Entry> entries = new ArrayList<>(builder.solved.size());
+        for (Map.Entry<Long, Integer> e : builder.solved.entrySet()){
+            int packed = e.getValue();
+            entries.add(new PositionBook.Entry(e.getKey(), packed >> 2, (packed & 3) - 1));
+        }
+        PositionBook.write(new File(output), entries);
+        if (!journalFile.delete()){
+            System.err.println("Could not delete " + journalFile);
+        }
+        System.out.println("Wrote " + entries.size() + " positions to " + output);
+    } // main
+
+    /**
+     * Solves every root that is not solved yet on a pool of threads
+     * @param roots: root positions
+     * @param threads: number of solver threads
+     */
+    private void solveAll(List<PentagoBoardState> roots, int threads) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (final PentagoBoardState root : roots){
+            pool.submit(() -> {
+                if (!solved.containsKey(Zobrist.canonicalHash(root))){
+                    List<PositionBook.Entry> added = new ArrayList<>();
+                    solve(root, added);
+                    appendToJournal(added);
+                }
+                int count = done.incrementAndGet();
+                if (count % 100 == 0 || count == roots.size()){
+                    System.out.println(count + "/" + roots.size() + " roots, " + solved.size() + " positions, "
+                            + (System.currentTimeMillis() - start) / 1000 + " s");
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } // solveAll
+
+    /**
+     * Exact negamax, stopping early only on a win so that the value returned is exact
+     * @param pbs: unfinished board state
+     * @param added: collects the entries this call solved for the first time
+     * @return 1, 0 or -1 for the player to move
+     */
+    private int solve(PentagoBoardState pbs, List<PositionBook.Entry> added){
+        Integer known = solved.get(Zobrist.canonicalHash(pbs));
+        if (known != null){
+            return (known & 3) - 1;
+        }
+
+        int mover = pbs.getTurnPlayer();
+        ArrayList<PentagoMove> moves = pbs.getAllLegalMoves();
+        List<PentagoBoardState> open = new ArrayList<>(moves.size());
+        List<PentagoMove> openMoves = new ArrayList<>(moves.size());
+        int best = EndgameTablebase.LOSS - 1;
+        PentagoMove bestMove = null;
+
+        // Finished children first, so that a win in one never recurses at all
+        for (PentagoMove move : moves){
+            PentagoBoardState child = MyTools.cloneBoard(pbs);
+            child.processMove(move);
+            int winner = child.getWinner();
+            if (winner == Board.NOBODY){
+                open.add(child);
+                openMoves.add(move);
+                continue;
+            }
+            int score = winner == mover ? EndgameTablebase.WIN : winner == Board.DRAW ? EndgameTablebase.DRAW : EndgameTablebase.LOSS;
+            if (score > best){
+                best = score;
+                bestMove = move;
+            }
+            if (best == EndgameTablebase.WIN){
+                break;
+            }
+        }
+        for (int i = 0; i < open.size() && best < EndgameTablebase.WIN; i++){
+            int score = -solve(open.get(i), added);
+            if (score > best){
+                best = score;
+                bestMove = openMoves.get(i);
+            }
+        }
+
+        PositionBook.Entry entry = PositionBook.canonicalEntry(pbs, bestMove, best);
+        if (solved.putIfAbsent(entry.getHash(), (entry.getMoveCode() << 2) | (best + 1)) == null){
+            added.add(entry);
+        }
+        return best;
+    } // solve
+
+    private void appendToJournal(List<PositionBook.Entry> entries){
+        synchronized (journal){
+            try {
+                for (PositionBook.Entry entry : entries){
+                    journal.writeLong(entry.getHash());
+                    journal.writeShort(entry.getMoveCode());
+                    journal.writeShort(entry.getScore());
+                }
+                journal.flush();
+            } catch (IOException e){
+                System.err.println("Failed to append to journal: " + e);
+            }
+        }
+    } // appendToJournal
+
+    /**
+     * Reads the entries of an interrupted build. A record cut short by the interruption is
+     * truncated away, so that the records appended next are read back whole
+     * @param file: journal file
+     * @return canonical hash -> packed entry
+     */
+    private static Map<Long, Integer> readJournal(File file) throws IOException {
+        Map<Long, Integer> entries = new ConcurrentHashMap<>();
+        if (!file.isFile()){
+            return entries;
+        }
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            while (true){
+                long hash = in.readLong();
+                int code = in.readShort();
+                int score = in.readShort();
+                entries.put(hash, (code << 2) | (score + 1));
+                records++;
+            }
+        } catch (EOFException e){
+            // End of the journal
+        }
+        if (file.length() > records * JOURNAL_RECORD){
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)){
+                channel.truncate(records * JOURNAL_RECORD);
+            }
+        }
+        return entries;
+    } // readJournal
+
+    //////////////////////////// ROOT POSITIONS ////////////////////////////
+
+    private static int countEmpty(PentagoBoardState pbs){
+        int count = 0;
+        for (int i = 0; i < PentagoBoardState.BOARD_SIZE; i++){
+            for (int j = 0; j < PentagoBoardState.BOARD_SIZE; j++){
+                if (pbs.getPieceAt(i, j) == PentagoBoardState.Piece.EMPTY){
+                    count++;
+                }
+            }
+        }
+        return count;
+    } // countEmpty
+
+    /**
+     * Plays seeded random games and keeps the position reached with `empty` empty cells
+     */
+    private static void collectRandomRoots(int games, long seed, int empty, List<PentagoBoardState> roots){
+        Random random = new Random(seed);
+        for (int g = 0; g < games; g++){
+            PentagoBoardState pbs = (PentagoBoardState) new PentagoBoard().getBoardState();
+            while (pbs.getWinner() == Board.NOBODY && countEmpty(pbs) > empty){
+                ArrayList<PentagoMove> moves = pbs.getAllLegalMoves();
+                pbs.processMove(moves.get(random.nextInt(moves.size())));
+            }
+            if (pbs.getWinner() == Board.NOBODY){
+                roots.add(pbs);
+            }
+        }
+    } // collectRandomRoots
+
+    /**
+     * Replays the games logged in a log directory, as files or in its archive, and keeps the
+     * positions reached with `empty` empty cells
+     */
+    private static void collectLogRoots(File dir, final int empty, final List<PentagoBoardState> roots) throws IOException {
+        GameLog.forEachLog(dir, new GameLog.Visitor(){
+            public void visit(int gameID, BufferedReader in) throws IOException {
+                PentagoBoardState pbs = (PentagoBoardState) new PentagoBoard().getBoardState();
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null && pbs.getWinner() == Board.NOBODY && countEmpty(pbs) > empty){
+                        if (line.isEmpty() || line.startsWith("#") || line.startsWith("START") || line.startsWith("GAMEOVER")){
+                            continue;
+                        }
+                        pbs.processMove(new PentagoMove(line));
+                    }
+                } catch (IllegalArgumentException e){
+                    System.err.println("Skipping game " + gameID + ": " + e.getMessage());
+                    return;
+                }
+                if (pbs.getWinner() == Board.NOBODY && countEmpty(pbs) == empty){
+                    roots.add(pbs);
+                }
+            }
+        });
+    } // collectLogRoots
+} // TablebaseBuilder
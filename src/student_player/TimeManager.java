@@ -0,0 +1,222 @@
+package student_player;
+import boardgame.Server;
+import pentago_twist.PentagoMove;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Time budget of one move.
+ *
+ * The hard limit is the server's timeout for this move (FIRST_MOVE_TIMEOUT on turn 0,
+ * DEFAULT_TIMEOUT afterwards) minus a safety margin for the network round trip and GC
+ * pauses; nothing may run past it. Search aims for a soft limit, a fraction of the hard
+ * budget, and may stop before it once the best move has stopped changing. The solver and
+ * the Monte Carlo filter get fixed shares of what is left of the soft budget when they start,
+ * and alpha-beta gets the rest.
+ *
+ * The timeouts can be overridden with -Dpentago.firstMoveTimeout=ms and -Dpentago.timeout=ms
+ * when the server is started with -ft or -t.
+ *
+ * With -Dpentago.cpuClock=true every time is measured in CPU time of the calling thread
+ * rather than wall time, so that a player sharing the machine with other games (see
+ * autoplay.Tournament) still gets the same amount of thinking. The search must then run on
+ * the thread that started the move.
+ *
+ * With a node budget (see setNodeBudget) the budget is counted in search nodes instead, so
+ * that a search does the same work on every machine; benchmarks use this. The solver budget
+ * is then in nodes too, and means nothing to the solver. The search makes its random choices
+ * with getRandom(), so once that is seeded too, a search under a node budget repeats itself.
+ *
+ * Each move also gets fresh SearchStats, which the search fills in as it goes.
+ */
+public class TimeManager {
+    public static final int SAFETY_MARGIN = 400;
+    public static final int MIN_BUDGET = 50;
+    public static final double SOFT_FRACTION = 0.25;
+    public static final double SOLVER_SHARE = 0.25;
+    public static final double MC_SHARE = 0.4;
+    public static final double MIN_EARLY_STOP = 0.5;
+    public static final int STABLE_ITERATIONS = 3;
+    private static final int CHECK_INTERVAL = 1024;
+    private static final ThreadMXBean CPU_CLOCK = Boolean.getBoolean("pentago.cpuClock") ? cpuClock() : null;
+
+    private final int firstMoveTimeout;
+    private final int moveTimeout;
+    private final SearchStats stats = new SearchStats();
+    private final Random random = new Random();
+    private long nodeBudget;
+    private long start;
+    private long softDeadline;
+    private long hardDeadline;
+    private boolean expired;
+    private int checks;
+    private int bestCode;
+    private int stableCount;
+
+    private static ThreadMXBean cpuClock(){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isCurrentThreadCpuTimeSupported()){
+            System.err.println("Thread CPU time is not supported, timing moves in wall time.");
+            return null;
+        }
+        threads.setThreadCpuTimeEnabled(true);
+        return threads;
+    } // cpuClock
+
+    /**
+     * @return current time in ms, in CPU time of this thread if pentago.cpuClock is set
+     */
+    public static long now(){
+        if (CPU_CLOCK != null){
+            long cpu = CPU_CLOCK.getCurrentThreadCpuTime();
+            if (cpu >= 0){
+                return cpu / 1000000;
+            }
+        }
+        return System.currentTimeMillis();
+    } // now
+
+    public TimeManager(){
+        this(Integer.getInteger("pentago.firstMoveTimeout", Server.FIRST_MOVE_TIMEOUT),
+                Integer.getInteger("pentago.timeout", Server.DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * @param firstMoveTimeout: server timeout for a player's first move, in ms
+     * @param moveTimeout: server timeout for every other move, in ms
+     */
+    public TimeManager(int firstMoveTimeout, int moveTimeout){
+        this.firstMoveTimeout = firstMoveTimeout;
+        this.moveTimeout = moveTimeout;
+        startMove(1);
+    }
+
+    /**
+     * Starts the clock for a new move
+     * @param turnNumber: turn number of the board state to move from
+     */
+    public void startMove(int turnNumber){
+        int timeout = turnNumber == 0 ? firstMoveTimeout : moveTimeout;
+        long budget = nodeBudget > 0 ? nodeBudget : Math.max(timeout - SAFETY_MARGIN, MIN_BUDGET);
+        stats.reset();
+        start = clock();
+        hardDeadline = start + budget;
+        softDeadline = start + (long) (budget * SOFT_FRACTION);
+        expired = false;
+        checks = 0;
+        bestCode = -1;
+        stableCount = 0;
+    } // startMove
+
+    /**
+     * Budgets every move from the next startMove in search nodes rather than time
+     * @param nodes: hard budget of a move in nodes, or 0 to go back to time
+     */
+    public void setNodeBudget(long nodes){
+        nodeBudget = Math.max(nodes, 0);
+    } // setNodeBudget
+
+    /**
+     * @return the clock of the budget: now(), or the nodes searched with a node budget
+     */
+    public long clock(){
+        return nodeBudget > 0 ? stats.getNodes() : now();
+    }
+
+    /**
+     * @return statistics of the current move's search
+     */
+    public SearchStats getStats(){
+        return stats;
+    }
+
+    /**
+     * @return source of the search's random choices: move shuffling, playouts and MCTS
+     * children. Unseeded unless the caller seeds it
+     */
+    public Random getRandom(){
+        return random;
+    }
+
+    public long elapsed(){
+        return clock() - start;
+    }
+
+    public long remainingHard(){
+        return Math.max(hardDeadline - clock(), 0);
+    }
+
+    public long remainingSoft(){
+        return Math.max(softDeadline - clock(), 0);
+    }
+
+    /**
+     * @return time the solver may use, in ms
+     */
+    public long solverBudget(){
+        return (long) (SOLVER_SHARE * remainingSoft());
+    }
+
+    /**
+     * @return deadline of the Monte Carlo filter, on the clock() clock
+     */
+    public long monteCarloDeadline(){
+        return clock() + (long) (MC_SHARE * remainingSoft());
+    }
+
+    public boolean softExpired(){
+        return clock() >= softDeadline;
+    }
+
+    public boolean hardExpired(){
+        if (!expired){
+            expired = clock() >= hardDeadline;
+        }
+        return expired;
+    }
+
+    /**
+     * Cheap version of hardExpired() for inner search loops, which only reads the clock
+     * every CHECK_INTERVAL calls
+     * @return true once the hard limit has been seen to pass
+     */
+    public boolean pollHardExpired(){
+        if (++checks % CHECK_INTERVAL == 0){
+            return hardExpired();
+        }
+        return expired;
+    }
+
+    /**
+     * Records the best move after a search iteration
+     * @param move: current best move
+     */
+    public void reportBest(PentagoMove move){
+        int code = MyTools.moveCode(move);
+        stableCount = code == bestCode ? stableCount + 1 : 0;
+        bestCode = code;
+    } // reportBest
+
+    /**
+     * @return true if the best move has not changed for STABLE_ITERATIONS reports
+     */
+    public boolean isStable(){
+        return stableCount >= STABLE_ITERATIONS;
+    }
+
+    /**
+     * Decides whether iterative search should start another iteration
+     * @param lastIteration: duration of the iteration just finished, in ms
+     * @param growth: expected ratio between the next iteration and the last one
+     * @return true if the search should stop now
+     */
+    public boolean shouldStop(long lastIteration, double growth){
+        if (softExpired() || lastIteration * growth > remainingHard()){
+            return true;
+        }
+        long softBudget = softDeadline - start;
+        return isStable() && elapsed() >= MIN_EARLY_STOP * softBudget;
+    } // shouldStop
+} // TimeManager
@@ -0,0 +1,89 @@
+package student_player;
+import pentago_twist.PentagoBoardState;
+import pentago_twist.PentagoBoardState.Piece;
+import java.util.Random;
+
+/**
+ * Zobrist hashing of Pentago-Twist positions. Every (colour, cell) pair gets a fixed random
+ * 64-bit key and a position hashes to the XOR of the keys of its marbles. The keys come from
+ * a fixed seed so that hashes stay valid across runs and can be stored on disk.
+ *
+ * Marbles are never removed, so the number of marbles already fixes the turn number and the
+ * player to move; the side to move is still folded in so the hash is safe on its own.
+ *
+ * The only symmetry of the game is the half turn of the whole board: it maps quadrants onto
+ * quadrants and commutes with both the right rotation and the flip, whereas quarter turns and
+ * mirrors would turn those twists into moves the rules do not have. The canonical hash is the
+ * smaller of the hashes of a position and of its half turn.
+ */
+public class Zobrist {
+    private static final long SEED = 0x5EED_2424_0036L;
+    private static final int NUM_CELLS = PentagoBoardState.BOARD_SIZE * PentagoBoardState.BOARD_SIZE;
+    private static final long[] WHITE_KEYS = new long[NUM_CELLS];
+    private static final long[] BLACK_KEYS = new long[NUM_CELLS];
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        Random random = new Random(SEED);
+        for (int cell = 0; cell < NUM_CELLS; cell++){
+            WHITE_KEYS[cell] = random.nextLong();
+            BLACK_KEYS[cell] = random.nextLong();
+        }
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    private Zobrist(){
+    }
+
+    /**
+     * Hash of a board state
+     * @param pbs: board state
+     * @return 64-bit Zobrist hash
+     */
+    public static long hash(PentagoBoardState pbs){
+        Piece[][] board = pbs.getBoard();
+        long hash = pbs.getTurnPlayer() == PentagoBoardState.BLACK ? BLACK_TO_MOVE : 0L;
+        for (int i = 0; i < PentagoBoardState.BOARD_SIZE; i++){
+            for (int j = 0; j < PentagoBoardState.BOARD_SIZE; j++){
+                Piece piece = board[i][j];
+                if (piece == Piece.WHITE){
+                    hash ^= WHITE_KEYS[i * PentagoBoardState.BOARD_SIZE + j];
+                } else if (piece == Piece.BLACK){
+                    hash ^= BLACK_KEYS[i * PentagoBoardState.BOARD_SIZE + j];
+                }
+            }
+        }
+        return hash;
+    } // hash
+
+    /**
+     * Hash of a board state turned by 180 degrees, i.e. with cell c moved to cell 35 - c
+     * @param pbs: board state
+     * @return 64-bit Zobrist hash of the rotated position
+     */
+    public static long rotatedHash(PentagoBoardState pbs){
+        Piece[][] board = pbs.getBoard();
+        long hash = pbs.getTurnPlayer() == PentagoBoardState.BLACK ? BLACK_TO_MOVE : 0L;
+        for (int i = 0; i < PentagoBoardState.BOARD_SIZE; i++){
+            for (int j = 0; j < PentagoBoardState.BOARD_SIZE; j++){
+                Piece piece = board[i][j];
+                int rotated = NUM_CELLS - 1 - (i * PentagoBoardState.BOARD_SIZE + j);
+                if (piece == Piece.WHITE){
+                    hash ^= WHITE_KEYS[rotated];
+                } else if (piece == Piece.BLACK){
+                    hash ^= BLACK_KEYS[rotated];
+                }
+            }
+        }
+        return hash;
+    } // rotatedHash
+
+    /**
+     * Hash shared by a position and its half turn
+     * @param pbs: board state
+     * @return the smaller of hash(pbs) and rotatedHash(pbs)
+     */
+    public static long canonicalHash(PentagoBoardState pbs){
+        return Math.min(hash(pbs), rotatedHash(pbs));
+    } // canonicalHash
+} // Zobrist